@@ -0,0 +1,283 @@
+package org.sks.portsmanagement.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Consumer;
+
+// Which ship (IPv4 address) may send to which UDP port, loaded from fleet.registry.file
+// ({"ships":[{"name","ip","ports":["15000-15004"]}]}) or, when there is no such file,
+// from the bundled fleet-default.json. The file is re-read when it changes; ships can
+// also be added, changed and removed at runtime, which rewrites the file.
+//
+// Every change builds a new immutable Table that is swapped in whole. The per-packet
+// check is then one array read: the port indexes the owner's address as an int.
+@Component
+public class FleetRegistry {
+
+    private static final String DEFAULT_RESOURCE = "/fleet-default.json";
+
+    private static final class Table {
+        final List<FleetShip> ships;
+        // IPv4 address of the owning ship per port; 0 for unassigned ports.
+        final int[] portOwner = new int[65536];
+        final Map<Integer, FleetShip> byAddress = new HashMap<>();
+        final SortedSet<Integer> ports = new TreeSet<>();
+
+        // Validates and indexes a ship list; IllegalArgumentException names the problem.
+        Table(List<FleetShip> source) {
+            List<FleetShip> ships = new ArrayList<>();
+            for (FleetShip ship : source) {
+                int address = parseAddress(ship.getIp());
+                String ip = formatAddress(address);
+                if (byAddress.containsKey(address)) {
+                    throw new IllegalArgumentException("Ship " + ip + " is listed twice");
+                }
+                List<String> ranges = new ArrayList<>();
+                for (String range : ship.getPorts()) {
+                    int[] bounds = parseRange(range);
+                    for (int port = bounds[0]; port <= bounds[1]; port++) {
+                        if (portOwner[port] != 0) {
+                            throw new IllegalArgumentException("Port " + port + " is assigned to both "
+                                    + formatAddress(portOwner[port]) + " and " + ip);
+                        }
+                        portOwner[port] = address;
+                        ports.add(port);
+                    }
+                    ranges.add(bounds[0] == bounds[1] ? Integer.toString(bounds[0]) : bounds[0] + "-" + bounds[1]);
+                }
+                String name = ship.getName() != null && !ship.getName().isBlank() ? ship.getName() : ip;
+                FleetShip normalized = new FleetShip(name, ip, ranges);
+                byAddress.put(address, normalized);
+                ships.add(normalized);
+            }
+            this.ships = Collections.unmodifiableList(ships);
+        }
+    }
+
+    private final ObjectMapper objectMapper;
+    private final Path file;
+    private volatile Table table = new Table(List.of());
+    private volatile Consumer<Set<Integer>> portsListener;
+    // Guarded by this.
+    private long loadedModified = Long.MIN_VALUE;
+
+    public FleetRegistry(ObjectMapper objectMapper,
+                         @Value("${fleet.registry.file:./config/fleet.json}") String file) {
+        this.objectMapper = objectMapper;
+        this.file = Paths.get(file);
+    }
+
+    @PostConstruct
+    public synchronized void load() {
+        try {
+            if (Files.exists(file)) {
+                apply(readFile(), false);
+                System.out.println("✅ Fleet registry loaded from " + file.toAbsolutePath());
+                return;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("❌ Cannot load fleet registry " + file + ", using the default fleet: " + e.getMessage());
+        }
+        try (InputStream in = FleetRegistry.class.getResourceAsStream(DEFAULT_RESOURCE)) {
+            apply(parse(objectMapper.readTree(in)), false);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read " + DEFAULT_RESOURCE, e);
+        }
+    }
+
+    // Re-reads the file when its modification time changed. A file that does not parse
+    // or validate leaves the current registry in place.
+    @Scheduled(fixedDelayString = "${fleet.registry.reload-interval-ms:5000}")
+    public synchronized void reloadIfChanged() {
+        try {
+            if (!Files.exists(file) || Files.getLastModifiedTime(file).toMillis() == loadedModified) {
+                return;
+            }
+            reload();
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("❌ Fleet registry " + file + " not reloaded: " + e.getMessage());
+            markLoaded();
+        }
+    }
+
+    public synchronized List<FleetShip> reload() throws IOException {
+        apply(readFile(), false);
+        System.out.println("✅ Fleet registry reloaded: " + table.ships.size() + " ships, " + table.ports.size() + " ports");
+        return table.ships;
+    }
+
+    // Adds the ship or replaces the entry with the same address.
+    public synchronized FleetShip putShip(FleetShip ship) throws IOException {
+        int address = parseAddress(ship.getIp());
+        List<FleetShip> ships = new ArrayList<>();
+        for (FleetShip existing : table.ships) {
+            if (parseAddress(existing.getIp()) != address) {
+                ships.add(existing);
+            }
+        }
+        ships.add(ship);
+        apply(ships, true);
+        return table.byAddress.get(address);
+    }
+
+    public synchronized boolean removeShip(String ip) throws IOException {
+        int address = parseAddress(ip);
+        if (!table.byAddress.containsKey(address)) {
+            return false;
+        }
+        List<FleetShip> ships = new ArrayList<>(table.ships);
+        ships.remove(table.byAddress.get(address));
+        apply(ships, true);
+        return true;
+    }
+
+    // Builds the new table first so that an invalid change leaves everything as it was.
+    private void apply(List<FleetShip> ships, boolean persist) throws IOException {
+        Table next = new Table(ships);
+        if (persist) {
+            write(next.ships);
+        }
+        boolean portsChanged = !next.ports.equals(table.ports);
+        table = next;
+        if (Files.exists(file)) {
+            markLoaded();
+        }
+        Consumer<Set<Integer>> listener = portsListener;
+        if (portsChanged && listener != null) {
+            listener.accept(next.ports);
+        }
+    }
+
+    private void markLoaded() {
+        try {
+            loadedModified = Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            loadedModified = Long.MIN_VALUE;
+        }
+    }
+
+    private List<FleetShip> readFile() throws IOException {
+        return parse(objectMapper.readTree(file.toFile()));
+    }
+
+    private List<FleetShip> parse(JsonNode root) {
+        JsonNode ships = root != null ? root.get("ships") : null;
+        if (ships == null || !ships.isArray()) {
+            throw new IllegalArgumentException("expected {\"ships\": [...]}");
+        }
+        List<FleetShip> parsed = new ArrayList<>();
+        for (JsonNode ship : ships) {
+            parsed.add(objectMapper.convertValue(ship, FleetShip.class));
+        }
+        return parsed;
+    }
+
+    private void write(List<FleetShip> ships) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(temporary.toFile(), Map.of("ships", ships));
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Receive path: no allocation, no hashing. Inet4Address.hashCode() is the address
+    // itself as a big-endian int, the same key the table is built with.
+    public boolean isAllowed(InetAddress sender, int port) {
+        if (!(sender instanceof Inet4Address)) {
+            return false;
+        }
+        int owner = table.portOwner[port];
+        return owner != 0 && owner == sender.hashCode();
+    }
+
+    // Address of the ship a port belongs to, or null.
+    public String ownerOf(int port) {
+        int owner = table.portOwner[port];
+        return owner != 0 ? formatAddress(owner) : null;
+    }
+
+    public String allowedPortsFor(InetAddress sender) {
+        FleetShip ship = sender instanceof Inet4Address ? table.byAddress.get(sender.hashCode()) : null;
+        if (ship == null) {
+            return "none (IP not allowed)";
+        }
+        return String.join(",", ship.getPorts());
+    }
+
+    public List<FleetShip> getShips() {
+        return table.ships;
+    }
+
+    public Set<Integer> getPorts() {
+        return Collections.unmodifiableSortedSet(table.ports);
+    }
+
+    // Told the new port set whenever a change adds or removes ports.
+    public void setPortsListener(Consumer<Set<Integer>> listener) {
+        this.portsListener = listener;
+    }
+
+    static int parseAddress(String ip) {
+        if (ip == null) {
+            throw new IllegalArgumentException("Ship without an ip");
+        }
+        String[] octets = ip.trim().split("\\.", -1);
+        if (octets.length != 4) {
+            throw new IllegalArgumentException("Not an IPv4 address: " + ip);
+        }
+        int address = 0;
+        for (String octet : octets) {
+            int value;
+            try {
+                value = Integer.parseInt(octet);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not an IPv4 address: " + ip);
+            }
+            if (value < 0 || value > 255) {
+                throw new IllegalArgumentException("Not an IPv4 address: " + ip);
+            }
+            address = (address << 8) | value;
+        }
+        if (address == 0) {
+            throw new IllegalArgumentException("0.0.0.0 cannot be a ship address");
+        }
+        return address;
+    }
+
+    static String formatAddress(int address) {
+        return (address >>> 24) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+
+    // "start-end" or a single port.
+    static int[] parseRange(String range) {
+        if (range == null) {
+            throw new IllegalArgumentException("Empty port range");
+        }
+        String[] bounds = range.trim().split("-", -1);
+        try {
+            int start = Integer.parseInt(bounds[0].trim());
+            int end = bounds.length == 2 ? Integer.parseInt(bounds[1].trim()) : start;
+            if (bounds.length > 2 || start < 1 || end > 65535 || start > end) {
+                throw new IllegalArgumentException("Invalid port range: " + range);
+            }
+            return new int[]{start, end};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port range: " + range);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.sks.portsmanagement.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// One entry of the fleet registry file: the ship's IPv4 address and the UDP port ranges
+// ("15000-15004" or a single "15050") its vessels send to.
+public class FleetShip {
+
+    private String name;
+    private String ip;
+    private List<String> ports = new ArrayList<>();
+
+    public FleetShip() {
+    }
+
+    public FleetShip(String name, String ip, List<String> ports) {
+        this.name = name;
+        this.ip = ip;
+        this.ports = new ArrayList<>(ports);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public void setIp(String ip) {
+        this.ip = ip;
+    }
+
+    public List<String> getPorts() {
+        return ports;
+    }
+
+    public void setPorts(List<String> ports) {
+        this.ports = ports != null ? ports : new ArrayList<>();
+    }
+}
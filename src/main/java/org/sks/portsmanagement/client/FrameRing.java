@@ -0,0 +1,99 @@
+package org.sks.portsmanagement.client;
+
+import org.sks.portsmanagement.service.UdpReplyChannel;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Bounded multi-producer, single-consumer hand-off of MAVLink frames in wire form, from
+// the receive threads to one processing worker. Every slot is preallocated with room
+// for the longest frame, so offering a frame is a copy and never allocates; a full ring
+// rejects the frame. As in the history RecordRing, each slot carries a sequence number
+// that says whose turn it is, so producers only contend on the head counter.
+final class FrameRing {
+
+    private final int capacity;
+    private final int indexMask;
+    private final AtomicLong head = new AtomicLong();
+    // Consumer only.
+    private long tail;
+    private final AtomicLongArray slotSequence;
+
+    // Frame bytes of slot i start at i * MAX_FRAME_LENGTH.
+    final ByteBuffer frames;
+    final int[] messageIds;
+    final int[] ports;
+    final int[] senderPorts;
+    final long[] receivedNanos;
+    final InetAddress[] senders;
+    final UdpReplyChannel[] replyChannels;
+
+    FrameRing(int requestedCapacity) {
+        int size = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+        this.capacity = size;
+        this.indexMask = size - 1;
+        this.slotSequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slotSequence.set(i, i);
+        }
+        this.frames = ByteBuffer.allocate(size * MavlinkDatagramDecoder.MAX_FRAME_LENGTH);
+        this.messageIds = new int[size];
+        this.ports = new int[size];
+        this.senderPorts = new int[size];
+        this.receivedNanos = new long[size];
+        this.senders = new InetAddress[size];
+        this.replyChannels = new UdpReplyChannel[size];
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    // Frames offered but not yet released by the consumer; approximate while both run.
+    int size() {
+        return (int) Math.max(0, Math.min(capacity, head.get() - tail));
+    }
+
+    // Copies the frame at [offset, offset + length) of source. Returns false (and
+    // copies nothing) when the ring is full.
+    boolean offer(int port, UdpReplyChannel replyChannel, ByteBuffer source, int offset, int length, int messageId,
+                  InetAddress sender, int senderPort, long received) {
+        long position;
+        int slot;
+        while (true) {
+            position = head.get();
+            slot = (int) (position & indexMask);
+            long sequence = slotSequence.get(slot);
+            if (sequence == position) {
+                if (head.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (sequence < position) {
+                return false;
+            }
+        }
+        frames.put(slot * MavlinkDatagramDecoder.MAX_FRAME_LENGTH, source, offset, length);
+        messageIds[slot] = messageId;
+        ports[slot] = port;
+        senderPorts[slot] = senderPort;
+        receivedNanos[slot] = received;
+        senders[slot] = sender;
+        replyChannels[slot] = replyChannel;
+        slotSequence.lazySet(slot, position + 1);
+        return true;
+    }
+
+    // Slot index of the next published frame, or -1 if there is none yet.
+    int peek() {
+        int slot = (int) (tail & indexMask);
+        return slotSequence.get(slot) == tail + 1 ? slot : -1;
+    }
+
+    // Hands the slot returned by peek() back to the producers.
+    void release(int slot) {
+        slotSequence.lazySet(slot, tail + capacity);
+        tail++;
+    }
+}
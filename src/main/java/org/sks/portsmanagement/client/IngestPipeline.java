@@ -0,0 +1,194 @@
+package org.sks.portsmanagement.client;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.sks.portsmanagement.metrics.TelemetryMetrics;
+import org.sks.portsmanagement.service.MavlinkMessageHandlerService;
+import org.sks.portsmanagement.service.UdpReplyChannel;
+import org.sks.portsmanagement.service.handler.MavlinkFrame;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Decouples UDP receive from message processing. Receive threads only frame and
+// CRC-check a datagram and copy each wanted frame into the ring of one worker; the
+// workers run its handler (handleFrame). A port always maps to the same worker, so every
+// vessel's messages are processed in the order they were received, and a slow
+// handler no longer holds up socket reads. A full ring drops the frame and
+// counts it (mavlink.pipeline.dropped), so bursts show up as numbers instead of
+// silent kernel drops.
+@Component
+public class IngestPipeline {
+
+    // What an idle worker does while its ring is empty, from lowest latency and
+    // highest CPU use to the opposite.
+    enum WaitStrategy {
+        // Spins on the ring; one core per worker stays busy.
+        BUSY_SPIN,
+        // Spins briefly, then yields the core between checks.
+        YIELDING,
+        // Spins, yields, then sleeps in short parks; no producer involvement.
+        SLEEPING,
+        // Spins briefly, then parks until a producer wakes it.
+        BLOCKING;
+
+        static WaitStrategy parse(String value) {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    // Upper bound on a BLOCKING park, in case a wake-up races the worker going to sleep.
+    private static final long BLOCKING_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final MavlinkMessageHandlerService messageHandlerService;
+    private final TelemetryMetrics metrics;
+    private final boolean enabled;
+    private final WaitStrategy waitStrategy;
+    private final Worker[] workers;
+    private volatile boolean running;
+
+    public IngestPipeline(MavlinkMessageHandlerService messageHandlerService,
+                          TelemetryMetrics metrics,
+                          @Value("${mavlink.pipeline.enabled:true}") boolean enabled,
+                          @Value("${mavlink.pipeline.workers:0}") int workers,
+                          @Value("${mavlink.pipeline.ring-capacity:8192}") int ringCapacity,
+                          @Value("${mavlink.pipeline.wait-strategy:blocking}") String waitStrategy) {
+        this.messageHandlerService = messageHandlerService;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.waitStrategy = WaitStrategy.parse(waitStrategy);
+        int count = workers > 0 ? workers : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.workers = new Worker[enabled ? count : 0];
+        for (int i = 0; i < this.workers.length; i++) {
+            this.workers[i] = new Worker(i, new FrameRing(ringCapacity));
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        for (Worker worker : workers) {
+            metrics.gauge("mavlink.pipeline.ring.depth", "Frames waiting in a worker's ring", worker.ring,
+                    FrameRing::size, "worker", Integer.toString(worker.index));
+            worker.thread.start();
+        }
+        System.out.printf("✅ Ingest pipeline: %d workers, %d frames per ring, %s wait%n", workers.length,
+                workers[0].ring.capacity(), waitStrategy.name().toLowerCase().replace('_', '-'));
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Receive path: copies the frame into the ring of the port's worker.
+    void offer(int port, UdpReplyChannel replyChannel, TelemetryMetrics.PortCounters counters,
+               ByteBuffer frame, int offset, int length, int messageId,
+               InetAddress sender, int senderPort, long receivedNanos) {
+        Worker worker = workers[port % workers.length];
+        if (!worker.ring.offer(port, replyChannel, frame, offset, length, messageId, sender, senderPort, receivedNanos)) {
+            counters.pipelineDropped();
+            return;
+        }
+        if (waitStrategy == WaitStrategy.BLOCKING && worker.parked) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    private final class Worker implements Runnable {
+        final int index;
+        final FrameRing ring;
+        final Thread thread;
+        final MavlinkFrame frame = new MavlinkFrame(new MavlinkDatagramDecoder());
+        volatile boolean parked;
+
+        Worker(int index, FrameRing ring) {
+            this.index = index;
+            this.ring = ring;
+            this.thread = new Thread(this, "mavlink-worker-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (running) {
+                int slot = ring.peek();
+                if (slot < 0) {
+                    idle = idle(idle);
+                    continue;
+                }
+                idle = 0;
+                try {
+                    process(slot);
+                } catch (RuntimeException e) {
+                    System.err.printf("❌ Error handling message on port %d: %s%n", ring.ports[slot], e.getMessage());
+                } finally {
+                    ring.release(slot);
+                }
+            }
+        }
+
+        private void process(int slot) {
+            frame.wrap(ring.frames, slot * MavlinkDatagramDecoder.MAX_FRAME_LENGTH, ring.messageIds[slot]);
+            messageHandlerService.handleFrame(frame, ring.ports[slot], ring.replyChannels[slot], ring.senders[slot],
+                    ring.senderPorts[slot], ring.receivedNanos[slot]);
+        }
+
+        private int idle(int idle) {
+            switch (waitStrategy) {
+                case BUSY_SPIN:
+                    Thread.onSpinWait();
+                    return idle;
+                case YIELDING:
+                    if (idle < SPIN_TRIES) {
+                        Thread.onSpinWait();
+                    } else {
+                        Thread.yield();
+                        return idle;
+                    }
+                    return idle + 1;
+                case SLEEPING:
+                    if (idle < SPIN_TRIES) {
+                        Thread.onSpinWait();
+                    } else if (idle < SPIN_TRIES + YIELD_TRIES) {
+                        Thread.yield();
+                    } else {
+                        LockSupport.parkNanos(SLEEP_NANOS);
+                        return idle;
+                    }
+                    return idle + 1;
+                default:
+                    if (idle < SPIN_TRIES) {
+                        Thread.onSpinWait();
+                        return idle + 1;
+                    }
+                    // Announce the park, then look once more so a frame published in
+                    // between is not left waiting for the timeout.
+                    parked = true;
+                    if (ring.peek() < 0 && running) {
+                        LockSupport.parkNanos(this, BLOCKING_PARK_NANOS);
+                    }
+                    parked = false;
+                    return idle;
+            }
+        }
+    }
+}
@@ -1,123 +1,184 @@
 package org.sks.portsmanagement.client;
 
-import io.dronefleet.mavlink.MavlinkConnection;
 import io.dronefleet.mavlink.MavlinkMessage;
 import jakarta.annotation.PostConstruct;
+import org.sks.portsmanagement.metrics.LinkQualityMonitor;
+import org.sks.portsmanagement.metrics.TelemetryMetrics;
 import org.sks.portsmanagement.service.MavlinkMessageHandlerService;
+import org.sks.portsmanagement.service.UdpReplyChannel;
 import org.sks.portsmanagement.utils.ZeroTierIPProvider;
-import org.sks.portsmanagement.wsconfig.WebSocketErrorBroadcaster;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Component;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+// Starts only after the state snapshot is restored, so live traffic never races it.
 @Component
+@DependsOn("stateSnapshotService")
 public class MavlinkClient {
 
-    // Configuration for 9 ships, each with 5 ports (15000-15044)
-    private static final int PORTS_PER_SHIP = 5;
-    private static final int BASE_PORT = 15000;
-    private static final int TOTAL_SHIPS = 9;
-
-    private final List<Integer> udpPorts = generatePortList();
-    private final ExecutorService executorService = Executors.newFixedThreadPool(udpPorts.size() * 2);
-
-    // Map of allowed IPs to their port ranges (startPort to endPort inclusive)
-    private final Map<String, PortRange> allowedShips = new ConcurrentHashMap<>();
-
+    // Listened ports follow the fleet registry; each port maps to its open sockets or
+    // channels (one per bind address).
+    private final Map<Integer, List<Closeable>> listeners = new HashMap<>();
+    private ExecutorService executorService;
+    private List<SelectorIngestLoop> loops = List.of();
+    private int nextLoop;
+
+    // "blocking" parks one thread per (bind address, port); "selector" shards all
+    // ports across a few non-blocking selector loops.
+    private final String ingestMode;
+    private final int selectorThreads;
+    // Sockets bound to each (bind address, port) with SO_REUSEPORT. The kernel hashes
+    // each sender to one of them, so one sender's datagrams stay in order while
+    // several busy senders on a port are received on several threads.
+    private final int socketsPerPort;
+
+    private final FleetRegistry fleetRegistry;
     private final ZeroTierIPProvider zeroTierIPProvider;
     private final MavlinkMessageHandlerService messageHandlerService;
-    private final WebSocketErrorBroadcaster errorBroadcaster;
+    private final RejectionAggregator rejections;
+    private final TelemetryMetrics metrics;
+    private final LinkQualityMonitor linkQuality;
+    private final IngestPipeline pipeline;
 
-    public MavlinkClient(ZeroTierIPProvider zeroTierIPProvider,
+    public MavlinkClient(FleetRegistry fleetRegistry,
+                         ZeroTierIPProvider zeroTierIPProvider,
                          MavlinkMessageHandlerService messageHandlerService,
-                         WebSocketErrorBroadcaster errorBroadcaster) {
+                         RejectionAggregator rejections,
+                         TelemetryMetrics metrics,
+                         LinkQualityMonitor linkQuality,
+                         IngestPipeline pipeline,
+                         @Value("${mavlink.ingest.mode:blocking}") String ingestMode,
+                         @Value("${mavlink.ingest.selector-threads:0}") int selectorThreads,
+                         @Value("${mavlink.ingest.sockets-per-port:1}") int socketsPerPort) {
+        this.fleetRegistry = fleetRegistry;
         this.zeroTierIPProvider = zeroTierIPProvider;
         this.messageHandlerService = messageHandlerService;
-        this.errorBroadcaster = errorBroadcaster;
+        this.rejections = rejections;
+        this.metrics = metrics;
+        this.linkQuality = linkQuality;
+        this.pipeline = pipeline.isEnabled() ? pipeline : null;
+        this.ingestMode = ingestMode;
+        this.selectorThreads = selectorThreads > 0 ? selectorThreads : Runtime.getRuntime().availableProcessors();
+        this.socketsPerPort = socketsPerPort > 1 && reusePortSupported() ? socketsPerPort : 1;
     }
 
-    // Generate ports from 15000 to 15045 + (5 * 9) - 1
-    private List<Integer> generatePortList() {
-        List<Integer> ports = new ArrayList<>();
-        for (int i = 0; i < PORTS_PER_SHIP * TOTAL_SHIPS; i++) {
-            ports.add(BASE_PORT + i);
+    private static boolean reusePortSupported() {
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            if (probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                return true;
+            }
+        } catch (IOException ignored) {
         }
-        return ports;
+        System.err.println("❌ SO_REUSEPORT is not supported on this platform; using one socket per port");
+        return false;
     }
 
     @PostConstruct
     public void init() {
-        setupAllowedShips();
         startListening();
     }
 
-    private void setupAllowedShips() {
-        // Ship 1: 192.168.1.** (ports 15000-15004)
-        allowedShips.put("192.168.1.55", new PortRange(BASE_PORT, BASE_PORT + PORTS_PER_SHIP - 1));
-
-        // Ship 2: 192.168.1.** (ports 15005-15009)
-        allowedShips.put("192.168.1.25", new PortRange(BASE_PORT + PORTS_PER_SHIP, BASE_PORT + 2*PORTS_PER_SHIP - 1));
-
-        // Ship 3: 192.168.1.** (ports 15010-15014)
-        allowedShips.put("192.168.1.17", new PortRange(BASE_PORT + 2*PORTS_PER_SHIP, BASE_PORT + 3*PORTS_PER_SHIP - 1));
-
-        // Ship 4: 192.168.1.** (ports 15015-15019)
-        allowedShips.put("192.168.1.18", new PortRange(BASE_PORT + 3*PORTS_PER_SHIP, BASE_PORT + 4*PORTS_PER_SHIP - 1));
-
-        // Ship 5: 192.168.1.** (ports 15020-15024)
-        allowedShips.put("192.168.1.19", new PortRange(BASE_PORT + 4*PORTS_PER_SHIP, BASE_PORT + 5*PORTS_PER_SHIP - 1));
-
-        // Ship 6: 192.168.1.** (ports 15025-15029)
-        allowedShips.put("192.168.1.20", new PortRange(BASE_PORT + 5*PORTS_PER_SHIP, BASE_PORT + 6*PORTS_PER_SHIP - 1));
-
-        // Ship 7: 192.168.1.** (ports 15030-15034)
-        allowedShips.put("192.168.1.21", new PortRange(BASE_PORT + 6*PORTS_PER_SHIP, BASE_PORT + 7*PORTS_PER_SHIP - 1));
-
-        // Ship 8: 192.168.1.** (ports 15035-15039)
-        allowedShips.put("192.168.1.22", new PortRange(BASE_PORT + 7*PORTS_PER_SHIP, BASE_PORT + 8*PORTS_PER_SHIP - 1));
-
-        // Ship 9: 192.168.1.** (ports 15040-15044)
-        allowedShips.put("192.168.1.23", new PortRange(BASE_PORT + 8*PORTS_PER_SHIP, BASE_PORT + 9*PORTS_PER_SHIP - 1));
+    public void startListening() {
+        if ("selector".equalsIgnoreCase(ingestMode)) {
+            if (!startSelectorLoops()) {
+                return;
+            }
+        } else {
+            executorService = Executors.newCachedThreadPool();
+        }
+        fleetRegistry.setPortsListener(this::updateListeners);
+        updateListeners(fleetRegistry.getPorts());
     }
 
-    private boolean isSenderAllowed(InetAddress senderAddress, int targetPort) {
-        String ip = senderAddress.getHostAddress();
-        PortRange range = allowedShips.get(ip);
-
-        if (range == null) {
-            // IP not in allowed list
+    private boolean startSelectorLoops() {
+        List<SelectorIngestLoop> started = new ArrayList<>();
+        try {
+            for (int i = 0; i < selectorThreads; i++) {
+                started.add(new SelectorIngestLoop(i, this::newReceiver));
+            }
+        } catch (IOException e) {
+            System.err.printf("❌ Unable to open selector: %s%n", e.getMessage());
+            started.forEach(SelectorIngestLoop::close);
             return false;
         }
-
-        // Check if port is within this ship's allowed range
-        return targetPort >= range.startPort && targetPort <= range.endPort;
+        executorService = Executors.newFixedThreadPool(started.size());
+        started.forEach(executorService::execute);
+        loops = started;
+        return true;
     }
 
-    public void startListening() {
-        for (int port : udpPorts) {
-            List<InetAddress> bindAddresses = zeroTierIPProvider.getZeroTierIPs();
-
-            if (bindAddresses.isEmpty()) {
+    // Opens listeners for ports new to the registry and closes those of ports it no
+    // longer lists. Selector channels are spread round-robin over the loops.
+    private synchronized void updateListeners(Set<Integer> ports) {
+        for (Iterator<Map.Entry<Integer, List<Closeable>>> it = listeners.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, List<Closeable>> entry = it.next();
+            if (ports.contains(entry.getKey())) {
+                continue;
+            }
+            for (Closeable listener : entry.getValue()) {
                 try {
-                    bindAddresses.add(InetAddress.getByName("0.0.0.0"));
-                } catch (UnknownHostException e) {
-                    System.err.printf("❌ Error binding to 0.0.0.0 for port %d: %s%n", port, e.getMessage());
-                    continue;
+                    listener.close();
+                } catch (IOException ignored) {
                 }
             }
+            it.remove();
+            System.out.printf("✅ Stopped listening on port %d%n", entry.getKey());
+        }
+        for (int port : ports) {
+            if (listeners.containsKey(port)) {
+                continue;
+            }
+            List<Closeable> opened = new ArrayList<>();
+            boolean reusePort = socketsPerPort > 1;
+            for (InetAddress address : resolveBindAddresses(port)) {
+                for (int i = 0; i < socketsPerPort; i++) {
+                    try {
+                        opened.add(loops.isEmpty() ? openSocket(address, port, reusePort)
+                                : loops.get(nextLoop++ % loops.size()).register(address, port, reusePort));
+                    } catch (IOException e) {
+                        System.err.printf("❌ Error on port %d, IP %s: %s%n", port, address, e.getMessage());
+                    }
+                }
+            }
+            listeners.put(port, opened);
+        }
+    }
+
+    private Closeable openSocket(InetAddress address, int port, boolean reusePort) throws IOException {
+        DatagramSocket socket = new DatagramSocket(null);
+        try {
+            if (reusePort) {
+                socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            socket.bind(new InetSocketAddress(address, port));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        executorService.execute(() -> listenOnPort(socket, address, port));
+        return socket;
+    }
+
+    private List<InetAddress> resolveBindAddresses(int port) {
+        List<InetAddress> bindAddresses = zeroTierIPProvider.getZeroTierIPs();
 
-            for (InetAddress address : bindAddresses) {
-                executorService.execute(() -> listenOnPort(address, port));
+        if (bindAddresses.isEmpty()) {
+            try {
+                bindAddresses.add(InetAddress.getByName("0.0.0.0"));
+            } catch (UnknownHostException e) {
+                System.err.printf("❌ Error binding to 0.0.0.0 for port %d: %s%n", port, e.getMessage());
             }
         }
+        return bindAddresses;
     }
 
 /*    private void listenOnPort(InetAddress bindAddress, int port) {
@@ -173,130 +234,42 @@ public class MavlinkClient {
         }
     } */
 
-    private void listenOnPort(InetAddress bindAddress, int port) {
-        try (DatagramSocket udpSocket = new DatagramSocket(new InetSocketAddress(bindAddress, port))) {
+    private void listenOnPort(DatagramSocket udpSocket, InetAddress bindAddress, int port) {
+        try (udpSocket) {
             System.out.printf("✅ Listening for MAVLink messages on IP %s, Port: %d%n", bindAddress, port);
-            UdpInputStream udpInputStream = new UdpInputStream(udpSocket);
-            MavlinkConnection mavlinkConnection = MavlinkConnection.create(udpInputStream, null);
+            PortReceiver receiver = newReceiver(port, UdpReplyChannel.of(udpSocket));
 
-            while (!Thread.currentThread().isInterrupted()) {
-                MavlinkMessage<?> message = mavlinkConnection.next();
-                if (message != null) {
-                    InetAddress senderAddress = udpInputStream.getSenderAddress();
-                    int senderPort = udpInputStream.getSenderPort();
-                    String senderIp = senderAddress.getHostAddress();
+            byte[] buffer = new byte[4096];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            ByteBuffer datagram = ByteBuffer.wrap(buffer);
 
-                    if (isSenderAllowed(senderAddress, port)) {
-                        messageHandlerService.handleMessage(message, port, udpSocket, senderAddress, senderPort);
-                    } else {
-                        // Find which ship this port actually belongs to
-                        String correctShipIp = findCorrectShipForPort(port);
-                        long timestamp = System.nanoTime();
-                        double nanoTimestamp = timestamp / 1_000_000_000.0; // Convert to seconds with decimal
-
-                        String errorJson = String.format(
-                                "{\"error\": \"unauthorized_connection\", " +
-                                        "\"timestamp\": %.5f, " +
-                                        "\"message\": \"Connection rejected\", " +
-                                        "\"details\": {" +
-                                        "\"attempted_ship_ip\": \"%s\", " +
-                                        "\"correct_ship_ip\": \"%s\", " +
-                                        "\"attempted_port\": %d, " +
-                                        "\"allowed_ports\": \"%s\"}}",
-                                nanoTimestamp,
-                                senderIp,
-                                correctShipIp != null ? correctShipIp : "none",
-                                port,
-                                getAllowedPortsForIP(senderAddress)
-                        );
-
-                        System.out.println(errorJson);
-                        errorBroadcaster.broadcastError(errorJson);
-
-                        // Optionally send the error back via UDP
-                        try {
-                            byte[] errorBytes = errorJson.getBytes();
-                            DatagramPacket errorPacket = new DatagramPacket(
-                                    errorBytes,
-                                    errorBytes.length,
-                                    senderAddress,
-                                    senderPort
-                            );
-                            udpSocket.send(errorPacket);
-                        } catch (IOException e) {
-                            System.err.printf("❌ Failed to send error response to %s:%d: %s%n",
-                                    senderIp,
-                                    senderPort,
-                                    e.getMessage());
-                        }
-                    }
-                }
+            while (!Thread.currentThread().isInterrupted()) {
+                packet.setLength(buffer.length);
+                udpSocket.receive(packet);
+                long receivedNanos = System.nanoTime();
+                datagram.clear().limit(packet.getLength());
+                receiver.receive(datagram, packet.getAddress(), packet.getPort(), receivedNanos);
             }
         } catch (Exception e) {
-            System.err.printf("❌ Error on port %d, IP %s: %s%n", port, bindAddress, e.getMessage());
-        }
-    }
-
-    // Helper method to find which ship should be using this port
-    private String findCorrectShipForPort(int port) {
-        for (Map.Entry<String, PortRange> entry : allowedShips.entrySet()) {
-            if (port >= entry.getValue().startPort && port <= entry.getValue().endPort) {
-                return entry.getKey();
+            if (!udpSocket.isClosed()) {
+                System.err.printf("❌ Error on port %d, IP %s: %s%n", port, bindAddress, e.getMessage());
             }
         }
-        return null;
     }
 
-    private String getAllowedPortsForIP(InetAddress senderAddress) {
-        PortRange range = allowedShips.get(senderAddress.getHostAddress());
-        if (range == null) {
-            return "none (IP not allowed)";
-        }
-        return range.startPort + "-" + range.endPort;
+    // Frames go through the ingest pipeline when it is enabled, otherwise they are
+    // handled on the receive thread.
+    private PortReceiver newReceiver(int port, UdpReplyChannel replyChannel) {
+        return new PortReceiver(port, replyChannel, metrics, linkQuality, this::admit, messageHandlerService, pipeline);
     }
 
-    // Helper class to store port ranges
-    private static class PortRange {
-        final int startPort;
-        final int endPort;
-
-        PortRange(int startPort, int endPort) {
-            this.startPort = startPort;
-            this.endPort = endPort;
-        }
-    }
-
-    // UdpInputStream remains the same as in original code
-    private static class UdpInputStream extends InputStream {
-        private final DatagramSocket socket;
-        private final byte[] buffer = new byte[4096];
-        private int position = 0, length = 0;
-        private InetAddress senderAddress;
-        private int senderPort;
-
-        public UdpInputStream(DatagramSocket socket) {
-            this.socket = socket;
-        }
-
-        @Override
-        public int read() throws IOException {
-            if (position >= length) {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                socket.receive(packet);
-                length = packet.getLength();
-                position = 0;
-                senderAddress = packet.getAddress();
-                senderPort = packet.getPort();
-            }
-            return buffer[position++] & 0xFF;
-        }
-
-        public InetAddress getSenderAddress() {
-            return senderAddress;
-        }
-
-        public int getSenderPort() {
-            return senderPort;
+    // Checked per datagram before anything is decoded; rejected traffic only costs a
+    // counter increment.
+    private boolean admit(InetAddress senderAddress, int senderPort, int port, UdpReplyChannel replyChannel) {
+        if (fleetRegistry.isAllowed(senderAddress, port)) {
+            return true;
         }
+        rejections.reject(senderAddress, senderPort, port, replyChannel);
+        return false;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,192 @@
+package org.sks.portsmanagement.client;
+
+import io.dronefleet.mavlink.MavlinkDialect;
+import io.dronefleet.mavlink.annotations.MavlinkMessageInfo;
+import io.dronefleet.mavlink.ardupilotmega.ArdupilotmegaDialect;
+import io.dronefleet.mavlink.serialization.payload.MavlinkPayloadDeserializer;
+import io.dronefleet.mavlink.serialization.payload.reflection.ReflectionPayloadDeserializer;
+import org.sks.portsmanagement.metrics.TelemetryMetrics;
+import org.sks.portsmanagement.metrics.TelemetryMetrics.DecodeError;
+import org.sks.portsmanagement.service.handler.MavlinkFrame;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+// Splits one received datagram into MAVLink v1/v2 frames. Frames never span datagrams:
+// a truncated frame at the end of a packet is dropped instead of swallowing bytes from
+// the next one, and every frame is handed out together with the sender of the exact
+// datagram it was cut from. Framing and CRC checks (decode) are separate from payload
+// deserialization (deserialize, for MavlinkFrame), so the receive thread can
+// pass frames on in wire form and handlers that read the bytes themselves skip it.
+// Dropped frames are counted against the port. One instance per thread; not
+// thread-safe.
+final class MavlinkDatagramDecoder implements MavlinkFrame.PayloadDecoder {
+
+    private static final int MAGIC_V1 = 0xFE;
+    private static final int MAGIC_V2 = 0xFD;
+    private static final int V1_HEADER_LENGTH = 6;
+    private static final int V2_HEADER_LENGTH = 10;
+    private static final int CHECKSUM_LENGTH = 2;
+    private static final int SIGNATURE_LENGTH = 13;
+    private static final int INCOMPAT_FLAG_SIGNED = 0x01;
+    // Longest possible frame: signed v2 with a full payload.
+    static final int MAX_FRAME_LENGTH = V2_HEADER_LENGTH + 255 + CHECKSUM_LENGTH + SIGNATURE_LENGTH;
+
+    // Message id -> payload class / CRC_EXTRA for everything the ArduPilot dialect knows
+    // (it pulls in common and minimal). Ids outside the table are unknown.
+    private static final Class<?>[] MESSAGE_TYPES;
+    private static final int[] CRC_EXTRA;
+
+    static {
+        MavlinkDialect dialect = new ArdupilotmegaDialect();
+        int maxId = 0;
+        for (Class<?> type : dialect.messageTypes()) {
+            maxId = Math.max(maxId, type.getAnnotation(MavlinkMessageInfo.class).id());
+        }
+        MESSAGE_TYPES = new Class<?>[maxId + 1];
+        CRC_EXTRA = new int[maxId + 1];
+        for (Class<?> type : dialect.messageTypes()) {
+            MavlinkMessageInfo info = type.getAnnotation(MavlinkMessageInfo.class);
+            if (MESSAGE_TYPES[info.id()] == null) {
+                MESSAGE_TYPES[info.id()] = type;
+                CRC_EXTRA[info.id()] = info.crc();
+            }
+        }
+    }
+
+    // Gets each CRC-valid frame it wants in wire form at [offset, offset + length) of
+    // frame; the bytes are only valid during the call.
+    interface FrameSink {
+        // Asked on the raw header; unwanted frames are skipped without a CRC check or
+        // any copy.
+        boolean wants(int messageId);
+
+        // Header of every frame that is accepted or skipped on its header (unwanted or
+        // unknown message id), in datagram order, for link statistics.
+        void header(int systemId, int componentId, int sequence, int messageId, long receivedNanos);
+
+        void accept(ByteBuffer frame, int offset, int length, int messageId,
+                    InetAddress senderAddress, int senderPort, long receivedNanos);
+    }
+
+    private final MavlinkPayloadDeserializer deserializer = new ReflectionPayloadDeserializer();
+
+    // Hands every complete, CRC-valid frame the sink wants in [position, limit) of the
+    // datagram to it and returns how many there were. The buffer is fully consumed.
+    // receivedNanos (System.nanoTime() when the datagram arrived) travels with every
+    // frame for latency tracking.
+    int decode(ByteBuffer datagram, TelemetryMetrics.PortCounters counters,
+               InetAddress senderAddress, int senderPort, long receivedNanos, FrameSink sink) {
+        int delivered = 0;
+        int pos = datagram.position();
+        int limit = datagram.limit();
+
+        while (pos < limit) {
+            int magic = datagram.get(pos) & 0xFF;
+            if (magic != MAGIC_V1 && magic != MAGIC_V2) {
+                pos++;
+                continue;
+            }
+            boolean v2 = magic == MAGIC_V2;
+            int headerLength = v2 ? V2_HEADER_LENGTH : V1_HEADER_LENGTH;
+            if (pos + headerLength > limit) {
+                counters.decodeError(DecodeError.TRUNCATED);
+                break;
+            }
+
+            int payloadLength = datagram.get(pos + 1) & 0xFF;
+            int messageId;
+            int frameLength = headerLength + payloadLength + CHECKSUM_LENGTH;
+            if (v2) {
+                messageId = (datagram.get(pos + 7) & 0xFF)
+                        | (datagram.get(pos + 8) & 0xFF) << 8
+                        | (datagram.get(pos + 9) & 0xFF) << 16;
+                if ((datagram.get(pos + 2) & INCOMPAT_FLAG_SIGNED) != 0) {
+                    frameLength += SIGNATURE_LENGTH;
+                }
+            } else {
+                messageId = datagram.get(pos + 5) & 0xFF;
+            }
+
+            if (pos + frameLength > limit) {
+                // Truncated frame: the rest of this datagram cannot complete it.
+                counters.decodeError(DecodeError.TRUNCATED);
+                break;
+            }
+            boolean known = messageId < MESSAGE_TYPES.length && MESSAGE_TYPES[messageId] != null;
+            if (known && !sink.wants(messageId)) {
+                // Skipped whole on the header alone. Without the CRC a corrupt length
+                // byte could hide frames behind it, but only in an already damaged
+                // datagram. The sender still numbered it, so its sequence counts.
+                header(datagram, pos, v2, messageId, receivedNanos, sink);
+                counters.filtered();
+                pos += frameLength;
+                continue;
+            }
+            if (!known) {
+                // A message newer than, or outside, the dialect. Its CRC cannot be
+                // checked without CRC_EXTRA, so like an unwanted frame it is skipped
+                // whole on the header, which the sender numbered all the same.
+                header(datagram, pos, v2, messageId, receivedNanos, sink);
+                counters.decodeError(DecodeError.UNKNOWN_ID);
+                pos += frameLength;
+                continue;
+            }
+            if (!crcMatches(datagram, pos, headerLength + payloadLength, CRC_EXTRA[messageId])) {
+                // Not a frame we can trust; resynchronise on the next byte like the stream parser does.
+                counters.decodeError(DecodeError.CRC);
+                pos++;
+                continue;
+            }
+
+            header(datagram, pos, v2, messageId, receivedNanos, sink);
+            sink.accept(datagram, pos, frameLength, messageId, senderAddress, senderPort, receivedNanos);
+            delivered++;
+            pos += frameLength;
+        }
+
+        datagram.position(limit);
+        return delivered;
+    }
+
+    private static void header(ByteBuffer datagram, int pos, boolean v2, int messageId, long receivedNanos,
+                               FrameSink sink) {
+        int sequence = datagram.get(pos + (v2 ? 4 : 2)) & 0xFF;
+        int systemId = datagram.get(pos + (v2 ? 5 : 3)) & 0xFF;
+        int componentId = datagram.get(pos + (v2 ? 6 : 4)) & 0xFF;
+        sink.header(systemId, componentId, sequence, messageId, receivedNanos);
+    }
+
+    // Deserializes the payload of a frame handed out by decode(); null if it is
+    // unusable. MAVLink 2 payloads may arrive with trailing zero bytes cut off; the
+    // deserializer reads those fields as zero.
+    @Override
+    public Object deserialize(ByteBuffer frame, int payloadOffset, int payloadLength, int messageId) {
+        byte[] payload = new byte[payloadLength];
+        frame.get(payloadOffset, payload, 0, payloadLength);
+        try {
+            return deserializer.deserialize(payload, MESSAGE_TYPES[messageId]);
+        } catch (RuntimeException e) {
+            System.err.printf("❌ Failed to decode MAVLink message %d: %s%n", messageId, e.getMessage());
+            return null;
+        }
+    }
+
+    // CRC-16/MCRF4XX (X.25) over everything after the magic byte, seeded with CRC_EXTRA.
+    private static boolean crcMatches(ByteBuffer datagram, int offset, int checkedLength, int crcExtra) {
+        int crc = 0xFFFF;
+        for (int i = 1; i < checkedLength; i++) {
+            crc = accumulate(crc, datagram.get(offset + i));
+        }
+        crc = accumulate(crc, (byte) crcExtra);
+        int expected = (datagram.get(offset + checkedLength) & 0xFF)
+                | (datagram.get(offset + checkedLength + 1) & 0xFF) << 8;
+        return crc == expected;
+    }
+
+    private static int accumulate(int crc, byte b) {
+        int tmp = (b & 0xFF) ^ (crc & 0xFF);
+        tmp = (tmp ^ (tmp << 4)) & 0xFF;
+        return ((crc >> 8) ^ (tmp << 8) ^ (tmp << 3) ^ (tmp >> 4)) & 0xFFFF;
+    }
+}
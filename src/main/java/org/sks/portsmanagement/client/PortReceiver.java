@@ -0,0 +1,88 @@
+package org.sks.portsmanagement.client;
+
+import org.sks.portsmanagement.metrics.LinkQualityMonitor;
+import org.sks.portsmanagement.metrics.TelemetryMetrics;
+import org.sks.portsmanagement.service.MavlinkMessageHandlerService;
+import org.sks.portsmanagement.service.UdpReplyChannel;
+import org.sks.portsmanagement.service.handler.MavlinkFrame;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+// Receive-side handling of one socket's datagrams, shared by the blocking and selector
+// loops: count the datagram, check the sender, cut it into frames, record their
+// sequence numbers for link quality, drop those no handler wants and hand the rest to
+// the ingest pipeline or, without one, to their handler right away. One instance per
+// socket; not thread-safe.
+final class PortReceiver implements MavlinkDatagramDecoder.FrameSink {
+
+    // Decides per datagram, before decoding, whether the sender may use the port.
+    @FunctionalInterface
+    interface SenderFilter {
+        boolean admit(InetAddress senderAddress, int senderPort, int port, UdpReplyChannel replyChannel);
+    }
+
+    // Builds the receiver for a newly opened socket.
+    @FunctionalInterface
+    interface Factory {
+        PortReceiver create(int port, UdpReplyChannel replyChannel);
+    }
+
+    private final int port;
+    private final UdpReplyChannel replyChannel;
+    private final TelemetryMetrics.PortCounters counters;
+    private final LinkQualityMonitor.PortLinks links;
+    private final MavlinkDatagramDecoder decoder = new MavlinkDatagramDecoder();
+    private final MavlinkFrame frame = new MavlinkFrame(decoder);
+    private final SenderFilter filter;
+    private final MavlinkMessageHandlerService handlers;
+    // Null when frames are processed on the receive thread.
+    private final IngestPipeline pipeline;
+
+    PortReceiver(int port, UdpReplyChannel replyChannel, TelemetryMetrics metrics, LinkQualityMonitor linkQuality,
+                 SenderFilter filter, MavlinkMessageHandlerService handlers, IngestPipeline pipeline) {
+        this.port = port;
+        this.replyChannel = replyChannel;
+        this.counters = metrics.port(port);
+        this.links = linkQuality.port(port);
+        this.filter = filter;
+        this.handlers = handlers;
+        this.pipeline = pipeline;
+    }
+
+    int port() {
+        return port;
+    }
+
+    // The datagram is [position, limit) of the buffer and is fully consumed.
+    void receive(ByteBuffer datagram, InetAddress senderAddress, int senderPort, long receivedNanos) {
+        counters.datagram(datagram.remaining());
+        if (!filter.admit(senderAddress, senderPort, port, replyChannel)) {
+            counters.rejected();
+            return;
+        }
+        decoder.decode(datagram, counters, senderAddress, senderPort, receivedNanos, this);
+    }
+
+    @Override
+    public boolean wants(int messageId) {
+        return handlers.handles(messageId);
+    }
+
+    @Override
+    public void header(int systemId, int componentId, int sequence, int messageId, long receivedNanos) {
+        links.link(systemId).frame(componentId, sequence, messageId, receivedNanos);
+    }
+
+    @Override
+    public void accept(ByteBuffer bytes, int offset, int length, int messageId,
+                       InetAddress senderAddress, int senderPort, long receivedNanos) {
+        if (pipeline != null) {
+            pipeline.offer(port, replyChannel, counters, bytes, offset, length, messageId,
+                    senderAddress, senderPort, receivedNanos);
+            return;
+        }
+        handlers.handleFrame(frame.wrap(bytes, offset, messageId), port, replyChannel,
+                senderAddress, senderPort, receivedNanos);
+    }
+}
@@ -0,0 +1,230 @@
+package org.sks.portsmanagement.client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.sks.portsmanagement.service.UdpReplyChannel;
+import org.sks.portsmanagement.wsconfig.WebSocketErrorBroadcaster;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Handles datagrams from senders the fleet registry does not allow on a port. The
+// receive thread only bumps a counter for (sender ip, port) in a lock-free table; once
+// per summary interval one event listing every rejected source and its count is logged
+// and broadcast to the dashboards. The UDP error reply is sent at most once per source
+// per interval and at most reply-max-per-second overall (or never, with reply=off), so
+// a flood cannot turn us into a reflector or starve valid traffic on the same port.
+@Component
+public class RejectionAggregator {
+
+    private static final int MAX_PROBES = 8;
+    // Sources listed individually in a summary; the rest are only counted.
+    private static final int MAX_LISTED = 20;
+
+    // Open-addressing table of (ip, port) keys. Replaced wholesale at every summary so
+    // entries never need deleting; the odd increment racing the swap is lost.
+    private static final class Table {
+        final AtomicLongArray keys;
+        final AtomicLongArray counts;
+        final AtomicIntegerArray replied;
+        final AtomicInteger used = new AtomicInteger();
+        final AtomicLong overflow = new AtomicLong();
+        final int mask;
+
+        Table(int size) {
+            keys = new AtomicLongArray(size);
+            counts = new AtomicLongArray(size);
+            replied = new AtomicIntegerArray(size);
+            mask = size - 1;
+        }
+
+        // Slot of the key, claiming an empty one if needed; -1 when the neighbourhood
+        // is full.
+        int slot(long key) {
+            int index = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+            for (int probe = 0; probe < MAX_PROBES; probe++, index = (index + 1) & mask) {
+                long current = keys.get(index);
+                if (current == key) {
+                    return index;
+                }
+                if (current == 0 && keys.compareAndSet(index, 0, key)) {
+                    used.incrementAndGet();
+                    return index;
+                }
+                if (keys.get(index) == key) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private final FleetRegistry fleetRegistry;
+    private final WebSocketErrorBroadcaster errorBroadcaster;
+    private final ObjectMapper objectMapper;
+    private final int tableSize;
+    private final boolean replyEnabled;
+    private final long replyIntervalNanos;
+    private volatile Table table;
+    private volatile long intervalStart = System.currentTimeMillis();
+    // Global reply limiter (GCRA): the earliest time, in nanos, the next reply is due.
+    private final AtomicLong nextReplyAt = new AtomicLong();
+
+    public RejectionAggregator(FleetRegistry fleetRegistry,
+                               WebSocketErrorBroadcaster errorBroadcaster,
+                               ObjectMapper objectMapper,
+                               @Value("${mavlink.reject.table-size:4096}") int tableSize,
+                               @Value("${mavlink.reject.reply:limited}") String replyMode,
+                               @Value("${mavlink.reject.reply-max-per-second:20}") double replyMaxPerSecond) {
+        this.fleetRegistry = fleetRegistry;
+        this.errorBroadcaster = errorBroadcaster;
+        this.objectMapper = objectMapper;
+        this.tableSize = Integer.highestOneBit(Math.max(16, tableSize) - 1) << 1;
+        this.replyEnabled = !"off".equalsIgnoreCase(replyMode.trim()) && replyMaxPerSecond > 0;
+        this.replyIntervalNanos = replyEnabled ? (long) (1_000_000_000L / replyMaxPerSecond) : Long.MAX_VALUE;
+        this.table = new Table(this.tableSize);
+    }
+
+    // Receive path: a few atomic operations; the error JSON is only built when a reply
+    // is actually sent.
+    public void reject(InetAddress sender, int senderPort, int port, UdpReplyChannel replyChannel) {
+        Table current = table;
+        int address = sender instanceof Inet4Address ? sender.hashCode() : 0;
+        long key = (1L << 48) | ((address & 0xFFFFFFFFL) << 16) | port;
+        int slot = current.slot(key);
+        if (slot < 0) {
+            current.overflow.incrementAndGet();
+            return;
+        }
+        current.counts.incrementAndGet(slot);
+        if (replyEnabled && current.replied.get(slot) == 0 && current.replied.compareAndSet(slot, 0, 1)
+                && acquireReply()) {
+            sendReply(sender, senderPort, port, replyChannel);
+        }
+    }
+
+    private boolean acquireReply() {
+        long now = System.nanoTime();
+        while (true) {
+            long due = nextReplyAt.get();
+            if (due - now > 0) {
+                return false;
+            }
+            if (nextReplyAt.compareAndSet(due, now + replyIntervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    private void sendReply(InetAddress sender, int senderPort, int port, UdpReplyChannel replyChannel) {
+        String correctShipIp = fleetRegistry.ownerOf(port);
+        String errorJson = String.format(
+                "{\"error\": \"unauthorized_connection\", " +
+                        "\"timestamp\": %.5f, " +
+                        "\"message\": \"Connection rejected\", " +
+                        "\"details\": {" +
+                        "\"attempted_ship_ip\": \"%s\", " +
+                        "\"correct_ship_ip\": \"%s\", " +
+                        "\"attempted_port\": %d, " +
+                        "\"allowed_ports\": \"%s\"}}",
+                System.currentTimeMillis() / 1000.0,
+                sender.getHostAddress(),
+                correctShipIp != null ? correctShipIp : "none",
+                port,
+                fleetRegistry.allowedPortsFor(sender)
+        );
+        try {
+            byte[] errorBytes = errorJson.getBytes();
+            replyChannel.send(errorBytes, errorBytes.length, sender, senderPort);
+        } catch (IOException e) {
+            System.err.printf("❌ Failed to send error response to %s:%d: %s%n",
+                    sender.getHostAddress(), senderPort, e.getMessage());
+        }
+    }
+
+    // One event per interval, only if something was rejected:
+    // {"error":"unauthorized_connections","interval_ms","total","sources":[{
+    //   "attempted_ship_ip","correct_ship_ip","attempted_port","allowed_ports","count"}],
+    //  "unlisted_sources","unlisted_count"}
+    @Scheduled(fixedDelayString = "${mavlink.reject.summary-interval-ms:5000}")
+    public void publishSummary() {
+        Table drained = table;
+        long now = System.currentTimeMillis();
+        long start = intervalStart;
+        if (drained.used.get() == 0 && drained.overflow.get() == 0) {
+            intervalStart = now;
+            return;
+        }
+        table = new Table(tableSize);
+        intervalStart = now;
+
+        List<long[]> sources = new ArrayList<>();
+        long total = drained.overflow.get();
+        for (int i = 0; i < drained.keys.length(); i++) {
+            long key = drained.keys.get(i);
+            long count = drained.counts.get(i);
+            if (key != 0 && count > 0) {
+                sources.add(new long[]{key, count});
+                total += count;
+            }
+        }
+        sources.sort((a, b) -> Long.compare(b[1], a[1]));
+
+        List<Map<String, Object>> listed = new ArrayList<>();
+        long unlistedCount = drained.overflow.get();
+        int unlistedSources = drained.overflow.get() > 0 ? 1 : 0;
+        for (int i = 0; i < sources.size(); i++) {
+            long key = sources.get(i)[0];
+            long count = sources.get(i)[1];
+            if (i >= MAX_LISTED) {
+                unlistedCount += count;
+                unlistedSources++;
+                continue;
+            }
+            int port = (int) (key & 0xFFFF);
+            String ip = FleetRegistry.formatAddress((int) (key >>> 16));
+            String correctShipIp = fleetRegistry.ownerOf(port);
+            Map<String, Object> source = new LinkedHashMap<>();
+            source.put("attempted_ship_ip", ip);
+            source.put("correct_ship_ip", correctShipIp != null ? correctShipIp : "none");
+            source.put("attempted_port", port);
+            source.put("allowed_ports", allowedPorts(ip));
+            source.put("count", count);
+            listed.add(source);
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("error", "unauthorized_connections");
+        summary.put("message", "Connections rejected");
+        summary.put("interval_ms", now - start);
+        summary.put("total", total);
+        summary.put("sources", listed);
+        summary.put("unlisted_sources", unlistedSources);
+        summary.put("unlisted_count", unlistedCount);
+        try {
+            String json = objectMapper.writeValueAsString(summary);
+            System.out.println(json);
+            errorBroadcaster.broadcastError(json);
+        } catch (JsonProcessingException e) {
+            System.err.println("❌ Cannot render rejection summary: " + e.getMessage());
+        }
+    }
+
+    private String allowedPorts(String ip) {
+        try {
+            return fleetRegistry.allowedPortsFor(InetAddress.getByName(ip));
+        } catch (UnknownHostException e) {
+            return "none (IP not allowed)";
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.sks.portsmanagement.client;
+
+import org.sks.portsmanagement.service.UdpReplyChannel;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// One selector thread serving a shard of the UDP ports. All channels are non-blocking
+// and share a single direct receive buffer that is decoded in place, so thousands of
+// mostly idle ports cost a selection key each instead of a parked thread each.
+class SelectorIngestLoop implements Runnable {
+
+    // Upper bound on datagrams drained from one channel per wake-up, so a single
+    // chatty vessel cannot starve the other ports in this shard.
+    private static final int MAX_DATAGRAMS_PER_KEY = 64;
+
+    private final int shard;
+    private final PortReceiver.Factory receivers;
+    private final Selector selector;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(4096);
+    private final List<DatagramChannel> channels = new CopyOnWriteArrayList<>();
+
+    SelectorIngestLoop(int shard, PortReceiver.Factory receivers) throws IOException {
+        this.shard = shard;
+        this.receivers = receivers;
+        this.selector = Selector.open();
+    }
+
+    // May be called while the loop runs; closing the returned handle stops listening.
+    // With reusePort several channels (normally on different loops) share the port and
+    // the kernel spreads senders across them.
+    Closeable register(InetAddress bindAddress, int port, boolean reusePort) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            if (reusePort) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.bind(new InetSocketAddress(bindAddress, port));
+            channel.register(selector, SelectionKey.OP_READ,
+                    new ChannelState(channel, receivers.create(port, UdpReplyChannel.of(channel))));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        channels.add(channel);
+        selector.wakeup();
+        System.out.printf("✅ Listening for MAVLink messages on IP %s, Port: %d (selector %d)%n", bindAddress, port, shard);
+        return () -> {
+            channels.remove(channel);
+            channel.close();
+            selector.wakeup();
+        };
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted() && selector.isOpen()) {
+                selector.select(this::drain);
+            }
+        } catch (IOException e) {
+            System.err.printf("❌ Selector %d stopped: %s%n", shard, e.getMessage());
+        } finally {
+            close();
+        }
+    }
+
+    private void drain(SelectionKey key) {
+        ChannelState state = (ChannelState) key.attachment();
+        for (int i = 0; i < MAX_DATAGRAMS_PER_KEY; i++) {
+            InetSocketAddress sender;
+            try {
+                receiveBuffer.clear();
+                sender = (InetSocketAddress) state.channel.receive(receiveBuffer);
+            } catch (IOException e) {
+                System.err.printf("❌ Error on port %d: %s%n", state.receiver.port(), e.getMessage());
+                return;
+            }
+            if (sender == null) {
+                return;
+            }
+            long receivedNanos = System.nanoTime();
+            receiveBuffer.flip();
+            state.receiver.receive(receiveBuffer, sender.getAddress(), sender.getPort(), receivedNanos);
+        }
+    }
+
+    void close() {
+        for (DatagramChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static final class ChannelState {
+        final DatagramChannel channel;
+        final PortReceiver receiver;
+
+        ChannelState(DatagramChannel channel, PortReceiver receiver) {
+            this.channel = channel;
+            this.receiver = receiver;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.sks.portsmanagement.controller;
+
+import org.sks.portsmanagement.client.FleetRegistry;
+import org.sks.portsmanagement.client.FleetShip;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.util.List;
+
+// Runtime view and edits of the fleet registry. Changes are validated as a whole, saved
+// to the registry file and take effect immediately, including opening and closing the
+// UDP listeners of added or removed ports.
+//   GET    /api/fleet                 ships and their port ranges
+//   PUT    /api/fleet/ships/{ip}      {"name":"Ship 10","ports":["15045-15049"]}
+//   DELETE /api/fleet/ships/{ip}
+//   POST   /api/fleet/reload          re-read the registry file now
+@RestController
+@RequestMapping("/api/fleet")
+public class FleetRegistryController {
+
+    private final FleetRegistry fleetRegistry;
+
+    public FleetRegistryController(FleetRegistry fleetRegistry) {
+        this.fleetRegistry = fleetRegistry;
+    }
+
+    @GetMapping
+    public List<FleetShip> getShips() {
+        return fleetRegistry.getShips();
+    }
+
+    @PutMapping("/ships/{ip}")
+    public FleetShip putShip(@PathVariable String ip, @RequestBody FleetShip ship) {
+        ship.setIp(ip);
+        try {
+            return fleetRegistry.putShip(ship);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Cannot save fleet registry: " + e.getMessage());
+        }
+    }
+
+    @DeleteMapping("/ships/{ip}")
+    public ResponseEntity<Void> removeShip(@PathVariable String ip) {
+        try {
+            return fleetRegistry.removeShip(ip) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Cannot save fleet registry: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/reload")
+    public List<FleetShip> reload() {
+        try {
+            return fleetRegistry.reload();
+        } catch (IllegalArgumentException | IOException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Fleet registry not reloaded: " + e.getMessage());
+        }
+    }
+}
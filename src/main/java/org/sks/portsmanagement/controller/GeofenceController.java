@@ -0,0 +1,42 @@
+package org.sks.portsmanagement.controller;
+
+import org.sks.portsmanagement.geofence.AlertPublisher;
+import org.sks.portsmanagement.geofence.Geofence;
+import org.sks.portsmanagement.geofence.GeofenceEngine;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/geofences")
+public class GeofenceController {
+
+    private final GeofenceEngine geofenceEngine;
+    private final AlertPublisher alertPublisher;
+
+    public GeofenceController(GeofenceEngine geofenceEngine, AlertPublisher alertPublisher) {
+        this.geofenceEngine = geofenceEngine;
+        this.alertPublisher = alertPublisher;
+    }
+
+    // Loaded fences with the ports currently inside each, and the latest alerts.
+    @GetMapping
+    public Map<String, Object> getGeofences() {
+        Map<String, List<Integer>> occupants = geofenceEngine.getOccupants();
+        List<Map<String, Object>> fences = new ArrayList<>();
+        for (Geofence fence : geofenceEngine.getFences()) {
+            Map<String, Object> entry = fence.toMap();
+            entry.put("occupants", occupants.getOrDefault(fence.getId(), List.of()));
+            fences.add(entry);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("fences", fences);
+        response.put("recent_alerts", alertPublisher.recent());
+        return response;
+    }
+}
@@ -0,0 +1,43 @@
+package org.sks.portsmanagement.controller;
+
+import org.sks.portsmanagement.metrics.LatencyTracer;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Sampled per-message latency traces (see LatencyTracer).
+//   GET /api/traces?limit=100            most recent traces first
+//   PUT /api/traces/sampling?every=100   trace one message in 100; 0 turns tracing off
+@RestController
+@RequestMapping("/api/traces")
+public class LatencyTraceController {
+
+    private final LatencyTracer tracer;
+
+    public LatencyTraceController(LatencyTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @GetMapping
+    public Map<String, Object> getTraces(@RequestParam(defaultValue = "100") int limit) {
+        if (limit < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be positive");
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("sample_every", tracer.getSampleEvery());
+        response.put("traces", tracer.dump(limit));
+        return response;
+    }
+
+    @PutMapping("/sampling")
+    public Map<String, Object> setSampling(@RequestParam int every) {
+        if (every < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "every must be 0 or more");
+        }
+        tracer.setSampleEvery(every);
+        return Map.of("sample_every", tracer.getSampleEvery());
+    }
+}
@@ -0,0 +1,27 @@
+package org.sks.portsmanagement.controller;
+
+import org.sks.portsmanagement.metrics.LinkQualityMonitor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/links")
+public class LinkQualityController {
+
+    private final LinkQualityMonitor linkQualityMonitor;
+
+    public LinkQualityController(LinkQualityMonitor linkQualityMonitor) {
+        this.linkQualityMonitor = linkQualityMonitor;
+    }
+
+    // Loss, jitter and heartbeat cadence over the last window for every (port, system id)
+    // heard so far.
+    @GetMapping
+    public List<Map<String, Object>> getLinks() {
+        return linkQualityMonitor.getLinks();
+    }
+}
@@ -0,0 +1,97 @@
+package org.sks.portsmanagement.controller;
+
+import org.sks.portsmanagement.spatial.VesselSpatialIndex;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Queries over the latest vessel positions (see VesselSpatialIndex).
+//   GET /api/spatial/bbox?min_lat=..&min_lon=..&max_lat=..&max_lon=..   vessels in a viewport
+//   GET /api/spatial/within?lat=..&lon=..&radius=500                    within 500 m, nearest first
+//   GET /api/spatial/within?port=14550&radius=500                       around another vessel
+//   GET /api/spatial/nearest?lat=..&lon=..&k=5                          the 5 closest vessels
+//   GET /api/spatial/proximity?distance=50                              vessel pairs 50 m apart or less
+@RestController
+@RequestMapping("/api/spatial")
+public class SpatialQueryController {
+
+    private final VesselSpatialIndex spatialIndex;
+
+    public SpatialQueryController(VesselSpatialIndex spatialIndex) {
+        this.spatialIndex = spatialIndex;
+    }
+
+    @GetMapping("/bbox")
+    public Map<String, Object> boundingBox(@RequestParam("min_lat") double minLat,
+                                           @RequestParam("min_lon") double minLon,
+                                           @RequestParam("max_lat") double maxLat,
+                                           @RequestParam("max_lon") double maxLon) {
+        return hits(() -> spatialIndex.boundingBox(minLat, minLon, maxLat, maxLon));
+    }
+
+    @GetMapping("/within")
+    public Map<String, Object> within(@RequestParam(required = false) Double lat,
+                                      @RequestParam(required = false) Double lon,
+                                      @RequestParam(required = false) Integer port,
+                                      @RequestParam double radius) {
+        if (port != null) {
+            if (port < 0 || port > 65535) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "port must be between 0 and 65535");
+            }
+            return hits(() -> {
+                List<VesselSpatialIndex.Hit> hits = spatialIndex.around(port, radius);
+                if (hits == null) {
+                    throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No position for port " + port);
+                }
+                return hits;
+            });
+        }
+        if (lat == null || lon == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "lat and lon, or port, are required");
+        }
+        return hits(() -> spatialIndex.within(lat, lon, radius));
+    }
+
+    @GetMapping("/nearest")
+    public Map<String, Object> nearest(@RequestParam double lat, @RequestParam double lon,
+                                       @RequestParam(defaultValue = "5") int k) {
+        return hits(() -> spatialIndex.nearest(lat, lon, k));
+    }
+
+    @GetMapping("/proximity")
+    public Map<String, Object> proximity(@RequestParam double distance) {
+        List<Map<String, Object>> pairs = new ArrayList<>();
+        try {
+            for (VesselSpatialIndex.Pair pair : spatialIndex.proximity(distance)) {
+                pairs.add(pair.toMap());
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("count", pairs.size());
+        response.put("pairs", pairs);
+        return response;
+    }
+
+    private static Map<String, Object> hits(Supplier<List<VesselSpatialIndex.Hit>> query) {
+        List<Map<String, Object>> vessels = new ArrayList<>();
+        try {
+            for (VesselSpatialIndex.Hit hit : query.get()) {
+                vessels.add(hit.toMap());
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("count", vessels.size());
+        response.put("vessels", vessels);
+        return response;
+    }
+}
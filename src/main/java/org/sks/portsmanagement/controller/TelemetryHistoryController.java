@@ -0,0 +1,135 @@
+package org.sks.portsmanagement.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.sks.portsmanagement.history.Downsampler;
+import org.sks.portsmanagement.history.SeriesCursor;
+import org.sks.portsmanagement.history.TelemetryTimeSeries;
+import org.sks.portsmanagement.service.TelemetryField;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Time-range queries over recorded telemetry, downsampled on the server. Responses are
+// written point by point as the series is read, e.g.
+//   GET /api/history/15000/lat?from=..&to=..&points=1000&method=lttb
+//   {"port":15000,"from":..,"to":..,"method":"lttb","series":{"lat":[[t,v],...]}}
+// Times are epoch milliseconds; values use the units of the live JSON (degrees, percent)
+// as plain numbers.
+@RestController
+@RequestMapping("/api/history")
+public class TelemetryHistoryController {
+
+    private static final long DEFAULT_RANGE_MS = 3_600_000;
+    private static final int MAX_POINTS = 100_000;
+
+    private final TelemetryTimeSeries timeSeries;
+    private final ObjectMapper objectMapper;
+
+    public TelemetryHistoryController(TelemetryTimeSeries timeSeries, ObjectMapper objectMapper) {
+        this.timeSeries = timeSeries;
+        this.objectMapper = objectMapper;
+    }
+
+    // One field of one vessel.
+    @GetMapping("/{port}/{field}")
+    public ResponseEntity<StreamingResponseBody> getFieldHistory(@PathVariable int port, @PathVariable String field,
+                                                                 @RequestParam(required = false) Long from,
+                                                                 @RequestParam(required = false) Long to,
+                                                                 @RequestParam(defaultValue = "1000") int points,
+                                                                 @RequestParam(defaultValue = "lttb") String method) {
+        return query(port, List.of(parseField(field)), from, to, points, method);
+    }
+
+    // Several (default: all recorded) fields of one vessel, each downsampled separately.
+    @GetMapping("/{port}")
+    public ResponseEntity<StreamingResponseBody> getVesselHistory(@PathVariable int port,
+                                                                  @RequestParam(required = false) List<String> fields,
+                                                                  @RequestParam(required = false) Long from,
+                                                                  @RequestParam(required = false) Long to,
+                                                                  @RequestParam(defaultValue = "1000") int points,
+                                                                  @RequestParam(defaultValue = "lttb") String method) {
+        List<TelemetryField> selected = new ArrayList<>();
+        if (fields == null || fields.isEmpty()) {
+            for (TelemetryField field : TelemetryField.VALUES) {
+                if (isRecorded(field)) {
+                    selected.add(field);
+                }
+            }
+        } else {
+            for (String field : fields) {
+                selected.add(parseField(field));
+            }
+        }
+        return query(port, selected, from, to, points, method);
+    }
+
+    private ResponseEntity<StreamingResponseBody> query(int port, List<TelemetryField> fields, Long from, Long to,
+                                                        int points, String method) {
+        if (port < 0 || port > 65535) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid port: " + port);
+        }
+        long end = to != null ? to : System.currentTimeMillis() + 1;
+        long start = from != null ? from : end - DEFAULT_RANGE_MS;
+        if (start >= end) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "\"from\" must be before \"to\"");
+        }
+        if (points < 2 || points > MAX_POINTS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "\"points\" must be between 2 and " + MAX_POINTS);
+        }
+        Downsampler.Method downsampling;
+        try {
+            downsampling = Downsampler.Method.parse(method);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown method: " + method);
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator json = objectMapper.getFactory().createGenerator(outputStream)) {
+                json.writeStartObject();
+                json.writeNumberField("port", port);
+                json.writeNumberField("from", start);
+                json.writeNumberField("to", end);
+                json.writeStringField("method", downsampling.name().toLowerCase());
+                json.writeObjectFieldStart("series");
+                for (TelemetryField field : fields) {
+                    json.writeArrayFieldStart(field.key());
+                    try (SeriesCursor cursor = timeSeries.cursor(port, field, start, end)) {
+                        Downsampler.downsample(cursor, start, end, points, downsampling,
+                                (time, value) -> writePoint(json, time, field.toDisplayNumber(value)));
+                    }
+                    json.writeEndArray();
+                }
+                json.writeEndObject();
+                json.writeEndObject();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    private static void writePoint(JsonGenerator json, long time, double value) throws IOException {
+        json.writeStartArray();
+        json.writeNumber(time);
+        json.writeNumber(value);
+        json.writeEndArray();
+    }
+
+    private static TelemetryField parseField(String key) {
+        TelemetryField field = TelemetryField.fromKey(key);
+        if (field == null || !isRecorded(field)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown or unrecorded field: " + key);
+        }
+        return field;
+    }
+
+    private static boolean isRecorded(TelemetryField field) {
+        return field.isNumeric() && field != TelemetryField.PORT && field != TelemetryField.SYSTEM_ID;
+    }
+}
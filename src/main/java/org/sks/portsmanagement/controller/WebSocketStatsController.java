@@ -0,0 +1,26 @@
+package org.sks.portsmanagement.controller;
+
+import org.sks.portsmanagement.wsconfig.WebSocketSendQueues;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/websocket")
+public class WebSocketStatsController {
+
+    private final WebSocketSendQueues sendQueues;
+
+    public WebSocketStatsController(WebSocketSendQueues sendQueues) {
+        this.sendQueues = sendQueues;
+    }
+
+    // Outbound queue depth and sent/dropped/failed counters per connected session.
+    @GetMapping("/sessions")
+    public List<Map<String, Object>> getSessionStats() {
+        return sendQueues.getStats();
+    }
+}
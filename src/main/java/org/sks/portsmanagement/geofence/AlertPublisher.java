@@ -0,0 +1,123 @@
+package org.sks.portsmanagement.geofence;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.sks.portsmanagement.metrics.TelemetryMetrics;
+import org.sks.portsmanagement.wsconfig.TelemetryWebSocketHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// Pushes alerts to the /telemetry WebSocket as soon as they are raised, outside the
+// telemetry tick:
+//   {"type":"alert","alert":"geofence_enter","port":15000,"fence":"harbour",
+//    "fence_name":"Main harbour","lat":..,"lon":..,"timestamp":..}
+// Alerts are raised inside a vessel update, so raise() only queues them; a single
+// thread encodes and sends them in order. The last recent-size alerts are kept for
+// GET /api/geofences.
+@Component
+public class AlertPublisher {
+
+    public static final String GEOFENCE_ENTER = "geofence_enter";
+    public static final String GEOFENCE_EXIT = "geofence_exit";
+    public static final String GEOFENCE_DWELL = "geofence_dwell";
+    public static final String BATTERY_LOW = "battery_low";
+    public static final String BATTERY_OK = "battery_ok";
+    public static final String HDOP_HIGH = "hdop_high";
+    public static final String HDOP_OK = "hdop_ok";
+
+    private final TelemetryWebSocketHandler telemetryHandler;
+    private final BlockingQueue<Map<String, Object>> queue;
+    private final int recentSize;
+    // Guarded by itself.
+    private final ArrayDeque<Map<String, Object>> recent = new ArrayDeque<>();
+    private final LongAdder raised = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean running;
+    private Thread sender;
+
+    public AlertPublisher(TelemetryWebSocketHandler telemetryHandler, TelemetryMetrics metrics,
+                          @Value("${alerts.queue-capacity:4096}") int queueCapacity,
+                          @Value("${alerts.recent-size:100}") int recentSize) {
+        this.telemetryHandler = telemetryHandler;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.recentSize = Math.max(0, recentSize);
+        metrics.counter("alerts.raised", "Geofence and threshold alerts raised", raised);
+        metrics.counter("alerts.dropped", "Alerts dropped because the send queue was full", dropped);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        sender = new Thread(this::runSender, "alert-sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        sender.interrupt();
+        try {
+            sender.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Never blocks: when the queue is full the alert is counted and dropped.
+    void raise(String alert, int port, Geofence fence, double lat, double lon, Double value, Double threshold,
+               long timestampMillis) {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("type", "alert");
+        message.put("alert", alert);
+        message.put("port", port);
+        if (fence != null) {
+            message.put("fence", fence.getId());
+            message.put("fence_name", fence.getName());
+        }
+        message.put("lat", lat);
+        message.put("lon", lon);
+        if (value != null) {
+            message.put("value", value);
+            message.put("threshold", threshold);
+        }
+        message.put("timestamp", timestampMillis);
+        raised.increment();
+        if (!queue.offer(message)) {
+            dropped.increment();
+        }
+    }
+
+    public List<Map<String, Object>> recent() {
+        synchronized (recent) {
+            return new ArrayList<>(recent);
+        }
+    }
+
+    private void runSender() {
+        while (running) {
+            Map<String, Object> message;
+            try {
+                message = queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            telemetryHandler.sendAlert((Integer) message.get("port"), message);
+            synchronized (recent) {
+                recent.addLast(message);
+                while (recent.size() > recentSize) {
+                    recent.removeFirst();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.sks.portsmanagement.geofence;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.sks.portsmanagement.utils.GeoDistance;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// One zone from the geofence file, either
+//   {"id":"harbour","name":"Main harbour","polygon":[[16.77,96.16],[16.78,96.17],...]}
+// or
+//   {"id":"no-go-1","circle":{"lat":16.8,"lon":96.1,"radius_m":200}}
+// with optional "dwell_s" (alert once a vessel has stayed that long) and "ports" (the
+// vessels it applies to; all when omitted). Polygons are tested on the lat/lon plane,
+// which is exact enough at harbour scale; they may not cross the antimeridian. Circles
+// may: their box then has minLon > maxLon and covers both sides. A keep-out buffer
+// around a restricted area is simply a second, larger fence.
+public final class Geofence {
+
+    // Pads a circle's box for the short-range approximation in GeoDistance.
+    private static final double BOX_MARGIN = 1 + 1e-6;
+
+    private final String id;
+    private final String name;
+    // Polygon vertices; null for circles.
+    private final double[] lats;
+    private final double[] lons;
+    private final double centerLat;
+    private final double centerLon;
+    private final double radiusMeters;
+    private final long dwellMillis;
+    // null means every vessel.
+    private final BitSet ports;
+    final double minLat;
+    final double maxLat;
+    // minLon > maxLon when the box wraps across the antimeridian.
+    final double minLon;
+    final double maxLon;
+
+    private Geofence(String id, String name, double[] lats, double[] lons, double centerLat, double centerLon,
+                     double radiusMeters, long dwellMillis, BitSet ports) {
+        this.id = id;
+        this.name = name;
+        this.lats = lats;
+        this.lons = lons;
+        this.centerLat = centerLat;
+        this.centerLon = centerLon;
+        this.radiusMeters = radiusMeters;
+        this.dwellMillis = dwellMillis;
+        this.ports = ports;
+        if (lats != null) {
+            double south = 90, north = -90, west = 180, east = -180;
+            for (int i = 0; i < lats.length; i++) {
+                south = Math.min(south, lats[i]);
+                north = Math.max(north, lats[i]);
+                west = Math.min(west, lons[i]);
+                east = Math.max(east, lons[i]);
+            }
+            this.minLat = south;
+            this.maxLat = north;
+            this.minLon = west;
+            this.maxLon = east;
+        } else {
+            // As in VesselSpatialIndex: the widest longitude offset is
+            // asin(sin r / cos lat), and once sin r >= cos lat the circle holds a pole
+            // and every longitude.
+            double angle = radiusMeters / GeoDistance.EARTH_RADIUS_M;
+            double dLat = Math.toDegrees(angle) * BOX_MARGIN;
+            double cosLat = Math.cos(Math.toRadians(centerLat));
+            this.minLat = Math.max(-90, centerLat - dLat);
+            this.maxLat = Math.min(90, centerLat + dLat);
+            double dLon = 180;
+            if (minLat > -90 && maxLat < 90 && angle < Math.PI / 2 && Math.sin(angle) < cosLat) {
+                dLon = Math.toDegrees(Math.asin(Math.sin(angle) / cosLat)) * BOX_MARGIN;
+            }
+            if (dLon >= 180) {
+                this.minLon = -180;
+                this.maxLon = 180;
+            } else {
+                double west = centerLon - dLon;
+                double east = centerLon + dLon;
+                this.minLon = west < -180 ? west + 360 : west;
+                this.maxLon = east > 180 ? east - 360 : east;
+            }
+        }
+    }
+
+    // IllegalArgumentException names the problem.
+    static Geofence parse(JsonNode node) {
+        String id = node.path("id").asText("");
+        if (id.isBlank()) {
+            throw new IllegalArgumentException("every fence needs an \"id\"");
+        }
+        String name = node.path("name").asText(id);
+        long dwellMillis = (long) (node.path("dwell_s").asDouble(0) * 1000);
+        BitSet ports = null;
+        if (node.has("ports")) {
+            ports = new BitSet(65536);
+            for (JsonNode port : node.get("ports")) {
+                if (!port.canConvertToInt() || port.asInt() < 0 || port.asInt() > 65535) {
+                    throw new IllegalArgumentException("fence " + id + ": invalid port " + port);
+                }
+                ports.set(port.asInt());
+            }
+        }
+        JsonNode polygon = node.get("polygon");
+        JsonNode circle = node.get("circle");
+        if (polygon != null && polygon.isArray()) {
+            if (polygon.size() < 3) {
+                throw new IllegalArgumentException("fence " + id + ": a polygon needs at least 3 points");
+            }
+            double[] lats = new double[polygon.size()];
+            double[] lons = new double[polygon.size()];
+            for (int i = 0; i < polygon.size(); i++) {
+                JsonNode point = polygon.get(i);
+                lats[i] = coordinate(id, point.get(0), 90);
+                lons[i] = coordinate(id, point.get(1), 180);
+            }
+            Geofence fence = new Geofence(id, name, lats, lons, 0, 0, 0, dwellMillis, ports);
+            if (fence.maxLon - fence.minLon >= 180) {
+                throw new IllegalArgumentException("fence " + id + ": polygons may not span 180 degrees of longitude");
+            }
+            return fence;
+        }
+        if (circle != null && circle.isObject()) {
+            double radius = circle.path("radius_m").asDouble(0);
+            if (!(radius > 0)) {
+                throw new IllegalArgumentException("fence " + id + ": circle radius_m must be positive");
+            }
+            return new Geofence(id, name, null, null, coordinate(id, circle.get("lat"), 90),
+                    coordinate(id, circle.get("lon"), 180), radius, dwellMillis, ports);
+        }
+        throw new IllegalArgumentException("fence " + id + ": needs a \"polygon\" or a \"circle\"");
+    }
+
+    private static double coordinate(String id, JsonNode value, double limit) {
+        if (value == null || !value.isNumber() || Math.abs(value.asDouble()) > limit) {
+            throw new IllegalArgumentException("fence " + id + ": invalid coordinate " + value);
+        }
+        return value.asDouble();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    long getDwellMillis() {
+        return dwellMillis;
+    }
+
+    boolean appliesTo(int port) {
+        return ports == null || ports.get(port);
+    }
+
+    boolean contains(double lat, double lon) {
+        boolean inLon = minLon <= maxLon ? lon >= minLon && lon <= maxLon : lon >= minLon || lon <= maxLon;
+        if (lat < minLat || lat > maxLat || !inLon) {
+            return false;
+        }
+        if (lats == null) {
+            return GeoDistance.meters(centerLat, centerLon, lat, lon) <= radiusMeters;
+        }
+        // Ray casting along the latitude line.
+        boolean inside = false;
+        for (int i = 0, j = lats.length - 1; i < lats.length; j = i++) {
+            if ((lats[i] > lat) != (lats[j] > lat)
+                    && lon < (lons[j] - lons[i]) * (lat - lats[i]) / (lats[j] - lats[i]) + lons[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("id", id);
+        map.put("name", name);
+        if (lats != null) {
+            List<List<Double>> points = new ArrayList<>(lats.length);
+            for (int i = 0; i < lats.length; i++) {
+                points.add(List.of(lats[i], lons[i]));
+            }
+            map.put("polygon", points);
+        } else {
+            map.put("circle", Map.of("lat", centerLat, "lon", centerLon, "radius_m", radiusMeters));
+        }
+        if (dwellMillis > 0) {
+            map.put("dwell_s", dwellMillis / 1000.0);
+        }
+        if (ports != null) {
+            map.put("ports", ports.stream().boxed().toList());
+        }
+        return map;
+    }
+}
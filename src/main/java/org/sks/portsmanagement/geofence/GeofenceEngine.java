@@ -0,0 +1,258 @@
+package org.sks.portsmanagement.geofence;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.sks.portsmanagement.service.VesselState;
+import org.sks.portsmanagement.service.derived.DerivedMetric;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.sks.portsmanagement.service.TelemetryField.*;
+
+// Server-side geofencing and threshold alerts, run as the last DerivedMetric of every
+// vessel update that moved the vessel or changed its battery voltage or HDOP.
+//
+// Fences come from geofence.file ({"fences":[...]}, see Geofence), re-read when the
+// file changes; without the file there are none. Each fix only tests the fences of its
+// GeofenceIndex cell plus the ones the vessel is already in, and raises
+// geofence_enter / geofence_exit on a change and geofence_dwell once the vessel has
+// stayed dwell_s in a fence. battery_low and hdop_high are raised when the value
+// crosses its configured limit, and battery_ok / hdop_ok once it is back past the limit
+// by a small margin, so a value hovering at the limit does not flap. Alerts go out
+// through AlertPublisher.
+@Component
+@Order(50)
+public class GeofenceEngine implements DerivedMetric<GeofenceEngine.Vessel> {
+
+    private static final long INPUTS = DerivedMetric.mask(LAT, LON, BATTERY_VOLTAGE, GPS_HDOP);
+    private static final long POSITION = DerivedMetric.mask(LAT, LON);
+    private static final long BATTERY = DerivedMetric.mask(BATTERY_VOLTAGE);
+    private static final long HDOP = DerivedMetric.mask(GPS_HDOP);
+    // SYS_STATUS voltage_battery and GPS_RAW_INT eph when the sender does not know.
+    private static final double UNKNOWN_VOLTAGE_MV = 65535;
+    private static final double UNKNOWN_HDOP = 655.35;
+    private static final double BATTERY_RECOVERY = 1.02;
+    private static final double HDOP_RECOVERY = 0.9;
+
+    static final class Membership {
+        Geofence fence;
+        final long enteredMillis;
+        boolean dwellReported;
+
+        Membership(Geofence fence, long enteredMillis) {
+            this.fence = fence;
+            this.enteredMillis = enteredMillis;
+        }
+    }
+
+    static final class Vessel {
+        // The index the memberships refer to.
+        GeofenceIndex index = GeofenceIndex.EMPTY;
+        final List<Membership> inside = new ArrayList<>(2);
+        boolean batteryLow;
+        boolean hdopHigh;
+    }
+
+    private final ObjectMapper objectMapper;
+    private final AlertPublisher alerts;
+    private final Path file;
+    private final double cellDegrees;
+    private final double batteryMinMillivolts;
+    private final double hdopMax;
+    private volatile GeofenceIndex index = GeofenceIndex.EMPTY;
+    // Fence ids per port, for the REST view; replaced whenever a vessel's fences change.
+    private final ConcurrentHashMap<Integer, List<String>> occupancy = new ConcurrentHashMap<>();
+    // Guarded by this.
+    private long loadedModified = Long.MIN_VALUE;
+
+    public GeofenceEngine(ObjectMapper objectMapper, AlertPublisher alerts,
+                          @Value("${geofence.file:./config/geofences.json}") String file,
+                          @Value("${geofence.cell-degrees:0.01}") double cellDegrees,
+                          @Value("${alerts.battery-voltage-min-mv:0}") double batteryMinMillivolts,
+                          @Value("${alerts.gps-hdop-max:0}") double hdopMax) {
+        if (!(cellDegrees > 0) || cellDegrees > 10) {
+            throw new IllegalArgumentException("geofence.cell-degrees must be in (0, 10]");
+        }
+        this.objectMapper = objectMapper;
+        this.alerts = alerts;
+        this.file = Paths.get(file);
+        this.cellDegrees = cellDegrees;
+        this.batteryMinMillivolts = batteryMinMillivolts;
+        this.hdopMax = hdopMax;
+    }
+
+    @PostConstruct
+    public synchronized void load() {
+        if (!Files.exists(file)) {
+            System.out.println("✅ Geofencing: no fences, " + file.toAbsolutePath() + " does not exist");
+            return;
+        }
+        reloadIfChanged();
+    }
+
+    // Re-reads the file when its modification time changed. A file that does not parse
+    // or validate leaves the current fences in place.
+    @Scheduled(fixedDelayString = "${geofence.reload-interval-ms:5000}")
+    public synchronized void reloadIfChanged() {
+        try {
+            if (!Files.exists(file)) {
+                return;
+            }
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            if (modified == loadedModified) {
+                return;
+            }
+            loadedModified = modified;
+            index = new GeofenceIndex(parse(objectMapper.readTree(file.toFile())), cellDegrees);
+            System.out.println("✅ Geofences loaded from " + file.toAbsolutePath() + ": " + index.fences().size() + " fences");
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("❌ Geofences " + file + " not loaded: " + e.getMessage());
+        }
+    }
+
+    private static List<Geofence> parse(JsonNode root) {
+        JsonNode fences = root != null ? root.get("fences") : null;
+        if (fences == null || !fences.isArray()) {
+            throw new IllegalArgumentException("expected {\"fences\": [...]}");
+        }
+        List<Geofence> parsed = new ArrayList<>();
+        for (JsonNode fence : fences) {
+            parsed.add(Geofence.parse(fence));
+        }
+        return parsed;
+    }
+
+    public List<Geofence> getFences() {
+        return index.fences();
+    }
+
+    // Fence id -> ports last seen inside it.
+    public Map<String, List<Integer>> getOccupants() {
+        Map<String, List<Integer>> occupants = new TreeMap<>();
+        occupancy.forEach((port, fences) -> {
+            for (String fence : fences) {
+                occupants.computeIfAbsent(fence, id -> new ArrayList<>()).add(port);
+            }
+        });
+        occupants.values().forEach(ports -> ports.sort(null));
+        return occupants;
+    }
+
+    @Override
+    public long inputs() {
+        return INPUTS;
+    }
+
+    @Override
+    public Vessel newState() {
+        return new Vessel();
+    }
+
+    @Override
+    public void update(VesselState vessel, Vessel state, long updated, long nowMillis) {
+        int port = vessel.getPort();
+        double lat = vessel.get(LAT);
+        double lon = vessel.get(LON);
+        if ((updated & POSITION) != 0 && (lat != 0 || lon != 0)) {
+            checkFences(port, state, lat, lon, nowMillis);
+        }
+        if ((updated & BATTERY) != 0 && batteryMinMillivolts > 0) {
+            double voltage = vessel.get(BATTERY_VOLTAGE);
+            if (voltage > 0 && voltage < UNKNOWN_VOLTAGE_MV) {
+                if (!state.batteryLow && voltage < batteryMinMillivolts) {
+                    state.batteryLow = true;
+                    alerts.raise(AlertPublisher.BATTERY_LOW, port, null, lat, lon, voltage, batteryMinMillivolts, nowMillis);
+                } else if (state.batteryLow && voltage >= batteryMinMillivolts * BATTERY_RECOVERY) {
+                    state.batteryLow = false;
+                    alerts.raise(AlertPublisher.BATTERY_OK, port, null, lat, lon, voltage, batteryMinMillivolts, nowMillis);
+                }
+            }
+        }
+        if ((updated & HDOP) != 0 && hdopMax > 0) {
+            double hdop = vessel.get(GPS_HDOP);
+            if (hdop > 0 && hdop < UNKNOWN_HDOP) {
+                if (!state.hdopHigh && hdop > hdopMax) {
+                    state.hdopHigh = true;
+                    alerts.raise(AlertPublisher.HDOP_HIGH, port, null, lat, lon, hdop, hdopMax, nowMillis);
+                } else if (state.hdopHigh && hdop <= hdopMax * HDOP_RECOVERY) {
+                    state.hdopHigh = false;
+                    alerts.raise(AlertPublisher.HDOP_OK, port, null, lat, lon, hdop, hdopMax, nowMillis);
+                }
+            }
+        }
+    }
+
+    private void checkFences(int port, Vessel state, double lat, double lon, long nowMillis) {
+        GeofenceIndex current = index;
+        boolean changed = false;
+        if (state.index != current) {
+            // Reloaded: carry memberships over to the fences with the same id; fences
+            // that are gone are left silently.
+            state.inside.removeIf(membership -> {
+                membership.fence = current.byId(membership.fence.getId());
+                return membership.fence == null || !membership.fence.appliesTo(port);
+            });
+            state.index = current;
+            changed = true;
+        }
+        for (int i = state.inside.size() - 1; i >= 0; i--) {
+            Membership membership = state.inside.get(i);
+            Geofence fence = membership.fence;
+            if (!fence.contains(lat, lon)) {
+                state.inside.remove(i);
+                changed = true;
+                alerts.raise(AlertPublisher.GEOFENCE_EXIT, port, fence, lat, lon, null, null, nowMillis);
+            } else if (!membership.dwellReported && fence.getDwellMillis() > 0
+                    && nowMillis - membership.enteredMillis >= fence.getDwellMillis()) {
+                membership.dwellReported = true;
+                alerts.raise(AlertPublisher.GEOFENCE_DWELL, port, fence, lat, lon,
+                        (nowMillis - membership.enteredMillis) / 1000.0, fence.getDwellMillis() / 1000.0, nowMillis);
+            }
+        }
+        if (!current.isEmpty()) {
+            changed |= enter(port, state, current.candidates(lat, lon), lat, lon, nowMillis);
+            changed |= enter(port, state, current.wide(), lat, lon, nowMillis);
+        }
+        if (changed) {
+            if (state.inside.isEmpty()) {
+                occupancy.remove(port);
+            } else {
+                occupancy.put(port, state.inside.stream().map(membership -> membership.fence.getId()).toList());
+            }
+        }
+    }
+
+    private boolean enter(int port, Vessel state, Geofence[] candidates, double lat, double lon, long nowMillis) {
+        boolean entered = false;
+        for (Geofence fence : candidates) {
+            if (fence.appliesTo(port) && !isInside(state, fence) && fence.contains(lat, lon)) {
+                state.inside.add(new Membership(fence, nowMillis));
+                entered = true;
+                alerts.raise(AlertPublisher.GEOFENCE_ENTER, port, fence, lat, lon, null, null, nowMillis);
+            }
+        }
+        return entered;
+    }
+
+    private static boolean isInside(Vessel state, Geofence fence) {
+        for (Membership membership : state.inside) {
+            if (membership.fence == fence) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
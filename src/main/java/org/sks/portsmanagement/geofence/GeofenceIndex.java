@@ -0,0 +1,119 @@
+package org.sks.portsmanagement.geofence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Immutable grid over the fences of one geofence file, so that a position fix only
+// tests the fences whose bounding box touches its cell. Cells are cellDegrees square
+// and keyed by a long in an open-addressing table, so a lookup neither boxes nor
+// allocates. Fences whose box covers more than MAX_CELLS cells (a whole coastline,
+// say) are kept in a short "wide" list instead and tested on every fix.
+final class GeofenceIndex {
+
+    private static final int MAX_CELLS = 4096;
+    private static final Geofence[] NONE = new Geofence[0];
+
+    static final GeofenceIndex EMPTY = new GeofenceIndex(List.of(), 0.01);
+
+    private final List<Geofence> fences;
+    private final Map<String, Geofence> byId = new HashMap<>();
+    private final double cellDegrees;
+    private final long lonCells;
+    private final Geofence[] wide;
+    private final long[] keys;
+    private final Geofence[][] values;
+    private final int mask;
+
+    // IllegalArgumentException on duplicate ids.
+    GeofenceIndex(List<Geofence> fences, double cellDegrees) {
+        this.fences = Collections.unmodifiableList(new ArrayList<>(fences));
+        this.cellDegrees = cellDegrees;
+        this.lonCells = (long) Math.ceil(360 / cellDegrees);
+        Map<Long, List<Geofence>> cells = new HashMap<>();
+        List<Geofence> wide = new ArrayList<>();
+        for (Geofence fence : fences) {
+            if (byId.put(fence.getId(), fence) != null) {
+                throw new IllegalArgumentException("fence " + fence.getId() + " is listed twice");
+            }
+            long firstLat = latCell(fence.minLat), lastLat = latCell(fence.maxLat);
+            // A box across the antimeridian is indexed as its two halves.
+            double[][] lonRanges = fence.minLon <= fence.maxLon
+                    ? new double[][]{{fence.minLon, fence.maxLon}}
+                    : new double[][]{{fence.minLon, 180}, {-180, fence.maxLon}};
+            long lonSpan = 0;
+            for (double[] range : lonRanges) {
+                lonSpan += lonCell(range[1]) - lonCell(range[0]) + 1;
+            }
+            if ((lastLat - firstLat + 1) * lonSpan > MAX_CELLS) {
+                wide.add(fence);
+                continue;
+            }
+            for (double[] range : lonRanges) {
+                for (long lat = firstLat; lat <= lastLat; lat++) {
+                    for (long lon = lonCell(range[0]); lon <= lonCell(range[1]); lon++) {
+                        cells.computeIfAbsent(lat * lonCells + lon, key -> new ArrayList<>()).add(fence);
+                    }
+                }
+            }
+        }
+        this.wide = wide.toArray(NONE);
+        int capacity = Integer.highestOneBit(Math.max(cells.size() * 2, 2) - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new Geofence[capacity][];
+        this.mask = capacity - 1;
+        Arrays.fill(keys, -1L);
+        cells.forEach((key, cellFences) -> {
+            int slot = slot(key);
+            while (keys[slot] != -1L) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = cellFences.toArray(NONE);
+        });
+    }
+
+    List<Geofence> fences() {
+        return fences;
+    }
+
+    Geofence byId(String id) {
+        return byId.get(id);
+    }
+
+    boolean isEmpty() {
+        return fences.isEmpty();
+    }
+
+    // Fences whose box may contain the point, besides the wide ones.
+    Geofence[] candidates(double lat, double lon) {
+        long key = latCell(lat) * lonCells + lonCell(lon);
+        int slot = slot(key);
+        while (keys[slot] != -1L) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NONE;
+    }
+
+    Geofence[] wide() {
+        return wide;
+    }
+
+    private long latCell(double lat) {
+        return (long) Math.floor((Math.max(-90, Math.min(90, lat)) + 90) / cellDegrees);
+    }
+
+    private long lonCell(double lon) {
+        return Math.min((long) Math.floor((Math.max(-180, Math.min(180, lon)) + 180) / cellDegrees), lonCells - 1);
+    }
+
+    private int slot(long key) {
+        return (int) (key * 0x9E3779B97F4A7C15L >>> 40) & mask;
+    }
+}
@@ -0,0 +1,47 @@
+package org.sks.portsmanagement.history;
+
+// Reads a stream written by BitWriter, refilling a long from the array eight bytes at
+// a time.
+final class BitReader {
+
+    private final byte[] bytes;
+    private int position;
+    private long current;
+    private int available;
+
+    BitReader(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    // Reads `count` (1..64) bits as the low bits of the result.
+    long read(int count) {
+        long result = 0;
+        while (count > 0) {
+            if (available == 0) {
+                refill();
+            }
+            int take = Math.min(available, count);
+            long chunk = (current >>> (available - take)) & BitWriter.mask(take);
+            result = take == 64 ? chunk : (result << take) | chunk;
+            available -= take;
+            count -= take;
+        }
+        return result;
+    }
+
+    boolean readBit() {
+        return read(1) != 0;
+    }
+
+    private void refill() {
+        int count = Math.min(8, bytes.length - position);
+        if (count == 0) {
+            throw new IllegalStateException("Column data ended early");
+        }
+        current = 0;
+        for (int i = 0; i < count; i++) {
+            current = (current << 8) | (bytes[position++] & 0xFF);
+        }
+        available = count * 8;
+    }
+}
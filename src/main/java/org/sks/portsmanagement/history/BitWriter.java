@@ -0,0 +1,58 @@
+package org.sks.portsmanagement.history;
+
+import java.util.Arrays;
+
+// Growable most-significant-bit-first bit stream. Bits are collected in a long and
+// spilled to the byte array a word at a time.
+final class BitWriter {
+
+    private byte[] bytes = new byte[256];
+    private int size;
+    private long current;
+    private int filled;
+
+    // Writes the low `count` (1..64) bits of value.
+    void write(long value, int count) {
+        while (count > 0) {
+            int take = Math.min(64 - filled, count);
+            long chunk = (value >>> (count - take)) & mask(take);
+            current = take == 64 ? chunk : (current << take) | chunk;
+            filled += take;
+            count -= take;
+            if (filled == 64) {
+                spill(current, 8);
+                current = 0;
+                filled = 0;
+            }
+        }
+    }
+
+    int lengthInBytes() {
+        return size + (filled + 7) / 8;
+    }
+
+    // The stream so far, the last byte zero padded.
+    byte[] toByteArray() {
+        byte[] result = Arrays.copyOf(bytes, lengthInBytes());
+        long aligned = filled == 0 ? 0 : current << (64 - filled);
+        for (int i = size; i < result.length; i++) {
+            result[i] = (byte) (aligned >>> 56);
+            aligned <<= 8;
+        }
+        return result;
+    }
+
+    private void spill(long word, int count) {
+        if (size + count > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + count));
+        }
+        for (int i = 0; i < count; i++) {
+            bytes[size++] = (byte) (word >>> 56);
+            word <<= 8;
+        }
+    }
+
+    static long mask(int count) {
+        return count == 64 ? -1L : (1L << count) - 1;
+    }
+}
@@ -0,0 +1,135 @@
+package org.sks.portsmanagement.history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Long-term, compressed copy of the history: the writer thread feeds every record into
+// an in-memory ColumnBlock per vessel and appends the block to <port>/<day>.col once it
+// holds enough samples or has been open long enough. Files are named after the UTC day
+// of their first block. Blocks still in memory are lost on a crash; the raw segments
+// cover that gap for as long as they are retained.
+final class ColumnArchive {
+
+    private static final long DAY_MS = 86_400_000L;
+
+    private final Path directory;
+    private final int blockSamples;
+    private final long blockIntervalMillis;
+
+    private final ColumnBlock[] blocks = new ColumnBlock[65536];
+    private final List<Integer> openPorts = new ArrayList<>();
+    // Files whose tail has been checked for a torn block since startup.
+    private final Set<Path> verified = new HashSet<>();
+
+    ColumnArchive(Path directory, int blockSamples, long blockIntervalMillis) {
+        this.directory = directory;
+        this.blockSamples = blockSamples;
+        this.blockIntervalMillis = blockIntervalMillis;
+    }
+
+    void append(RecordRing ring, int slot) {
+        int port = ring.ports[slot];
+        ColumnBlock block = blocks[port];
+        if (block == null) {
+            block = blocks[port] = new ColumnBlock();
+            openPorts.add(port);
+        }
+        block.add(ring, slot);
+        if (block.getSamples() >= blockSamples) {
+            seal(port);
+        }
+    }
+
+    // Seals blocks that have been open for the block interval.
+    void maintain(long now) {
+        for (Integer port : new ArrayList<>(openPorts)) {
+            if (now - blocks[port].getFirstTime() >= blockIntervalMillis) {
+                seal(port);
+            }
+        }
+    }
+
+    void sealAll() {
+        for (Integer port : new ArrayList<>(openPorts)) {
+            seal(port);
+        }
+    }
+
+    private void seal(int port) {
+        ColumnBlock block = blocks[port];
+        blocks[port] = null;
+        openPorts.remove(Integer.valueOf(port));
+        Path vesselDirectory = directory.resolve(Integer.toString(port));
+        Path file = fileFor(vesselDirectory, Math.floorDiv(block.getFirstTime(), DAY_MS) * DAY_MS);
+        try {
+            Files.createDirectories(vesselDirectory);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                long end = verified.add(file) ? validLength(channel) : channel.size();
+                if (end < channel.size()) {
+                    channel.truncate(end);
+                }
+                ByteBuffer data = ByteBuffer.wrap(block.seal());
+                while (data.hasRemaining()) {
+                    channel.write(data, end + data.position());
+                }
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            System.err.println("❌ Cannot write history block to " + file + ": " + e.getMessage());
+        }
+    }
+
+    // Length of the whole blocks at the start of the file; anything after is a block
+    // torn by a crash.
+    static long validLength(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        while (position + ColumnBlock.HEADER_SIZE <= size) {
+            header.clear();
+            if (channel.read(header, position) < 8 || header.getInt(0) != ColumnBlock.MAGIC) {
+                break;
+            }
+            int length = header.getInt(4);
+            if (length < ColumnBlock.HEADER_SIZE || position + length > size) {
+                break;
+            }
+            position += length;
+        }
+        return position;
+    }
+
+    // Archive files expire like segments: once the file that follows was started before
+    // the cutoff.
+    void deleteExpired(long cutoff) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> vessels = Files.newDirectoryStream(directory)) {
+            for (Path vesselDirectory : vessels) {
+                List<Path> files = TelemetryHistoryStore.listFiles(vesselDirectory, ColumnBlock.SUFFIX);
+                for (int i = 0; i + 1 < files.size(); i++) {
+                    if (TelemetryHistoryStore.createdMillis(files.get(i + 1)) < cutoff) {
+                        Files.deleteIfExists(files.get(i));
+                        verified.remove(files.get(i));
+                    }
+                }
+            }
+        }
+    }
+
+    static Path fileFor(Path vesselDirectory, long dayMillis) {
+        return vesselDirectory.resolve(String.format("%013d%s", dayMillis, ColumnBlock.SUFFIX));
+    }
+}
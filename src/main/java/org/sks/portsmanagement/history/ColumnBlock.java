@@ -0,0 +1,92 @@
+package org.sks.portsmanagement.history;
+
+import org.sks.portsmanagement.service.TelemetryField;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// One vessel's samples over a stretch of time, one compressed column per field, built
+// up in memory and written out once when sealed. Blocks are appended back to back to
+// the vessel's archive files.
+//
+// Layout (little-endian):
+//   header, HEADER_SIZE bytes: i32 magic "VCB1", i32 block length, i64 first
+//     timestamp ms, i64 last timestamp ms, i32 column count
+//   directory, DIRECTORY_ENTRY_SIZE bytes per column: i16 field ordinal, i8 encoding,
+//     i8 reserved, i32 sample count, i32 data offset from block start, i32 data length
+//   column data, in directory order
+// A reader needs the header and directory only to find a column and can skip whole
+// blocks by their time range.
+final class ColumnBlock {
+
+    static final int MAGIC = 0x31424356; // "VCB1"
+    static final int HEADER_SIZE = 28;
+    static final int DIRECTORY_ENTRY_SIZE = 16;
+    static final String SUFFIX = ".col";
+
+    private final ColumnEncoder[] columns = new ColumnEncoder[TelemetryField.COUNT];
+    private int columnCount;
+    private int samples;
+    private long firstTime;
+    private long lastTime;
+
+    // Copies one ring record in, a sample per field it carries.
+    void add(RecordRing ring, int slot) {
+        long timestamp = ring.timestamps[slot];
+        if (samples == 0) {
+            firstTime = timestamp;
+        }
+        lastTime = Math.max(lastTime, timestamp);
+        int offset = slot * HistorySegment.VALUES_PER_RECORD;
+        for (long remaining = ring.masks[slot]; remaining != 0; remaining &= remaining - 1) {
+            int ordinal = Long.numberOfTrailingZeros(remaining);
+            ColumnEncoder column = columns[ordinal];
+            if (column == null) {
+                column = columns[ordinal] = new ColumnEncoder(ordinal, encodingFor(TelemetryField.VALUES[ordinal]));
+                columnCount++;
+            }
+            column.add(timestamp, ring.values[offset++]);
+            samples++;
+        }
+    }
+
+    // Whole-number channels get the integer coding, everything else XOR.
+    static byte encodingFor(TelemetryField field) {
+        return field.kind() == TelemetryField.Kind.INT ? ColumnEncoder.INTEGER : ColumnEncoder.XOR;
+    }
+
+    int getSamples() {
+        return samples;
+    }
+
+    long getFirstTime() {
+        return firstTime;
+    }
+
+    byte[] seal() {
+        int length = HEADER_SIZE + columnCount * DIRECTORY_ENTRY_SIZE;
+        for (ColumnEncoder column : columns) {
+            if (column != null) {
+                length += column.lengthInBytes();
+            }
+        }
+        ByteBuffer block = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        block.putInt(MAGIC).putInt(length).putLong(firstTime).putLong(lastTime).putInt(columnCount);
+        int dataOffset = HEADER_SIZE + columnCount * DIRECTORY_ENTRY_SIZE;
+        for (ColumnEncoder column : columns) {
+            if (column == null) {
+                continue;
+            }
+            int dataLength = column.lengthInBytes();
+            block.putShort((short) column.getOrdinal()).put(column.getEncoding()).put((byte) 0)
+                    .putInt(column.getCount()).putInt(dataOffset).putInt(dataLength);
+            dataOffset += dataLength;
+        }
+        for (ColumnEncoder column : columns) {
+            if (column != null) {
+                block.put(column.toByteArray());
+            }
+        }
+        return block.array();
+    }
+}
@@ -0,0 +1,156 @@
+package org.sks.portsmanagement.history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Walks one field through a vessel's archive files. Per block it reads the header and
+// column directory, skips blocks outside the range, and reads and decodes only the
+// bytes of the requested column.
+final class ColumnCursor implements SeriesCursor {
+
+    private final List<Path> files;
+    private final int ordinal;
+    private final long from;
+    private final long to;
+    private final ByteBuffer header = ByteBuffer.allocate(ColumnBlock.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private int fileIndex = -1;
+    private FileChannel channel;
+    private long fileSize;
+    private long blockPosition;
+    private ColumnDecoder decoder;
+    private boolean finished;
+
+    ColumnCursor(List<Path> files, int ordinal, long from, long to) {
+        this.files = files;
+        this.ordinal = ordinal;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public boolean next() {
+        while (!finished) {
+            if (decoder == null || !decoder.next()) {
+                decoder = nextColumn();
+                continue;
+            }
+            long time = decoder.time();
+            if (time >= to) {
+                close();
+                return false;
+            }
+            if (time >= from) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Decoder for the field's column in the next block that may hold samples in range.
+    private ColumnDecoder nextColumn() {
+        while (true) {
+            if (channel == null && !openNext()) {
+                finished = true;
+                return null;
+            }
+            try {
+                header.clear();
+                if (blockPosition + ColumnBlock.HEADER_SIZE > fileSize
+                        || channel.read(header, blockPosition) < ColumnBlock.HEADER_SIZE
+                        || header.getInt(0) != ColumnBlock.MAGIC) {
+                    closeFile();
+                    continue;
+                }
+                long start = blockPosition;
+                int length = header.getInt(4);
+                long firstTime = header.getLong(8);
+                long lastTime = header.getLong(16);
+                int columns = header.getInt(24);
+                if (length < ColumnBlock.HEADER_SIZE || start + length > fileSize) {
+                    closeFile();
+                    continue;
+                }
+                blockPosition += length;
+                if (firstTime >= to) {
+                    close();
+                    return null;
+                }
+                if (lastTime < from) {
+                    continue;
+                }
+                ByteBuffer directory = ByteBuffer.allocate(columns * ColumnBlock.DIRECTORY_ENTRY_SIZE)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                channel.read(directory, start + ColumnBlock.HEADER_SIZE);
+                for (int i = 0; i < columns; i++) {
+                    int entry = i * ColumnBlock.DIRECTORY_ENTRY_SIZE;
+                    if (directory.getShort(entry) != ordinal) {
+                        continue;
+                    }
+                    byte encoding = directory.get(entry + 2);
+                    int count = directory.getInt(entry + 4);
+                    ByteBuffer data = ByteBuffer.allocate(directory.getInt(entry + 12));
+                    while (data.hasRemaining() && channel.read(data, start + directory.getInt(entry + 8) + data.position()) > 0) {
+                        // Positional reads until the column is in.
+                    }
+                    return new ColumnDecoder(data.array(), encoding, count);
+                }
+            } catch (IOException e) {
+                System.err.println("❌ Cannot read history archive " + files.get(fileIndex) + ": " + e.getMessage());
+                closeFile();
+            }
+        }
+    }
+
+    private boolean openNext() {
+        while (++fileIndex < files.size()) {
+            Path path = files.get(fileIndex);
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+                fileSize = channel.size();
+                blockPosition = 0;
+                return true;
+            } catch (NoSuchFileException e) {
+                // Deleted by retention in the meantime.
+            } catch (IOException e) {
+                System.err.println("❌ Cannot read history archive " + path + ": " + e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    private void closeFile() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Read-only; nothing to lose.
+            }
+            channel = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        decoder = null;
+        fileIndex = files.size();
+        closeFile();
+    }
+
+    @Override
+    public long time() {
+        return decoder.time();
+    }
+
+    @Override
+    public double value() {
+        return decoder.value();
+    }
+}
@@ -0,0 +1,105 @@
+package org.sks.portsmanagement.history;
+
+// Reads back the samples of one column written by ColumnEncoder.
+final class ColumnDecoder {
+
+    private final BitReader bits;
+    private final byte encoding;
+    private int remaining;
+    private boolean first = true;
+    private long time;
+    private long previousDelta;
+    private long valueBits;
+    private int previousLeading;
+    private int previousTrailing;
+    private long previousInteger;
+    private double value;
+
+    ColumnDecoder(byte[] data, byte encoding, int count) {
+        this.bits = new BitReader(data);
+        this.encoding = encoding;
+        this.remaining = count;
+    }
+
+    boolean next() {
+        if (remaining == 0) {
+            return false;
+        }
+        remaining--;
+        if (first) {
+            time = bits.read(64);
+        } else {
+            previousDelta += readDeltaOfDelta();
+            time += previousDelta;
+        }
+        value = encoding == ColumnEncoder.INTEGER ? readInteger() : readXor();
+        first = false;
+        return true;
+    }
+
+    private long readDeltaOfDelta() {
+        if (!bits.readBit()) {
+            return 0;
+        }
+        if (!bits.readBit()) {
+            return ColumnEncoder.unzigzag(bits.read(7));
+        }
+        if (!bits.readBit()) {
+            return ColumnEncoder.unzigzag(bits.read(9));
+        }
+        if (!bits.readBit()) {
+            return ColumnEncoder.unzigzag(bits.read(12));
+        }
+        return ColumnEncoder.unzigzag(bits.read(64));
+    }
+
+    private double readXor() {
+        if (first) {
+            valueBits = bits.read(64);
+        } else if (bits.readBit()) {
+            if (bits.readBit()) {
+                previousLeading = (int) bits.read(5);
+                int significant = (int) bits.read(6) + 1;
+                previousTrailing = 64 - previousLeading - significant;
+            }
+            valueBits ^= bits.read(64 - previousLeading - previousTrailing) << previousTrailing;
+        }
+        return Double.longBitsToDouble(valueBits);
+    }
+
+    private double readInteger() {
+        int prefix = 0;
+        while (prefix < 5 && bits.readBit()) {
+            prefix++;
+        }
+        long zigzag;
+        switch (prefix) {
+            case 0:
+                return previousInteger;
+            case 1:
+                zigzag = bits.read(8);
+                break;
+            case 2:
+                zigzag = bits.read(16);
+                break;
+            case 3:
+                zigzag = bits.read(32);
+                break;
+            case 4:
+                zigzag = bits.read(64);
+                break;
+            default:
+                return Double.longBitsToDouble(bits.read(64));
+        }
+        previousInteger += ColumnEncoder.unzigzag(zigzag);
+        return previousInteger;
+    }
+
+    long time() {
+        return time;
+    }
+
+    double value() {
+        return value;
+    }
+}
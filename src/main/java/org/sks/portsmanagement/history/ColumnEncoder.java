@@ -0,0 +1,160 @@
+package org.sks.portsmanagement.history;
+
+// Compresses one field's (timestamp, value) samples into a bit stream.
+//
+// Timestamps: the first in full, then the delta-of-delta, zigzagged, behind a prefix
+//   0 -> same delta, 10 -> 7 bits, 110 -> 9 bits, 1110 -> 12 bits, 1111 -> 64 bits.
+// XOR values (Gorilla): the first in full, then the XOR with the previous value:
+//   0 -> unchanged; 10 -> meaningful bits inside the previous leading/trailing zero
+//   window; 11 -> 5 bits leading zeros, 6 bits length - 1, the meaningful bits.
+// INTEGER values (whole-number channels: PWM, counts, millivolts): the zigzagged
+//   difference from the previous whole value behind a prefix
+//   0 -> unchanged, 10 -> 8 bits, 110 -> 16 bits, 1110 -> 32 bits, 11110 -> 64 bits,
+//   11111 -> the raw 64-bit double, for the odd value that is not a whole number.
+final class ColumnEncoder {
+
+    static final byte XOR = 1;
+    static final byte INTEGER = 2;
+
+    // Whole numbers up to this magnitude survive the round trip through a double.
+    static final double MAX_EXACT_INTEGER = 9007199254740992.0;
+    private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0.0);
+
+    private final int ordinal;
+    private final byte encoding;
+    private final BitWriter bits = new BitWriter();
+    private int count;
+    private long lastTime;
+    private long previousDelta;
+    private long previousBits;
+    private int previousLeading = -1;
+    private int previousTrailing;
+    private long previousInteger;
+
+    ColumnEncoder(int ordinal, byte encoding) {
+        this.ordinal = ordinal;
+        this.encoding = encoding;
+    }
+
+    void add(long time, double value) {
+        if (count == 0) {
+            bits.write(time, 64);
+        } else {
+            long delta = time - lastTime;
+            writeTimestamp(delta - previousDelta);
+            previousDelta = delta;
+        }
+        lastTime = time;
+        if (encoding == INTEGER) {
+            writeInteger(value);
+        } else {
+            writeXor(value);
+        }
+        count++;
+    }
+
+    // Widths are checked unsigned: a delta-of-delta of 2^62 or more zigzags to a value
+    // with the top bit set.
+    private void writeTimestamp(long deltaOfDelta) {
+        long zigzag = zigzag(deltaOfDelta);
+        if (zigzag == 0) {
+            bits.write(0b0, 1);
+        } else if (zigzag >>> 7 == 0) {
+            bits.write(0b10, 2);
+            bits.write(zigzag, 7);
+        } else if (zigzag >>> 9 == 0) {
+            bits.write(0b110, 3);
+            bits.write(zigzag, 9);
+        } else if (zigzag >>> 12 == 0) {
+            bits.write(0b1110, 4);
+            bits.write(zigzag, 12);
+        } else {
+            bits.write(0b1111, 4);
+            bits.write(zigzag, 64);
+        }
+    }
+
+    private void writeXor(double value) {
+        long valueBits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            bits.write(valueBits, 64);
+            previousBits = valueBits;
+            return;
+        }
+        long xor = valueBits ^ previousBits;
+        previousBits = valueBits;
+        if (xor == 0) {
+            bits.write(0b0, 1);
+            return;
+        }
+        int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+            bits.write(0b10, 2);
+            bits.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            return;
+        }
+        int significant = 64 - leading - trailing;
+        bits.write(0b11, 2);
+        bits.write(leading, 5);
+        bits.write(significant - 1, 6);
+        bits.write(xor >>> trailing, significant);
+        previousLeading = leading;
+        previousTrailing = trailing;
+    }
+
+    private void writeInteger(double value) {
+        if (Math.rint(value) != value || Math.abs(value) > MAX_EXACT_INTEGER
+                || Double.doubleToRawLongBits(value) == NEGATIVE_ZERO) {
+            bits.write(0b11111, 5);
+            bits.write(Double.doubleToRawLongBits(value), 64);
+            return;
+        }
+        long integer = (long) value;
+        long zigzag = zigzag(integer - previousInteger);
+        previousInteger = integer;
+        if (zigzag == 0) {
+            bits.write(0b0, 1);
+        } else if (zigzag < 1 << 8) {
+            bits.write(0b10, 2);
+            bits.write(zigzag, 8);
+        } else if (zigzag < 1 << 16) {
+            bits.write(0b110, 3);
+            bits.write(zigzag, 16);
+        } else if (zigzag < 1L << 32) {
+            bits.write(0b1110, 4);
+            bits.write(zigzag, 32);
+        } else {
+            bits.write(0b11110, 5);
+            bits.write(zigzag, 64);
+        }
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    int getOrdinal() {
+        return ordinal;
+    }
+
+    byte getEncoding() {
+        return encoding;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int lengthInBytes() {
+        return bits.lengthInBytes();
+    }
+
+    byte[] toByteArray() {
+        return bits.toByteArray();
+    }
+}
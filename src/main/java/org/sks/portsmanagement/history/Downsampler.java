@@ -0,0 +1,215 @@
+package org.sks.portsmanagement.history;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Streaming reduction of a series to roughly a requested number of points. Buckets are
+// equal slices of the requested time range, so the input never has to be counted or
+// held in memory - at most two buckets are buffered.
+public final class Downsampler {
+
+    @FunctionalInterface
+    public interface PointSink {
+        void accept(long time, double value) throws IOException;
+    }
+
+    public enum Method {
+        // Every sample in the range.
+        RAW,
+        // Largest-Triangle-Three-Buckets: one representative point per bucket that keeps
+        // the visual shape of the line.
+        LTTB,
+        // The minimum and maximum of each bucket, in time order; keeps spikes.
+        MINMAX;
+
+        public static Method parse(String value) {
+            return valueOf(value.trim().toUpperCase().replace("-", ""));
+        }
+    }
+
+    private Downsampler() {
+    }
+
+    public static void downsample(SeriesCursor cursor, long from, long to, int points, Method method,
+                                  PointSink sink) throws IOException {
+        switch (method) {
+            case LTTB:
+                lttb(cursor, from, to, points, sink);
+                break;
+            case MINMAX:
+                minMax(cursor, from, to, points, sink);
+                break;
+            default:
+                while (cursor.next()) {
+                    sink.accept(cursor.time(), cursor.value());
+                }
+        }
+    }
+
+    // Growable pair of primitive arrays holding one bucket.
+    private static final class Bucket {
+        long[] times = new long[64];
+        double[] values = new double[64];
+        int size;
+        long index = -1;
+
+        void add(long time, double value) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            times[size] = time;
+            values[size] = value;
+            size++;
+        }
+
+        void reset(long index) {
+            this.index = index;
+            size = 0;
+        }
+
+        double averageTime() {
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += times[i];
+            }
+            return sum / size;
+        }
+
+        double averageValue() {
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += values[i];
+            }
+            return sum / size;
+        }
+    }
+
+    private static long bucketWidth(long from, long to, int buckets) {
+        return Math.max(1, (to - from + buckets - 1) / Math.max(1, buckets));
+    }
+
+    // The first and last samples are kept; every non-empty bucket in between contributes
+    // the sample forming the largest triangle with the previously chosen sample and the
+    // average of the next non-empty bucket.
+    private static void lttb(SeriesCursor cursor, long from, long to, int points, PointSink sink) throws IOException {
+        if (!cursor.next()) {
+            return;
+        }
+        long width = bucketWidth(from, to, Math.max(1, points - 2));
+        long previousTime = cursor.time();
+        double previousValue = cursor.value();
+        sink.accept(previousTime, previousValue);
+
+        Bucket current = new Bucket();
+        Bucket next = new Bucket();
+        while (cursor.next()) {
+            long index = (cursor.time() - from) / width;
+            if (current.index < 0) {
+                current.reset(index);
+            }
+            if (index == current.index) {
+                current.add(cursor.time(), cursor.value());
+                continue;
+            }
+            if (next.index < 0) {
+                next.reset(index);
+            }
+            if (index == next.index) {
+                next.add(cursor.time(), cursor.value());
+                continue;
+            }
+            // A third bucket starts: current can be decided against next's average.
+            int chosen = largestTriangle(current, previousTime, previousValue, next.averageTime(), next.averageValue(),
+                    current.size);
+            previousTime = current.times[chosen];
+            previousValue = current.values[chosen];
+            sink.accept(previousTime, previousValue);
+            Bucket recycled = current;
+            current = next;
+            next = recycled;
+            next.reset(index);
+            next.add(cursor.time(), cursor.value());
+        }
+
+        // Drain: the last sample seen is kept as the final point.
+        Bucket last = next.index >= 0 ? next : current;
+        if (last.index < 0 || last.size == 0) {
+            return;
+        }
+        long lastTime = last.times[last.size - 1];
+        double lastValue = last.values[last.size - 1];
+        if (last == next && current.size > 0) {
+            int chosen = largestTriangle(current, previousTime, previousValue, next.averageTime(), next.averageValue(),
+                    current.size);
+            previousTime = current.times[chosen];
+            previousValue = current.values[chosen];
+            sink.accept(previousTime, previousValue);
+        }
+        if (last.size > 1) {
+            int chosen = largestTriangle(last, previousTime, previousValue, lastTime, lastValue, last.size - 1);
+            sink.accept(last.times[chosen], last.values[chosen]);
+        }
+        sink.accept(lastTime, lastValue);
+    }
+
+    private static int largestTriangle(Bucket bucket, long aTime, double aValue, double cTime, double cValue, int size) {
+        int chosen = 0;
+        double maxArea = -1;
+        for (int i = 0; i < size; i++) {
+            double area = Math.abs((aTime - cTime) * (bucket.values[i] - aValue)
+                    - (aTime - bucket.times[i]) * (cValue - aValue));
+            if (area > maxArea) {
+                maxArea = area;
+                chosen = i;
+            }
+        }
+        return chosen;
+    }
+
+    // Two points per bucket, so about points / 2 buckets.
+    private static void minMax(SeriesCursor cursor, long from, long to, int points, PointSink sink) throws IOException {
+        long width = bucketWidth(from, to, Math.max(1, points / 2));
+        long bucket = Long.MIN_VALUE;
+        long minTime = 0;
+        long maxTime = 0;
+        double min = 0;
+        double max = 0;
+        while (cursor.next()) {
+            long index = (cursor.time() - from) / width;
+            double value = cursor.value();
+            if (index != bucket) {
+                if (bucket != Long.MIN_VALUE) {
+                    emitMinMax(sink, minTime, min, maxTime, max);
+                }
+                bucket = index;
+                minTime = maxTime = cursor.time();
+                min = max = value;
+                continue;
+            }
+            if (value < min) {
+                min = value;
+                minTime = cursor.time();
+            }
+            if (value > max) {
+                max = value;
+                maxTime = cursor.time();
+            }
+        }
+        if (bucket != Long.MIN_VALUE) {
+            emitMinMax(sink, minTime, min, maxTime, max);
+        }
+    }
+
+    private static void emitMinMax(PointSink sink, long minTime, double min, long maxTime, double max) throws IOException {
+        if (minTime == maxTime) {
+            sink.accept(minTime, min);
+        } else if (minTime < maxTime) {
+            sink.accept(minTime, min);
+            sink.accept(maxTime, max);
+        } else {
+            sink.accept(maxTime, max);
+            sink.accept(minTime, min);
+        }
+    }
+}
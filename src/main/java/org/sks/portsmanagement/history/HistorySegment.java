@@ -0,0 +1,178 @@
+package org.sks.portsmanagement.history;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// One memory-mapped, append-only segment file of a single vessel's history.
+//
+// Layout (little-endian):
+//   header, HEADER_SIZE bytes: i32 magic "VHS1", i32 record size, i32 port,
+//     i32 reserved, i64 created ms
+//   records, RECORD_SIZE bytes each: i64 timestamp ms, i64 field mask (bit =
+//     TelemetryField ordinal), VALUES_PER_RECORD f64 values for the set bits in
+//     ascending ordinal order, zero padded
+// The file is created at full size, so the first record with timestamp 0 marks the end
+// of the data after a crash. Sealed segments are truncated to their used length.
+final class HistorySegment {
+
+    static final int MAGIC = 0x31534856; // "VHS1"
+    static final int HEADER_SIZE = 24;
+    static final int VALUES_PER_RECORD = 8;
+    static final int RECORD_SIZE = 8 + 8 + VALUES_PER_RECORD * 8;
+    static final String SUFFIX = ".seg";
+
+    // Unsafe.invokeCleaner, to release a mapping before the file under it is truncated;
+    // a mapping left past the end of its file faults when touched, and Windows refuses
+    // the truncation outright. Null where the JDK does not offer it.
+    private static final MethodHandle UNMAP = unmapper();
+
+    private final Path path;
+    private final int port;
+    private final long createdMillis;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private boolean dirty;
+
+    private HistorySegment(Path path, int port, long createdMillis, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.port = port;
+        this.createdMillis = createdMillis;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    // Zero-padded so that file names sort by creation time.
+    static Path fileFor(Path vesselDirectory, long createdMillis) {
+        return vesselDirectory.resolve(String.format("%013d%s", createdMillis, SUFFIX));
+    }
+
+    static HistorySegment create(Path vesselDirectory, int port, long createdMillis, int size) throws IOException {
+        Files.createDirectories(vesselDirectory);
+        Path path = fileFor(vesselDirectory, createdMillis);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        int length = HEADER_SIZE + Math.max(1, (size - HEADER_SIZE) / RECORD_SIZE) * RECORD_SIZE;
+        MappedByteBuffer buffer = map(channel, length);
+        buffer.putInt(MAGIC).putInt(RECORD_SIZE).putInt(port).putInt(0).putLong(createdMillis);
+        return new HistorySegment(path, port, createdMillis, channel, buffer);
+    }
+
+    // Reopens a segment left unsealed by a crash and positions it after its last record.
+    // Returns null if the file is sealed, damaged or of another format.
+    static HistorySegment reopen(Path path, int port) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long length = channel.size();
+        if (length < HEADER_SIZE + RECORD_SIZE || (length - HEADER_SIZE) % RECORD_SIZE != 0) {
+            channel.close();
+            return null;
+        }
+        MappedByteBuffer buffer = map(channel, (int) length);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != RECORD_SIZE || buffer.getInt(8) != port) {
+            channel.close();
+            return null;
+        }
+        int position = HEADER_SIZE;
+        while (position < length && buffer.getLong(position) != 0) {
+            position += RECORD_SIZE;
+        }
+        if (position == length) {
+            // Full: treat as sealed.
+            channel.close();
+            return null;
+        }
+        buffer.position(position);
+        return new HistorySegment(path, port, buffer.getLong(16), channel, buffer);
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, int length) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    boolean hasRoom() {
+        return buffer.remaining() >= RECORD_SIZE;
+    }
+
+    long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    // Copies one record straight out of the ring slot.
+    void append(RecordRing ring, int slot) {
+        buffer.putLong(ring.timestamps[slot]);
+        buffer.putLong(ring.masks[slot]);
+        int offset = slot * VALUES_PER_RECORD;
+        for (int i = 0; i < VALUES_PER_RECORD; i++) {
+            buffer.putDouble(ring.values[offset + i]);
+        }
+        dirty = true;
+    }
+
+    void force() {
+        if (dirty) {
+            buffer.force();
+            dirty = false;
+        }
+    }
+
+    // Flushes, unmaps and truncates the file to the records actually written. If the
+    // mapping cannot be released the file keeps its zero-padded full length, which
+    // readers stop at just the same. The segment is not used afterwards.
+    void seal() throws IOException {
+        force();
+        int length = buffer.position();
+        try {
+            if (unmap()) {
+                channel.truncate(length);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private boolean unmap() {
+        if (UNMAP == null) {
+            return false;
+        }
+        try {
+            UNMAP.invokeExact((ByteBuffer) buffer);
+            return true;
+        } catch (Throwable e) {
+            System.err.println("❌ Cannot unmap history segment " + path + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static MethodHandle unmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field instance = unsafeClass.getDeclaredField("theUnsafe");
+            instance.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(instance.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("❌ Cannot unmap history segments, sealed ones keep their full size: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.sks.portsmanagement.history;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Bounded multi-producer, single-consumer hand-off of history records, preallocated as
+// primitive columns. Producers (receive threads) never wait: a full ring drops the
+// record. Each slot carries a sequence number that says whose turn it is, so producers
+// only contend on the head counter.
+final class RecordRing {
+
+    private final int capacity;
+    private final int indexMask;
+    private final AtomicLong head = new AtomicLong();
+    // Consumer only.
+    private long tail;
+    private final AtomicLongArray slotSequence;
+
+    final long[] timestamps;
+    final long[] masks;
+    final int[] ports;
+    final double[] values;
+
+    RecordRing(int requestedCapacity) {
+        int size = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+        this.capacity = size;
+        this.indexMask = size - 1;
+        this.slotSequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slotSequence.set(i, i);
+        }
+        this.timestamps = new long[size];
+        this.masks = new long[size];
+        this.ports = new int[size];
+        this.values = new double[size * HistorySegment.VALUES_PER_RECORD];
+    }
+
+    // Copies up to VALUES_PER_RECORD slots named by mask out of source. Returns false
+    // (and records nothing) when the ring is full.
+    boolean offer(int port, long timestamp, long mask, double[] source) {
+        long position;
+        int slot;
+        while (true) {
+            position = head.get();
+            slot = (int) (position & indexMask);
+            long sequence = slotSequence.get(slot);
+            if (sequence == position) {
+                if (head.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (sequence < position) {
+                return false;
+            }
+        }
+        timestamps[slot] = timestamp;
+        masks[slot] = mask;
+        ports[slot] = port;
+        int offset = slot * HistorySegment.VALUES_PER_RECORD;
+        int written = 0;
+        for (long remaining = mask; remaining != 0; remaining &= remaining - 1) {
+            values[offset + written++] = source[Long.numberOfTrailingZeros(remaining)];
+        }
+        while (written < HistorySegment.VALUES_PER_RECORD) {
+            values[offset + written++] = 0.0;
+        }
+        slotSequence.lazySet(slot, position + 1);
+        return true;
+    }
+
+    // Slot index of the next published record, or -1 if there is none yet.
+    int peek() {
+        int slot = (int) (tail & indexMask);
+        return slotSequence.get(slot) == tail + 1 ? slot : -1;
+    }
+
+    // Hands the slot returned by peek() back to the producers.
+    void release(int slot) {
+        slotSequence.lazySet(slot, tail + capacity);
+        tail++;
+    }
+}
@@ -0,0 +1,149 @@
+package org.sks.portsmanagement.history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Walks the records of one field through a vessel's segment files, reading each file in
+// blocks with positional reads. Plain reads rather than a mapping, because the writer
+// may truncate (seal) the segment it is appending to while we read it. The scan of a
+// file stops at the first record without a timestamp.
+final class SegmentCursor implements SeriesCursor {
+
+    private static final int RECORDS_PER_READ = 512;
+
+    private final List<Path> segments;
+    private final long fieldBit;
+    private final long from;
+    private final long to;
+    private final ByteBuffer block = ByteBuffer.allocate(RECORDS_PER_READ * HistorySegment.RECORD_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    private int segmentIndex = -1;
+    private FileChannel channel;
+    private long filePosition;
+    private long time;
+    private double value;
+
+    SegmentCursor(List<Path> segments, long fieldBit, long from, long to) {
+        this.segments = segments;
+        this.fieldBit = fieldBit;
+        this.from = from;
+        this.to = to;
+        block.limit(0);
+    }
+
+    @Override
+    public boolean next() {
+        while (true) {
+            if (block.remaining() < HistorySegment.RECORD_SIZE && !fill()) {
+                return false;
+            }
+            int record = block.position();
+            block.position(record + HistorySegment.RECORD_SIZE);
+            long recordTime = block.getLong(record);
+            if (recordTime == 0) {
+                closeSegment();
+                continue;
+            }
+            if (recordTime >= to) {
+                // Records are appended in time order, so nothing later can match.
+                segmentIndex = segments.size();
+                closeSegment();
+                return false;
+            }
+            long mask = block.getLong(record + 8);
+            if (recordTime < from || (mask & fieldBit) == 0) {
+                continue;
+            }
+            int slot = Long.bitCount(mask & (fieldBit - 1));
+            time = recordTime;
+            value = block.getDouble(record + 16 + slot * 8);
+            return true;
+        }
+    }
+
+    // Reads the next block of whole records, moving on to the next segment as needed.
+    private boolean fill() {
+        while (true) {
+            if (channel == null && !openNext()) {
+                return false;
+            }
+            try {
+                block.clear();
+                int read = 0;
+                while (block.hasRemaining()) {
+                    int n = channel.read(block, filePosition + read);
+                    if (n <= 0) {
+                        break;
+                    }
+                    read += n;
+                }
+                int whole = read - read % HistorySegment.RECORD_SIZE;
+                filePosition += whole;
+                block.position(0).limit(whole);
+                if (whole > 0) {
+                    return true;
+                }
+            } catch (IOException e) {
+                System.err.println("❌ Cannot read history segment " + segments.get(segmentIndex) + ": " + e.getMessage());
+            }
+            closeSegment();
+        }
+    }
+
+    private boolean openNext() {
+        while (++segmentIndex < segments.size()) {
+            Path path = segments.get(segmentIndex);
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+                ByteBuffer header = ByteBuffer.allocate(HistorySegment.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                if (channel.read(header, 0) == HistorySegment.HEADER_SIZE
+                        && header.getInt(0) == HistorySegment.MAGIC
+                        && header.getInt(4) == HistorySegment.RECORD_SIZE) {
+                    filePosition = HistorySegment.HEADER_SIZE;
+                    return true;
+                }
+            } catch (NoSuchFileException e) {
+                // Deleted by retention in the meantime.
+            } catch (IOException e) {
+                System.err.println("❌ Cannot read history segment " + path + ": " + e.getMessage());
+            }
+            closeSegment();
+        }
+        return false;
+    }
+
+    private void closeSegment() {
+        block.limit(0);
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Read-only; nothing to lose.
+            }
+            channel = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        segmentIndex = segments.size();
+        closeSegment();
+    }
+
+    @Override
+    public long time() {
+        return time;
+    }
+
+    @Override
+    public double value() {
+        return value;
+    }
+}
@@ -0,0 +1,69 @@
+package org.sks.portsmanagement.history;
+
+// Forward-only walk over one field's samples in time order, without boxing. Close it if
+// it is abandoned before next() returned false.
+public interface SeriesCursor extends AutoCloseable {
+
+    // Advances to the next sample; false when there are no more.
+    boolean next();
+
+    long time();
+
+    double value();
+
+    @Override
+    default void close() {
+    }
+
+    SeriesCursor EMPTY = new SeriesCursor() {
+        @Override
+        public boolean next() {
+            return false;
+        }
+
+        @Override
+        public long time() {
+            throw new IllegalStateException();
+        }
+
+        @Override
+        public double value() {
+            throw new IllegalStateException();
+        }
+    };
+
+    // The samples of first, then those of second.
+    static SeriesCursor concat(SeriesCursor first, SeriesCursor second) {
+        return new SeriesCursor() {
+            private SeriesCursor current = first;
+
+            @Override
+            public boolean next() {
+                if (current.next()) {
+                    return true;
+                }
+                if (current == first) {
+                    current = second;
+                    return current.next();
+                }
+                return false;
+            }
+
+            @Override
+            public long time() {
+                return current.time();
+            }
+
+            @Override
+            public double value() {
+                return current.value();
+            }
+
+            @Override
+            public void close() {
+                first.close();
+                second.close();
+            }
+        };
+    }
+}
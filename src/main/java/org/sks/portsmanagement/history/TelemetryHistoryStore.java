@@ -0,0 +1,358 @@
+package org.sks.portsmanagement.history;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.sks.portsmanagement.service.TelemetryField;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Append-only history of every vessel update, kept in memory-mapped segment files under
+// <history.dir>/<port>/. Receive threads hand records to a ring and return immediately;
+// one writer thread copies them into the current segment of each vessel, rolls segments
+// by size or age, flushes them periodically and deletes those past the retention period.
+// Segments left open by a crash are picked up again on restart. With history.cold
+// enabled the same records also go, compressed per field, into ColumnArchive files that
+// are kept much longer; range queries older than the oldest raw segment are served from
+// there.
+@Service
+public class TelemetryHistoryStore {
+
+    private static final long RETENTION_SWEEP_INTERVAL_MS = 60_000;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentSize;
+    private final long rollIntervalMillis;
+    private final long retentionMillis;
+    private final long flushIntervalMillis;
+    private final RecordRing ring;
+    private final ColumnArchive archive;
+    private final long archiveRetentionMillis;
+
+    // Writer thread only.
+    private final HistorySegment[] openSegments = new HistorySegment[65536];
+    private final List<HistorySegment> openList = new ArrayList<>();
+    private long lastFlush;
+    private long lastRetentionSweep;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private volatile boolean running;
+    private Thread writer;
+
+    public TelemetryHistoryStore(@Value("${history.enabled:false}") boolean enabled,
+                                 @Value("${history.dir:./data/history}") String directory,
+                                 @Value("${history.segment-size-mb:16}") int segmentSizeMb,
+                                 @Value("${history.roll-interval-ms:3600000}") long rollIntervalMillis,
+                                 @Value("${history.retention-hours:168}") long retentionHours,
+                                 @Value("${history.flush-interval-ms:1000}") long flushIntervalMillis,
+                                 @Value("${history.ring-capacity:65536}") int ringCapacity,
+                                 @Value("${history.cold.enabled:true}") boolean archiveEnabled,
+                                 @Value("${history.cold.block-samples:65536}") int blockSamples,
+                                 @Value("${history.cold.block-interval-ms:600000}") long blockIntervalMillis,
+                                 @Value("${history.cold.retention-days:365}") long archiveRetentionDays) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.segmentSize = Math.max(HistorySegment.HEADER_SIZE + HistorySegment.RECORD_SIZE, segmentSizeMb << 20);
+        this.rollIntervalMillis = rollIntervalMillis;
+        this.retentionMillis = TimeUnit.HOURS.toMillis(retentionHours);
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.ring = enabled ? new RecordRing(ringCapacity) : null;
+        this.archive = enabled && archiveEnabled
+                ? new ColumnArchive(this.directory, Math.max(1, blockSamples), blockIntervalMillis) : null;
+        this.archiveRetentionMillis = TimeUnit.DAYS.toMillis(archiveRetentionDays);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        writer = new Thread(this::runWriter, "history-writer");
+        writer.setDaemon(true);
+        writer.start();
+        System.out.println("✅ Telemetry history enabled in " + directory.toAbsolutePath());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // Called on the receive thread with the fields an update wrote (bit = TelemetryField
+    // ordinal) and the vessel's value slots. Never blocks and never allocates; when the
+    // writer falls behind the record is dropped and counted.
+    public void append(int port, long timestampMillis, long fieldMask, double[] values) {
+        if (!enabled || fieldMask == 0) {
+            return;
+        }
+        // A record holds a fixed number of values; wider updates are split.
+        long remaining = fieldMask;
+        while (remaining != 0) {
+            long chunk = 0;
+            for (int i = 0; i < HistorySegment.VALUES_PER_RECORD && remaining != 0; i++) {
+                long bit = Long.lowestOneBit(remaining);
+                chunk |= bit;
+                remaining &= ~bit;
+            }
+            if (!ring.offer(port, timestampMillis, chunk, values)) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    // Recorded samples of one field with from <= time < to, oldest first: from the
+    // archive for whatever predates the oldest raw segment, then from the segments.
+    // Safe to use from any thread; records still in the ring are not seen, nor are
+    // archive blocks not sealed yet.
+    public SeriesCursor cursor(int port, TelemetryField field, long from, long to) {
+        if (!enabled || from >= to) {
+            return SeriesCursor.EMPTY;
+        }
+        Path vesselDirectory = directory.resolve(Integer.toString(port));
+        List<Path> segments;
+        List<Path> archiveFiles;
+        try {
+            segments = listSegments(vesselDirectory);
+            archiveFiles = archive != null ? listFiles(vesselDirectory, ColumnBlock.SUFFIX) : List.of();
+        } catch (IOException e) {
+            System.err.println("❌ Cannot list history of port " + port + ": " + e.getMessage());
+            return SeriesCursor.EMPTY;
+        }
+        long rawStart = segments.isEmpty() ? Long.MAX_VALUE : createdMillis(segments.get(0));
+        SeriesCursor raw = new SegmentCursor(overlapping(segments, Math.max(from, rawStart), to),
+                1L << field.ordinal(), Math.max(from, rawStart), to);
+        if (from >= rawStart || archiveFiles.isEmpty()) {
+            return raw;
+        }
+        long archiveEnd = Math.min(to, rawStart);
+        SeriesCursor cold = new ColumnCursor(overlapping(archiveFiles, from, archiveEnd), field.ordinal(), from,
+                archiveEnd);
+        return SeriesCursor.concat(cold, raw);
+    }
+
+    // Files each covering the time from their name up to the next file's, that
+    // intersect [from, to).
+    private static List<Path> overlapping(List<Path> files, long from, long to) {
+        List<Path> overlapping = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            long start = createdMillis(files.get(i));
+            long end = i + 1 < files.size() ? createdMillis(files.get(i + 1)) : Long.MAX_VALUE;
+            if (start < to && end > from) {
+                overlapping.add(files.get(i));
+            }
+        }
+        return overlapping;
+    }
+
+    public long getDroppedRecords() {
+        return dropped.get();
+    }
+
+    public long getWrittenRecords() {
+        return written.get();
+    }
+
+    private void runWriter() {
+        while (running) {
+            int drained = drain();
+            long now = System.currentTimeMillis();
+            if (now - lastFlush >= flushIntervalMillis) {
+                maintain(now);
+                lastFlush = now;
+            }
+            if (drained == 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+        drain();
+        for (HistorySegment segment : openList) {
+            seal(segment);
+        }
+        openList.clear();
+        if (archive != null) {
+            archive.sealAll();
+        }
+    }
+
+    private int drain() {
+        int drained = 0;
+        int slot;
+        while ((slot = ring.peek()) >= 0) {
+            write(slot);
+            ring.release(slot);
+            drained++;
+        }
+        return drained;
+    }
+
+    private void write(int slot) {
+        int port = ring.ports[slot];
+        long timestamp = ring.timestamps[slot];
+        if (archive != null) {
+            archive.append(ring, slot);
+        }
+        HistorySegment segment = openSegments[port];
+        if (segment != null && (!segment.hasRoom() || timestamp - segment.getCreatedMillis() >= rollIntervalMillis)) {
+            roll(segment);
+            segment = null;
+        }
+        if (segment == null) {
+            segment = open(port, timestamp);
+            if (segment == null) {
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+        segment.append(ring, slot);
+        written.incrementAndGet();
+    }
+
+    // Resumes the vessel's newest segment if a crash left it open and it is still young
+    // enough, otherwise starts a new one.
+    private HistorySegment open(int port, long timestamp) {
+        Path vesselDirectory = directory.resolve(Integer.toString(port));
+        HistorySegment segment = null;
+        try {
+            Path newest = newestSegment(vesselDirectory);
+            if (newest != null) {
+                segment = HistorySegment.reopen(newest, port);
+                if (segment != null && timestamp - segment.getCreatedMillis() >= rollIntervalMillis) {
+                    seal(segment);
+                    segment = null;
+                }
+            }
+            if (segment == null) {
+                long created = timestamp;
+                while (Files.exists(HistorySegment.fileFor(vesselDirectory, created))) {
+                    created++;
+                }
+                segment = HistorySegment.create(vesselDirectory, port, created, segmentSize);
+            }
+        } catch (IOException e) {
+            System.err.println("❌ Cannot open history segment for port " + port + ": " + e.getMessage());
+            return null;
+        }
+        openSegments[port] = segment;
+        openList.add(segment);
+        return segment;
+    }
+
+    private void roll(HistorySegment segment) {
+        seal(segment);
+        openSegments[segment.getPort()] = null;
+        openList.remove(segment);
+    }
+
+    private void seal(HistorySegment segment) {
+        try {
+            segment.seal();
+        } catch (IOException e) {
+            System.err.println("❌ Cannot seal history segment " + segment.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    // Flushes open segments, seals those that aged out without new records and
+    // applies retention.
+    private void maintain(long now) {
+        for (HistorySegment segment : new ArrayList<>(openList)) {
+            if (now - segment.getCreatedMillis() >= rollIntervalMillis) {
+                roll(segment);
+            } else {
+                segment.force();
+            }
+        }
+        if (archive != null) {
+            archive.maintain(now);
+        }
+        if (now - lastRetentionSweep >= RETENTION_SWEEP_INTERVAL_MS) {
+            lastRetentionSweep = now;
+            deleteExpired(now);
+        }
+    }
+
+    // A sealed segment expires once everything in it is older than the retention
+    // period, i.e. once the segment that follows it was created before the cutoff.
+    private void deleteExpired(long now) {
+        if (!Files.isDirectory(directory)) {
+            // Nothing recorded yet.
+            return;
+        }
+        long cutoff = now - retentionMillis;
+        try (DirectoryStream<Path> vessels = Files.newDirectoryStream(directory)) {
+            for (Path vesselDirectory : vessels) {
+                List<Path> segments = listSegments(vesselDirectory);
+                for (int i = 0; i + 1 < segments.size(); i++) {
+                    if (createdMillis(segments.get(i + 1)) < cutoff) {
+                        Files.deleteIfExists(segments.get(i));
+                    }
+                }
+            }
+            if (archive != null) {
+                archive.deleteExpired(now - archiveRetentionMillis);
+            }
+        } catch (IOException e) {
+            System.err.println("❌ History retention sweep failed: " + e.getMessage());
+        }
+    }
+
+    private static Path newestSegment(Path vesselDirectory) throws IOException {
+        List<Path> segments = listSegments(vesselDirectory);
+        return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    }
+
+    // Segment files of one vessel, oldest first.
+    static List<Path> listSegments(Path vesselDirectory) throws IOException {
+        return listFiles(vesselDirectory, HistorySegment.SUFFIX);
+    }
+
+    // Files of one vessel with the given suffix, oldest first.
+    static List<Path> listFiles(Path vesselDirectory, String suffix) throws IOException {
+        List<Path> found = new ArrayList<>();
+        if (!Files.isDirectory(vesselDirectory)) {
+            return found;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(vesselDirectory, "*" + suffix)) {
+            for (Path file : files) {
+                found.add(file);
+            }
+        }
+        found.sort(null);
+        return found;
+    }
+
+    // Start time encoded in a segment or archive file name.
+    static long createdMillis(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.indexOf('.')));
+    }
+}
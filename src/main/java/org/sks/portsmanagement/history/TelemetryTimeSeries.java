@@ -0,0 +1,194 @@
+package org.sks.portsmanagement.history;
+
+import org.sks.portsmanagement.service.TelemetryField;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Recent samples of every numeric field of every vessel, in per-field rings of
+// primitive arrays. Rings start small and grow up to history.memory.max-samples; samples
+// older than history.memory.window-ms are not returned. Older ranges are read from the
+// on-disk segments of TelemetryHistoryStore when that is enabled.
+@Service
+public class TelemetryTimeSeries {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final long windowMillis;
+    private final int maxSamples;
+    private final TelemetryHistoryStore historyStore;
+    private final AtomicReferenceArray<VesselSeries> vessels = new AtomicReferenceArray<>(65536);
+
+    public TelemetryTimeSeries(@Value("${history.memory.window-ms:900000}") long windowMillis,
+                               @Value("${history.memory.max-samples:9000}") int maxSamples,
+                               TelemetryHistoryStore historyStore) {
+        this.windowMillis = windowMillis;
+        this.maxSamples = Integer.highestOneBit(Math.max(INITIAL_CAPACITY, maxSamples) - 1) << 1;
+        this.historyStore = historyStore;
+    }
+
+    // Ring of one field. Guarded by the owning VesselSeries.
+    private static final class FieldRing {
+        long[] times = new long[INITIAL_CAPACITY];
+        double[] values = new double[INITIAL_CAPACITY];
+        // Total samples ever written; the newest is at (count - 1) & (capacity - 1).
+        long count;
+
+        void add(long time, double value, int maxSamples) {
+            int capacity = times.length;
+            if (count == capacity && capacity < maxSamples) {
+                times = Arrays.copyOf(times, capacity * 2);
+                values = Arrays.copyOf(values, capacity * 2);
+                capacity *= 2;
+            }
+            int index = (int) (count & (capacity - 1));
+            times[index] = time;
+            values[index] = value;
+            count++;
+        }
+
+        int size() {
+            return (int) Math.min(count, times.length);
+        }
+
+        int physical(int logical) {
+            long first = count - size();
+            return (int) ((first + logical) & (times.length - 1));
+        }
+    }
+
+    private static final class VesselSeries {
+        final FieldRing[] fields = new FieldRing[TelemetryField.COUNT];
+    }
+
+    // Called on the receive thread inside the vessel's write section.
+    public void record(int port, long timestampMillis, long fieldMask, double[] values) {
+        if (fieldMask == 0) {
+            return;
+        }
+        VesselSeries vessel = vessels.get(port);
+        if (vessel == null) {
+            vessels.compareAndSet(port, null, new VesselSeries());
+            vessel = vessels.get(port);
+        }
+        synchronized (vessel) {
+            for (long remaining = fieldMask; remaining != 0; remaining &= remaining - 1) {
+                int ordinal = Long.numberOfTrailingZeros(remaining);
+                FieldRing ring = vessel.fields[ordinal];
+                if (ring == null) {
+                    ring = vessel.fields[ordinal] = new FieldRing();
+                }
+                ring.add(timestampMillis, values[ordinal], maxSamples);
+            }
+        }
+    }
+
+    // Samples of one field with from <= time < to, oldest first: from the segment files
+    // for whatever predates the memory ring, then from the ring.
+    public SeriesCursor cursor(int port, TelemetryField field, long from, long to) {
+        long oldestAllowed = System.currentTimeMillis() - windowMillis;
+        SeriesCursor memory = SeriesCursor.EMPTY;
+        long memoryStart = Long.MAX_VALUE;
+
+        VesselSeries vessel = vessels.get(port);
+        if (vessel != null) {
+            synchronized (vessel) {
+                FieldRing ring = vessel.fields[field.ordinal()];
+                if (ring != null && ring.size() > 0) {
+                    memoryStart = Math.max(ring.times[ring.physical(0)], oldestAllowed);
+                    memory = new RingCursor(vessel, field.ordinal(), ring.count - ring.size(), ring.count,
+                            Math.max(from, oldestAllowed), to);
+                }
+            }
+        }
+
+        if (from >= memoryStart || !historyStore.isEnabled()) {
+            return memory;
+        }
+        return SeriesCursor.concat(historyStore.cursor(port, field, from, Math.min(to, memoryStart)), memory);
+    }
+
+    // Copies the ring out a chunk at a time as it advances, taking the vessel's lock only
+    // for each copy, so a query never holds more than CHUNK samples and the receive
+    // thread is never held up by a slow reader. Samples are numbered like
+    // FieldRing.count; those written after the cursor was created are left out, and if
+    // the writer laps the cursor it resumes at the oldest sample still held.
+    private static final class RingCursor implements SeriesCursor {
+
+        private static final int CHUNK = 512;
+
+        private final VesselSeries vessel;
+        private final int ordinal;
+        private final long endSample;
+        private final long from;
+        private final long to;
+        private final long[] times = new long[CHUNK];
+        private final double[] values = new double[CHUNK];
+        private long nextSample;
+        private int size;
+        private int index = -1;
+        private boolean finished;
+
+        RingCursor(VesselSeries vessel, int ordinal, long firstSample, long endSample, long from, long to) {
+            this.vessel = vessel;
+            this.ordinal = ordinal;
+            this.nextSample = firstSample;
+            this.endSample = endSample;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean next() {
+            while (!finished) {
+                if (++index >= size && !fill()) {
+                    finished = true;
+                    return false;
+                }
+                long time = times[index];
+                if (time >= to) {
+                    finished = true;
+                    return false;
+                }
+                if (time >= from) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean fill() {
+            synchronized (vessel) {
+                FieldRing ring = vessel.fields[ordinal];
+                nextSample = Math.max(nextSample, ring.count - ring.size());
+                size = (int) Math.min(CHUNK, endSample - nextSample);
+                int mask = ring.times.length - 1;
+                for (int i = 0; i < size; i++) {
+                    int physical = (int) ((nextSample + i) & mask);
+                    times[i] = ring.times[physical];
+                    values[i] = ring.values[physical];
+                }
+            }
+            nextSample += Math.max(size, 0);
+            index = 0;
+            return size > 0;
+        }
+
+        @Override
+        public void close() {
+            finished = true;
+        }
+
+        @Override
+        public long time() {
+            return times[index];
+        }
+
+        @Override
+        public double value() {
+            return values[index];
+        }
+    }
+}
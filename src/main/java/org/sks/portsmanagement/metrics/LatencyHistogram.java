@@ -0,0 +1,128 @@
+package org.sks.portsmanagement.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear latency histogram in nanoseconds, in the spirit of HdrHistogram: every
+// power of two is split into 32 linear sub-buckets, so any recorded value is known to
+// within about 3% from 1 ns up to ~18 minutes. Bucket counts live in preallocated
+// arrays, one stripe per group of threads, so recording is a few atomic adds and
+// never allocates.
+//
+// Quantiles are taken over a window: the first read after window-ms copies the
+// cumulative counts and keeps the difference to the previous copy, so scrapes see the
+// recent distribution rather than everything since startup.
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final int stripeMask;
+    private final AtomicLongArray counts;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final long windowNanos;
+
+    // Guarded by this.
+    private final long[] previous = new long[BUCKETS];
+    private final long[] window = new long[BUCKETS];
+    private long windowCount;
+    private long windowMax;
+    private long windowTakenAt;
+
+    public LatencyHistogram(long windowMillis) {
+        int stripes = Integer.highestOneBit(Math.min(8, Math.max(1, Runtime.getRuntime().availableProcessors())));
+        this.stripeMask = stripes - 1;
+        this.counts = new AtomicLongArray(stripes * BUCKETS);
+        this.windowNanos = Math.max(1, windowMillis) * 1_000_000L;
+        this.windowTakenAt = System.nanoTime() - this.windowNanos;
+    }
+
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        int stripe = (int) Thread.currentThread().getId() & stripeMask;
+        counts.incrementAndGet(stripe * BUCKETS + bucketOf(value));
+        count.increment();
+        totalNanos.add(value);
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    // Midpoint of the values that fall into the bucket.
+    static double valueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return low + ((1L << shift) - 1) / 2.0;
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long totalNanos() {
+        return totalNanos.sum();
+    }
+
+    // Largest value recorded in the current window, in nanoseconds.
+    public synchronized double windowMax() {
+        advanceWindow();
+        return windowMax;
+    }
+
+    // Value at quantile q (0..1) over the current window in nanoseconds; NaN when the
+    // window is empty.
+    public synchronized double quantile(double q) {
+        advanceWindow();
+        if (windowCount == 0) {
+            return Double.NaN;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * windowCount));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += window[bucket];
+            if (seen >= rank) {
+                return Math.min(valueOf(bucket), windowMax);
+            }
+        }
+        return windowMax;
+    }
+
+    private void advanceWindow() {
+        long now = System.nanoTime();
+        if (now - windowTakenAt < windowNanos) {
+            return;
+        }
+        windowTakenAt = now;
+        windowCount = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            long total = 0;
+            for (int stripe = 0; stripe <= stripeMask; stripe++) {
+                total += counts.get(stripe * BUCKETS + bucket);
+            }
+            window[bucket] = total - previous[bucket];
+            previous[bucket] = total;
+            windowCount += window[bucket];
+        }
+        // The max restarts with every window; a value racing the reset may be missed.
+        windowMax = maxNanos.getAndSet(0);
+    }
+}
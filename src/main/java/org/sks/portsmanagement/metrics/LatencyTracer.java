@@ -0,0 +1,148 @@
+package org.sks.portsmanagement.metrics;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Sampled end-to-end traces of single MAVLink messages: when the datagram arrived,
+// when the vessel state it updated was complete, when a push first serialized that
+// state and when the first resulting frame was written to a WebSocket. One message in
+// sample-every is traced (0 turns tracing off); the last capacity traces are kept in a
+// preallocated ring and dumped on demand through /api/traces.
+//
+// A trace is identified by a sequence number; its slot is reused once the ring wraps,
+// so stamps for an overwritten trace are ignored.
+@Component
+public class LatencyTracer {
+
+    private static final int RECEIVED = 0;
+    private static final int RECEIVED_WALL = 1;
+    private static final int STATE = 2;
+    private static final int SERIALIZED = 3;
+    private static final int WRITTEN = 4;
+    private static final int PORT = 5;
+    private static final int STRIDE = 6;
+
+    private final int capacity;
+    private final AtomicLongArray ids;
+    private final AtomicLongArray stamps;
+    private final AtomicReferenceArray<Class<?>> types;
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile int sampleEvery;
+
+    public LatencyTracer(@Value("${trace.sample-every:0}") int sampleEvery,
+                         @Value("${trace.capacity:1024}") int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.ids = new AtomicLongArray(this.capacity);
+        this.stamps = new AtomicLongArray(this.capacity * STRIDE);
+        this.types = new AtomicReferenceArray<>(this.capacity);
+        setSampleEvery(sampleEvery);
+    }
+
+    public int getSampleEvery() {
+        return sampleEvery;
+    }
+
+    public void setSampleEvery(int sampleEvery) {
+        this.sampleEvery = Math.max(0, sampleEvery);
+    }
+
+    // Receive path: decides whether to trace this message and returns the trace id, or
+    // -1. Unsampled messages cost a volatile read and a thread-local random number.
+    public long sample(int port, Class<?> type, long receivedNanos) {
+        int every = sampleEvery;
+        if (every == 0 || (every > 1 && ThreadLocalRandom.current().nextInt(every) != 0)) {
+            return -1;
+        }
+        long id = sequence.incrementAndGet();
+        int slot = (int) (id % capacity);
+        ids.set(slot, id);
+        int base = slot * STRIDE;
+        stamps.set(base + RECEIVED, receivedNanos);
+        stamps.set(base + RECEIVED_WALL,
+                System.currentTimeMillis() - (System.nanoTime() - receivedNanos) / 1_000_000L);
+        stamps.set(base + STATE, 0);
+        stamps.set(base + SERIALIZED, 0);
+        stamps.set(base + WRITTEN, 0);
+        stamps.set(base + PORT, port);
+        types.set(slot, type);
+        return id;
+    }
+
+    public void stateUpdated(long id, long nanos) {
+        stamp(id, STATE, nanos);
+    }
+
+    public void serialized(long id, long nanos) {
+        stamp(id, SERIALIZED, nanos);
+    }
+
+    // True while the trace still waits for its first socket write.
+    public boolean awaitsWrite(long id) {
+        if (id <= 0) {
+            return false;
+        }
+        int slot = (int) (id % capacity);
+        return ids.get(slot) == id && stamps.get(slot * STRIDE + WRITTEN) == 0;
+    }
+
+    public void written(long[] traceIds, long nanos) {
+        for (long id : traceIds) {
+            stamp(id, WRITTEN, nanos);
+        }
+    }
+
+    // Only the first stamp of a stage counts.
+    private boolean stamp(long id, int stage, long nanos) {
+        if (id <= 0) {
+            return false;
+        }
+        int slot = (int) (id % capacity);
+        return ids.get(slot) == id && stamps.compareAndSet(slot * STRIDE + stage, 0, nanos);
+    }
+
+    // Most recent traces first. Stage durations are in microseconds and null while a
+    // stage has not happened yet, or never will: no dashboard was connected, or a newer
+    // trace of the same vessel took over before a frame was written.
+    public List<Map<String, Object>> dump(int limit) {
+        List<Map<String, Object>> traces = new ArrayList<>();
+        long last = sequence.get();
+        for (long id = last; id > 0 && id > last - capacity && traces.size() < limit; id--) {
+            int slot = (int) (id % capacity);
+            int base = slot * STRIDE;
+            long received = stamps.get(base + RECEIVED);
+            long receivedWall = stamps.get(base + RECEIVED_WALL);
+            long state = stamps.get(base + STATE);
+            long serialized = stamps.get(base + SERIALIZED);
+            long written = stamps.get(base + WRITTEN);
+            int port = (int) stamps.get(base + PORT);
+            Class<?> type = types.get(slot);
+            if (ids.get(slot) != id) {
+                continue;
+            }
+            Map<String, Object> trace = new LinkedHashMap<>();
+            trace.put("id", id);
+            trace.put("port", port);
+            trace.put("message", type != null ? type.getSimpleName() : null);
+            trace.put("received_at", receivedWall);
+            trace.put("receive_to_state_us", micros(received, state));
+            trace.put("state_to_serialize_us", micros(state, serialized));
+            trace.put("serialize_to_write_us", micros(serialized, written));
+            trace.put("total_us", micros(received, written));
+            traces.add(trace);
+        }
+        return traces;
+    }
+
+    private static Double micros(long from, long to) {
+        return from != 0 && to != 0 ? (to - from) / 1000.0 : null;
+    }
+}
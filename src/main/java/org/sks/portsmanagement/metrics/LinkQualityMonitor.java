@@ -0,0 +1,136 @@
+package org.sks.portsmanagement.metrics;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Per-link (port, MAVLink system id) loss, jitter and heartbeat cadence, so a degraded
+// radio link can be told apart from a busy server (whose drops show up in the
+// mavlink.pipeline.dropped and decode counters instead).
+//
+// Receive threads record every frame header in its LinkStats (see there). Every
+// sample-interval-ms the sampler rolls the counts into statistics over the last
+// window-ms, which are published as link.* meters tagged with port and system_id,
+// through /api/links and, for links heard within report-timeout-ms, once a second on
+// the /telemetry WebSocket (see TelemetryService).
+@Component
+public class LinkQualityMonitor {
+
+    // The links of one port, indexed by system id; handed to the port's receivers so the
+    // per-frame lookup is one array read.
+    public final class PortLinks {
+        private final int port;
+        private final AtomicReferenceArray<LinkStats> links = new AtomicReferenceArray<>(256);
+
+        private PortLinks(int port) {
+            this.port = port;
+        }
+
+        public LinkStats link(int systemId) {
+            LinkStats link = links.get(systemId);
+            return link != null ? link : createLink(this, systemId);
+        }
+    }
+
+    private final TelemetryMetrics metrics;
+    private final long resyncNanos;
+    private final long heartbeatNanos;
+    private final int windowSamples;
+    private final long reportTimeoutNanos;
+    private final AtomicReferenceArray<PortLinks> ports = new AtomicReferenceArray<>(65536);
+    private final List<LinkStats> all = new CopyOnWriteArrayList<>();
+
+    public LinkQualityMonitor(TelemetryMetrics metrics,
+                              @Value("${link.window-ms:10000}") long windowMillis,
+                              @Value("${link.sample-interval-ms:1000}") long sampleIntervalMillis,
+                              @Value("${link.resync-ms:5000}") long resyncMillis,
+                              @Value("${link.heartbeat-interval-ms:1000}") long heartbeatMillis,
+                              @Value("${link.report-timeout-ms:60000}") long reportTimeoutMillis) {
+        if (sampleIntervalMillis <= 0 || windowMillis < sampleIntervalMillis) {
+            throw new IllegalArgumentException("link.window-ms must be at least link.sample-interval-ms (> 0)");
+        }
+        this.metrics = metrics;
+        this.resyncNanos = TimeUnit.MILLISECONDS.toNanos(resyncMillis);
+        this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, heartbeatMillis));
+        this.windowSamples = (int) Math.ceil((double) windowMillis / sampleIntervalMillis);
+        this.reportTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(reportTimeoutMillis);
+    }
+
+    // Links of a port, created on first use.
+    public PortLinks port(int port) {
+        PortLinks links = ports.get(port);
+        if (links == null) {
+            ports.compareAndSet(port, null, new PortLinks(port));
+            links = ports.get(port);
+        }
+        return links;
+    }
+
+    private synchronized LinkStats createLink(PortLinks links, int systemId) {
+        LinkStats link = links.links.get(systemId);
+        if (link != null) {
+            return link;
+        }
+        link = new LinkStats(links.port, systemId, resyncNanos, heartbeatNanos, windowSamples);
+        String[] tags = {"port", Integer.toString(links.port), "system_id", Integer.toString(systemId)};
+        metrics.counter("link.frames.missing", "Frames missing from the sequence when a later one arrived",
+                link.totals[LinkStats.MISSING], tags);
+        metrics.counter("link.frames.late", "Out-of-order frames, arrived after a later one", link.totals[LinkStats.LATE],
+                tags);
+        metrics.counter("link.frames.duplicate", "Frames received twice", link.totals[LinkStats.DUPLICATES], tags);
+        metrics.counter("link.heartbeats.missed", "HEARTBEATs missing from the expected cadence",
+                link.totals[LinkStats.MISSED_HEARTBEATS], tags);
+        metrics.gauge("link.loss.ratio", "Share of frames lost over the last window", link, LinkStats::getLossRatio,
+                tags);
+        metrics.gauge("link.jitter", "Standard deviation of datagram inter-arrival times over the last window, seconds",
+                link, l -> l.getJitterMillis() / 1000, tags);
+        metrics.gauge("link.heartbeat.interval", "Mean HEARTBEAT interval over the last window, seconds", link,
+                l -> l.getHeartbeatIntervalMillis() / 1000, tags);
+        metrics.gauge("link.heartbeat.age", "Seconds since the last HEARTBEAT", link, l -> {
+            double age = l.lastHeartbeatAgeMillis(System.nanoTime());
+            return age < 0 ? Double.NaN : age / 1000;
+        }, tags);
+        links.links.set(systemId, link);
+        all.add(link);
+        return link;
+    }
+
+    @Scheduled(fixedRateString = "${link.sample-interval-ms:1000}")
+    public void sample() {
+        for (LinkStats link : all) {
+            link.sample();
+        }
+    }
+
+    // Links heard within report-timeout-ms, for the telemetry stream.
+    public List<Map<String, Object>> getReport() {
+        return links(reportTimeoutNanos);
+    }
+
+    // Every link heard so far.
+    public List<Map<String, Object>> getLinks() {
+        return links(Long.MAX_VALUE);
+    }
+
+    private List<Map<String, Object>> links(long maxAgeNanos) {
+        long now = System.nanoTime();
+        List<LinkStats> sorted = new ArrayList<>(all);
+        sorted.sort(Comparator.comparingInt(LinkStats::getPort).thenComparingInt(LinkStats::getSystemId));
+        List<Map<String, Object>> links = new ArrayList<>();
+        for (LinkStats link : sorted) {
+            double age = link.lastFrameAgeMillis(now);
+            if (age >= 0 && age * 1e6 <= maxAgeNanos) {
+                links.add(link.toMap(now));
+            }
+        }
+        return links;
+    }
+}
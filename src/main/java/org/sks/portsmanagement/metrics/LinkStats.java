@@ -0,0 +1,250 @@
+package org.sks.portsmanagement.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Radio link quality of one MAVLink system on one UDP port, from the frame headers.
+//
+// Every MAVLink component numbers its frames 0-255; a step of more than one is that
+// many missing frames, a step back (within half the range) a late, out-of-order frame
+// that had been counted missing, and a repeat a duplicate. Inter-arrival times are
+// measured between datagrams, and HEARTBEAT cadence on the first component heard
+// sending heartbeats (normally the autopilot).
+//
+// frame() runs on the receive threads, several at once when a port has more than one
+// socket, so everything it touches is an atomic or a LongAdder. The cumulative counts
+// are turned into rolling statistics over the last window by LinkQualityMonitor's
+// sampler, which alone writes the window fields.
+public final class LinkStats {
+
+    static final int RECEIVED = 0;
+    static final int MISSING = 1;
+    static final int LATE = 2;
+    static final int DUPLICATES = 3;
+    static final int INTERVALS = 4;
+    static final int INTERVAL_MICROS = 5;
+    static final int INTERVAL_MICROS_SQUARED = 6;
+    static final int HEARTBEATS = 7;
+    static final int HEARTBEAT_MICROS = 8;
+    static final int HEARTBEAT_MICROS_SQUARED = 9;
+    static final int MISSED_HEARTBEATS = 10;
+    static final int TOTALS = 11;
+    // Not a total: the largest heartbeat gap since the previous sample.
+    private static final int MAX_HEARTBEAT_GAP = TOTALS;
+
+    private static final int HEARTBEAT_ID = 0;
+
+    private final int port;
+    private final int systemId;
+    private final long resyncNanos;
+    private final long heartbeatNanos;
+    // Per component id: last sequence number + 1 (0 before its first frame) and when
+    // its last frame arrived. Components fall silent independently (a camera switched
+    // off, a whole link lost), so each one restarts its sequence after its own silence.
+    private final AtomicLongArray sequences = new AtomicLongArray(256);
+    private final AtomicLongArray componentArrivalNanos = new AtomicLongArray(256);
+    private final AtomicLong lastArrivalNanos = new AtomicLong();
+    private final AtomicInteger heartbeatComponent = new AtomicInteger(-1);
+    private final AtomicLong lastHeartbeatNanos = new AtomicLong();
+    private final AtomicLong maxHeartbeatGapNanos = new AtomicLong();
+    final LongAdder[] totals = new LongAdder[TOTALS];
+
+    // Sampler only: a ring of the totals at the last window-samples + 1 samples.
+    private final long[][] samples;
+    private int next;
+    private int held;
+
+    // Rolling statistics over the last window, written by the sampler.
+    private volatile double lossRatio;
+    private volatile double frameRate;
+    private volatile double jitterMillis;
+    private volatile double heartbeatIntervalMillis;
+    private volatile double heartbeatJitterMillis;
+    private volatile double maxHeartbeatGapMillis;
+    private volatile long windowMissedHeartbeats;
+
+    LinkStats(int port, int systemId, long resyncNanos, long heartbeatNanos, int windowSamples) {
+        this.port = port;
+        this.systemId = systemId;
+        this.resyncNanos = resyncNanos;
+        this.heartbeatNanos = heartbeatNanos;
+        for (int i = 0; i < TOTALS; i++) {
+            totals[i] = new LongAdder();
+        }
+        this.samples = new long[windowSamples + 1][TOTALS + 1];
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getSystemId() {
+        return systemId;
+    }
+
+    // Receive path, for every frame passed on or filtered, in arrival order.
+    public void frame(int componentId, int sequence, int messageId, long receivedNanos) {
+        long previousArrival = lastArrivalNanos.getAndAccumulate(receivedNanos, Math::max);
+        if (previousArrival != 0 && receivedNanos > previousArrival
+                && receivedNanos - previousArrival <= resyncNanos) {
+            // Frames of one datagram share its arrival time; only the first counts, and
+            // a silence is an outage rather than jitter.
+            long micros = (receivedNanos - previousArrival) / 1000;
+            totals[INTERVALS].increment();
+            totals[INTERVAL_MICROS].add(micros);
+            totals[INTERVAL_MICROS_SQUARED].add(micros * micros);
+        }
+        long previousComponentArrival = componentArrivalNanos.getAndAccumulate(componentId, receivedNanos, Math::max);
+        boolean resync = previousComponentArrival == 0 || receivedNanos - previousComponentArrival > resyncNanos;
+        if (sequence(componentId, sequence, resync)) {
+            totals[RECEIVED].increment();
+        }
+        if (messageId == HEARTBEAT_ID) {
+            heartbeat(componentId, receivedNanos);
+        }
+    }
+
+    // False for a duplicate.
+    private boolean sequence(int componentId, int sequence, boolean resync) {
+        while (true) {
+            long previous = sequences.get(componentId);
+            if (previous == 0 || resync) {
+                sequences.set(componentId, sequence + 1);
+                return true;
+            }
+            int step = (sequence - (int) (previous - 1)) & 0xFF;
+            if (step == 0) {
+                totals[DUPLICATES].increment();
+                return false;
+            }
+            if (step >= 128) {
+                totals[LATE].increment();
+                return true;
+            }
+            if (sequences.compareAndSet(componentId, previous, sequence + 1)) {
+                totals[MISSING].add(step - 1);
+                return true;
+            }
+        }
+    }
+
+    private void heartbeat(int componentId, long receivedNanos) {
+        if (heartbeatComponent.get() < 0) {
+            heartbeatComponent.compareAndSet(-1, componentId);
+        }
+        if (heartbeatComponent.get() != componentId) {
+            return;
+        }
+        long previous = lastHeartbeatNanos.getAndAccumulate(receivedNanos, Math::max);
+        if (previous == 0 || receivedNanos <= previous) {
+            return;
+        }
+        long gap = receivedNanos - previous;
+        if (gap <= resyncNanos) {
+            // As in frame(), a silence is an outage rather than jitter: it shows as the
+            // largest gap and as missed heartbeats, but stays out of the interval sums,
+            // whose squares would overflow.
+            long micros = gap / 1000;
+            totals[HEARTBEATS].increment();
+            totals[HEARTBEAT_MICROS].add(micros);
+            totals[HEARTBEAT_MICROS_SQUARED].add(micros * micros);
+        }
+        maxHeartbeatGapNanos.accumulateAndGet(gap, Math::max);
+        long missed = Math.round((double) gap / heartbeatNanos) - 1;
+        if (missed > 0) {
+            totals[MISSED_HEARTBEATS].add(missed);
+        }
+    }
+
+    // Sampler only: records the current totals and recomputes the window statistics
+    // from the difference to the oldest sample kept.
+    void sample() {
+        long[] current = samples[next];
+        for (int i = 0; i < TOTALS; i++) {
+            current[i] = totals[i].sum();
+        }
+        current[MAX_HEARTBEAT_GAP] = maxHeartbeatGapNanos.getAndSet(0);
+        held = Math.min(held + 1, samples.length);
+        long[] oldest = samples[(next - held + 1 + samples.length) % samples.length];
+        long maxGap = 0;
+        for (int i = 0; i < held - 1; i++) {
+            maxGap = Math.max(maxGap, samples[(next - i + samples.length) % samples.length][MAX_HEARTBEAT_GAP]);
+        }
+        next = (next + 1) % samples.length;
+
+        long received = current[RECEIVED] - oldest[RECEIVED];
+        long lost = Math.max(0, (current[MISSING] - oldest[MISSING]) - (current[LATE] - oldest[LATE]));
+        lossRatio = received + lost > 0 ? (double) lost / (received + lost) : 0;
+        long intervals = current[INTERVALS] - oldest[INTERVALS];
+        long intervalMicros = current[INTERVAL_MICROS] - oldest[INTERVAL_MICROS];
+        frameRate = intervalMicros > 0 ? received * 1e6 / intervalMicros : 0;
+        jitterMillis = standardDeviation(intervals, intervalMicros,
+                current[INTERVAL_MICROS_SQUARED] - oldest[INTERVAL_MICROS_SQUARED]) / 1000;
+        long heartbeats = current[HEARTBEATS] - oldest[HEARTBEATS];
+        long heartbeatMicros = current[HEARTBEAT_MICROS] - oldest[HEARTBEAT_MICROS];
+        heartbeatIntervalMillis = heartbeats > 0 ? heartbeatMicros / 1000.0 / heartbeats : 0;
+        heartbeatJitterMillis = standardDeviation(heartbeats, heartbeatMicros,
+                current[HEARTBEAT_MICROS_SQUARED] - oldest[HEARTBEAT_MICROS_SQUARED]) / 1000;
+        windowMissedHeartbeats = current[MISSED_HEARTBEATS] - oldest[MISSED_HEARTBEATS];
+        maxHeartbeatGapMillis = maxGap / 1e6;
+    }
+
+    private static double standardDeviation(long count, long sum, long sumOfSquares) {
+        if (count < 2) {
+            return 0;
+        }
+        double mean = (double) sum / count;
+        return Math.sqrt(Math.max(0, (double) sumOfSquares / count - mean * mean));
+    }
+
+    public double getLossRatio() {
+        return lossRatio;
+    }
+
+    public double getJitterMillis() {
+        return jitterMillis;
+    }
+
+    public double getHeartbeatIntervalMillis() {
+        return heartbeatIntervalMillis;
+    }
+
+    // Milliseconds since the last frame and the last heartbeat; -1 if none yet.
+    public double lastFrameAgeMillis(long nowNanos) {
+        long last = lastArrivalNanos.get();
+        return last == 0 ? -1 : Math.max(0, nowNanos - last) / 1e6;
+    }
+
+    public double lastHeartbeatAgeMillis(long nowNanos) {
+        long last = lastHeartbeatNanos.get();
+        return last == 0 ? -1 : Math.max(0, nowNanos - last) / 1e6;
+    }
+
+    public Map<String, Object> toMap(long nowNanos) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("port", port);
+        map.put("system_id", systemId);
+        map.put("loss_percent", round2(lossRatio * 100));
+        map.put("rate_hz", round2(frameRate));
+        map.put("jitter_ms", round2(jitterMillis));
+        map.put("heartbeat_interval_ms", round2(heartbeatIntervalMillis));
+        map.put("heartbeat_jitter_ms", round2(heartbeatJitterMillis));
+        map.put("heartbeat_max_gap_ms", round2(maxHeartbeatGapMillis));
+        map.put("missed_heartbeats", windowMissedHeartbeats);
+        map.put("last_frame_age_ms", round2(lastFrameAgeMillis(nowNanos)));
+        map.put("last_heartbeat_age_ms", round2(lastHeartbeatAgeMillis(nowNanos)));
+        map.put("frames", totals[RECEIVED].sum());
+        map.put("missing", totals[MISSING].sum());
+        map.put("late", totals[LATE].sum());
+        map.put("duplicates", totals[DUPLICATES].sum());
+        return map;
+    }
+
+    private static double round2(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+}
@@ -0,0 +1,244 @@
+package org.sks.portsmanagement.metrics;
+
+import io.dronefleet.mavlink.annotations.MavlinkMessageInfo;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+// Counters and latency histograms for the ingest, processing and broadcast paths,
+// published to Micrometer (and so /actuator/metrics and /actuator/prometheus).
+//
+// The hot paths only touch LongAdders and LatencyHistograms; Micrometer reads them
+// through function meters at scrape time. Per-port counters are created once when a
+// port starts listening and handed to its receive loop, and per-message-type counters
+// on the first message of that type, so neither costs a lookup per packet nor puts
+// thousands of idle series in the registry.
+@Component
+public class TelemetryMetrics {
+
+    public enum DecodeError {
+        // Frame with a MAVLink magic byte that is cut off by the end of the datagram.
+        TRUNCATED,
+        // Message id this server does not know.
+        UNKNOWN_ID,
+        CRC,
+        // CRC-valid frame whose payload could not be deserialized.
+        PAYLOAD;
+
+        final String tag = name().toLowerCase();
+    }
+
+    // Everything counted for one UDP port. Written by that port's receive thread(s)
+    // and, for processing time, by whoever handles its messages.
+    public static final class PortCounters {
+        private final LongAdder datagrams = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder messages = new LongAdder();
+        private final LongAdder filtered = new LongAdder();
+        private final LongAdder handleNanos = new LongAdder();
+        private final LongAdder pipelineDropped = new LongAdder();
+        private final LongAdder[] decodeErrors = new LongAdder[DecodeError.values().length];
+
+        private PortCounters() {
+            for (int i = 0; i < decodeErrors.length; i++) {
+                decodeErrors[i] = new LongAdder();
+            }
+        }
+
+        public void datagram(int length) {
+            datagrams.increment();
+            bytes.add(length);
+        }
+
+        public void rejected() {
+            rejected.increment();
+        }
+
+        public void filtered() {
+            filtered.increment();
+        }
+
+        public void pipelineDropped() {
+            pipelineDropped.increment();
+        }
+
+        public void decodeError(DecodeError error) {
+            decodeErrors[error.ordinal()].increment();
+        }
+    }
+
+    private final MeterRegistry registry;
+    private final long windowMillis;
+    private final AtomicReferenceArray<PortCounters> ports = new AtomicReferenceArray<>(65536);
+    private final AtomicReferenceArray<LongAdder> messageTypes = new AtomicReferenceArray<>(1 << 16);
+
+    private final LatencyHistogram handleLatency;
+    private final LatencyHistogram pushLatency;
+    private final LatencyHistogram broadcastLatency;
+    // Staleness stages of vessel data, from the datagram to the dashboard socket.
+    private final LatencyHistogram receiveToState;
+    private final LatencyHistogram stateToSerialize;
+    private final LatencyHistogram serializeToWrite;
+    private final LongAdder framesQueued = new LongAdder();
+
+    public TelemetryMetrics(MeterRegistry registry,
+                            @Value("${metrics.latency.window-ms:60000}") long windowMillis) {
+        this.registry = registry;
+        this.windowMillis = windowMillis;
+        this.handleLatency = latency("mavlink.handle", "handleMessage time per MAVLink message");
+        this.pushLatency = latency("telemetry.push", "Time to build and hand out one telemetry push");
+        this.broadcastLatency = latency("telemetry.broadcast", "Time to encode and queue one push for all WebSocket sessions");
+        this.receiveToState = latency("latency.receive.to.state", "Datagram receive to completed vessel state update");
+        this.stateToSerialize = latency("latency.state.to.serialize", "Vessel state update to the push that serialized it");
+        this.serializeToWrite = latency("latency.serialize.to.write", "Push serialization to the frame written to a WebSocket");
+        FunctionCounter.builder("telemetry.ws.frames.queued", framesQueued, LongAdder::sum)
+                .description("Telemetry frames queued to WebSocket sessions")
+                .register(registry);
+    }
+
+    // Counters of a port, created and registered on first use.
+    public PortCounters port(int port) {
+        PortCounters counters = ports.get(port);
+        return counters != null ? counters : createPort(port);
+    }
+
+    private synchronized PortCounters createPort(int port) {
+        PortCounters counters = ports.get(port);
+        if (counters != null) {
+            return counters;
+        }
+        counters = new PortCounters();
+        Tags tags = Tags.of("port", Integer.toString(port));
+        counter("mavlink.datagrams", "UDP datagrams received", tags, counters.datagrams);
+        counter("mavlink.datagram.bytes", "UDP payload bytes received", tags, counters.bytes);
+        counter("mavlink.datagrams.rejected", "Datagrams from senders not allowed on the port", tags, counters.rejected);
+        counter("mavlink.messages", "MAVLink messages handled", tags, counters.messages);
+        counter("mavlink.messages.filtered", "Frames dropped on the header because no handler takes their message id",
+                tags, counters.filtered);
+        counter("mavlink.pipeline.dropped", "Frames dropped because the processing ring was full", tags,
+                counters.pipelineDropped);
+        FunctionCounter.builder("mavlink.handle.time", counters.handleNanos, adder -> adder.sum() / 1e9)
+                .description("Seconds spent in handleMessage")
+                .baseUnit("seconds")
+                .tags(tags)
+                .register(registry);
+        for (DecodeError error : DecodeError.values()) {
+            counter("mavlink.decode.errors", "Frames dropped by the datagram decoder",
+                    tags.and("reason", error.tag), counters.decodeErrors[error.ordinal()]);
+        }
+        ports.set(port, counters);
+        return counters;
+    }
+
+    // Processing path, for every message that reaches its handler.
+    public void message(PortCounters port, int messageId, Class<?> type) {
+        port.messages.increment();
+        LongAdder counter = messageTypes.get(messageId & 0xFFFF);
+        if (counter == null) {
+            counter = createMessageType(messageId & 0xFFFF, type);
+        }
+        counter.increment();
+    }
+
+    private synchronized LongAdder createMessageType(int messageId, Class<?> type) {
+        LongAdder counter = messageTypes.get(messageId);
+        if (counter != null) {
+            return counter;
+        }
+        counter = new LongAdder();
+        counter("mavlink.messages.by.type", "MAVLink messages handled per message type",
+                Tags.of("type", messageName(type), "id", Integer.toString(messageId)), counter);
+        messageTypes.set(messageId, counter);
+        return counter;
+    }
+
+    public void handled(int port, long nanos) {
+        handleLatency.record(nanos);
+        port(port).handleNanos.add(nanos);
+    }
+
+    public void stateUpdated(long receiveToStateNanos) {
+        receiveToState.record(receiveToStateNanos);
+    }
+
+    public void serialized(long stateToSerializeNanos) {
+        stateToSerialize.record(stateToSerializeNanos);
+    }
+
+    public void written(long serializeToWriteNanos) {
+        serializeToWrite.record(serializeToWriteNanos);
+    }
+
+    public void pushed(long nanos) {
+        pushLatency.record(nanos);
+    }
+
+    public void broadcast(long nanos, int framesQueued) {
+        broadcastLatency.record(nanos);
+        this.framesQueued.add(framesQueued);
+    }
+
+    // tags are key, value pairs.
+    public <T> void gauge(String name, String description, T source, ToDoubleFunction<T> value, String... tags) {
+        Gauge.builder(name, source, value).description(description).tags(tags).register(registry);
+    }
+
+    // tags are key, value pairs.
+    public void counter(String name, String description, LongAdder adder, String... tags) {
+        counter(name, description, Tags.of(tags), adder);
+    }
+
+    private void counter(String name, String description, Tags tags, LongAdder adder) {
+        FunctionCounter.builder(name, adder, LongAdder::sum)
+                .description(description)
+                .tags(tags)
+                .register(registry);
+    }
+
+    // Count and total as a timer, plus windowed quantiles and max as gauges.
+    private LatencyHistogram latency(String name, String description) {
+        LatencyHistogram histogram = new LatencyHistogram(windowMillis);
+        FunctionTimer.builder(name, histogram, LatencyHistogram::count, LatencyHistogram::totalNanos, TimeUnit.NANOSECONDS)
+                .description(description)
+                .register(registry);
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            Gauge.builder(name + ".quantile", histogram, h -> h.quantile(quantile) / 1e9)
+                    .description(description + ", over the last window")
+                    .tags("quantile", Double.toString(quantile))
+                    .baseUnit("seconds")
+                    .register(registry);
+        }
+        Gauge.builder(name + ".window.max", histogram, h -> h.windowMax() / 1e9)
+                .description(description + ", maximum over the last window")
+                .baseUnit("seconds")
+                .register(registry);
+        return histogram;
+    }
+
+    // GlobalPositionInt -> GLOBAL_POSITION_INT, the name used in the MAVLink XML.
+    private static String messageName(Class<?> type) {
+        if (type == null || type.getAnnotation(MavlinkMessageInfo.class) == null) {
+            return "UNKNOWN";
+        }
+        String simple = type.getSimpleName();
+        StringBuilder name = new StringBuilder(simple.length() + 8);
+        for (int i = 0; i < simple.length(); i++) {
+            char c = simple.charAt(i);
+            if (i > 0 && Character.isUpperCase(c)) {
+                name.append('_');
+            }
+            name.append(Character.toUpperCase(c));
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,47 @@
+package org.sks.portsmanagement.service;
+
+import org.sks.portsmanagement.service.derived.DerivedMetric;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Runs the DerivedMetric beans after each message handler, inside the same vessel
+// update, so derived fields are published together with the values they come from.
+// Only metrics whose inputs the update wrote run, in @Order, each seeing what the
+// earlier ones set.
+@Component
+public class DerivedMetricsEngine {
+
+    private final DerivedMetric<?>[] metrics;
+    // Per port, one accumulator per metric; only touched under the vessel's monitor.
+    private final Object[][] states = new Object[65536][];
+
+    public DerivedMetricsEngine(List<DerivedMetric<?>> metrics) {
+        this.metrics = metrics.toArray(new DerivedMetric<?>[0]);
+    }
+
+    // Writer only, inside beginWrite/endWrite, after the message has been applied.
+    void update(VesselState vessel, long nowMillis) {
+        Object[] vesselStates = states[vessel.getPort()];
+        if (vesselStates == null) {
+            vesselStates = new Object[metrics.length];
+            for (int i = 0; i < metrics.length; i++) {
+                vesselStates[i] = metrics[i].newState();
+            }
+            states[vessel.getPort()] = vesselStates;
+        }
+        for (int i = 0; i < metrics.length; i++) {
+            long updated = vessel.getUpdateMask();
+            if ((updated & metrics[i].inputs()) != 0) {
+                run(metrics[i], vessel, vesselStates[i], updated, nowMillis);
+            }
+        }
+    }
+
+    // The state was created by the same metric's newState().
+    @SuppressWarnings("unchecked")
+    private static <S> void run(DerivedMetric<S> metric, VesselState vessel, Object state, long updated,
+                                long nowMillis) {
+        metric.update(vessel, (S) state, updated, nowMillis);
+    }
+}
@@ -1,224 +1,354 @@
 package org.sks.portsmanagement.service;
 
-import io.dronefleet.mavlink.MavlinkConnection;
 import io.dronefleet.mavlink.MavlinkMessage;
-import io.dronefleet.mavlink.ardupilotmega.Wind;
-import io.dronefleet.mavlink.common.*;
+import io.dronefleet.mavlink.annotations.MavlinkMessageInfo;
+import io.dronefleet.mavlink.common.MissionAck;
+import io.dronefleet.mavlink.common.MissionCount;
+import io.dronefleet.mavlink.common.MissionItemInt;
+import org.sks.portsmanagement.history.TelemetryHistoryStore;
+import org.sks.portsmanagement.history.TelemetryTimeSeries;
+import org.sks.portsmanagement.metrics.LatencyTracer;
+import org.sks.portsmanagement.metrics.TelemetryMetrics;
+import org.sks.portsmanagement.service.handler.MavlinkFrame;
+import org.sks.portsmanagement.service.handler.MessageTypeHandler;
+import org.sks.portsmanagement.spatial.VesselSpatialIndex;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayOutputStream;
-import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.sks.portsmanagement.service.TelemetryField.*;
 
 @Service
 public class MavlinkMessageHandlerService {
 
-    // Shared telemetry data maps using LinkedHashMap to preserve order.
-    private final Map<Integer, LinkedHashMap<String, Object>> telemetryUdpDataMap = new ConcurrentHashMap<>();
+    // Live vessel state, indexed directly by UDP port so the receive path needs no
+    // boxing or hashing. Vessels are also listed in creation order for snapshots.
+    private final AtomicReferenceArray<VesselState> vessels = new AtomicReferenceArray<>(65536);
+    private final List<VesselState> vesselList = new CopyOnWriteArrayList<>();
     private final Map<Integer, List<Map<String, Object>>> waypointsPerPort = new ConcurrentHashMap<>();
-    private final Map<Integer, Integer> totalMissionItems = new ConcurrentHashMap<>();
-    private final Map<Integer, Boolean> requestedMissionList = new ConcurrentHashMap<>();
+    // The mission opaque_id of each port's waypoint list, for the state snapshot. Kept
+    // with the list it describes, so a snapshot racing a new download never pairs the
+    // old waypoints with the new id.
+    private record MissionId(List<Map<String, Object>> waypoints, long opaqueId) {
+    }
+
+    private final Map<Integer, MissionId> missionIdsPerPort = new ConcurrentHashMap<>();
     private final Map<Integer, Map<String, Double>> homeLocations = new ConcurrentHashMap<>();
     private final Set<Integer> activePorts = ConcurrentHashMap.newKeySet();
-    // Store the last update timestamp for each port.
-    private final Map<Integer, Long> lastTelemetryUpdate = new ConcurrentHashMap<>();
-
-
-    private LinkedHashMap<String, Object> initializeTelemetryData() {
-        LinkedHashMap<String, Object> data = new LinkedHashMap<>();
-        data.put("port",0.0);
-        data.put("GCS_IP", "Unknown");
-        data.put("system_id", "Unknown");
-        data.put("lat", 0.0);
-        data.put("lon", 0.0);
-        data.put("alt", 0.0);
-        data.put("dist_traveled", 0.0);
-        data.put("wp_dist", 0);
-        data.put("dist_to_home", 0.0);
-        data.put("vertical_speed", 0.0);
-        data.put("ground_speed", 0.0);
-        data.put("wind_vel", 0.0);
-        data.put("airspeed", 0.0);
-        data.put("gps_hdop", 0.0);
-        data.put("roll", 0.0);
-        data.put("pitch", 0.0);
-        data.put("yaw", 0.0);
-        data.put("ch3percent", 0.0);
-        data.put("ch9out", 0.0);
-        data.put("tot", 0.0);
-        data.put("toh", 0.0);
-        data.put("time_in_air", 0.0);
-        data.put("ch10out", 0.0);
-        data.put("ch11out", 0.0);
-        data.put("ch12out", 0.0);
-        data.put("battery_voltage", 0);
-        data.put("battery_current", 0.0);
-        data.put("waypoints_count", 0);
-        return data;
+    // Run on the receive thread after every completed vessel update; must be cheap.
+    private volatile Runnable updateListener;
+    private final MissionTransferEngine missionTransfers;
+    private final TelemetryHistoryStore historyStore;
+    private final TelemetryTimeSeries timeSeries;
+    private final TelemetryMetrics metrics;
+    private final LatencyTracer tracer;
+    // Indexed by MAVLink message id; null where no handler is registered.
+    private final MessageTypeHandler[] handlers;
+    private final DerivedMetricsEngine derivedMetrics;
+    private final VesselSpatialIndex spatialIndex;
+    // Port and system id are implied by the history file and are not recorded per update.
+    private static final long HISTORY_FIELDS = ~((1L << PORT.ordinal()) | (1L << SYSTEM_ID.ordinal()));
+
+    public MavlinkMessageHandlerService(MissionTransferEngine missionTransfers, TelemetryHistoryStore historyStore,
+                                        TelemetryTimeSeries timeSeries, TelemetryMetrics metrics,
+                                        LatencyTracer tracer, List<MessageTypeHandler> messageHandlers,
+                                        DerivedMetricsEngine derivedMetrics, VesselSpatialIndex spatialIndex) {
+        List<MessageTypeHandler> all = new ArrayList<>(messageHandlers);
+        all.add(new MissionHandler(MissionCount.class));
+        all.add(new MissionHandler(MissionItemInt.class));
+        all.add(new MissionHandler(MissionAck.class));
+        this.handlers = dispatchTable(all);
+        this.derivedMetrics = derivedMetrics;
+        this.spatialIndex = spatialIndex;
+        this.missionTransfers = missionTransfers;
+        this.historyStore = historyStore;
+        this.timeSeries = timeSeries;
+        this.metrics = metrics;
+        this.tracer = tracer;
     }
 
-
+    private VesselState vesselFor(int port) {
+        VesselState vessel = vessels.get(port);
+        if (vessel == null) {
+            VesselState created = new VesselState(port);
+            if (vessels.compareAndSet(port, null, created)) {
+                vesselList.add(created);
+                vessel = created;
+            } else {
+                vessel = vessels.get(port);
+            }
+        }
+        return vessel;
+    }
 
     public void handleMessage(MavlinkMessage<?> message, int port, DatagramSocket udpSocket,
                               InetAddress senderAddress, int senderPort) {
+        handleMessage(message, port, UdpReplyChannel.of(udpSocket), senderAddress, senderPort);
+    }
 
+    public void handleMessage(MavlinkMessage<?> message, int port, UdpReplyChannel replyChannel,
+                              InetAddress senderAddress, int senderPort) {
+        handleFrame(MavlinkFrame.of(message), port, replyChannel, senderAddress, senderPort, System.nanoTime());
+    }
 
-        // Get (or initialize) telemetry data for this port.
-        LinkedHashMap<String, Object> telemetryData =
-                telemetryUdpDataMap.computeIfAbsent(port, k -> initializeTelemetryData());
-        telemetryData.put("port", port);
-        telemetryData.put("GCS_IP", senderAddress.getHostAddress());
-        telemetryData.put("system_id", message.getOriginSystemId());
-        telemetryData.put("home_location", homeLocations.get(port));
-        telemetryData.put("waypoints", waypointsPerPort.get(port));
-        activePorts.add(port);
-
-        // Update the last update timestamp
-        lastTelemetryUpdate.put(port, System.currentTimeMillis());
-
-        // Process different types of MAVLink messages.
-        if (message.getPayload() instanceof MissionCount missionCount) {
-            System.out.println("✅ Received MISSION_COUNT on port " + port + ": " + missionCount.count());
-            totalMissionItems.put(port, missionCount.count());
-            waypointsPerPort.put(port, new ArrayList<>());
-            requestMissionItemsUdp(senderAddress, senderPort, port, udpSocket);
-        } else if (message.getPayload() instanceof MissionItemInt missionItemInt) {
-            saveMissionItem(port, missionItemInt);
-        } else if (message.getPayload() instanceof GlobalPositionInt globalPositionInt) {
-            double currentLat = globalPositionInt.lat() / 1e7;
-            double currentLon = globalPositionInt.lon() / 1e7;
-            double currentAlt = globalPositionInt.relativeAlt() / 1000.0;
-            Map<String, Double> homeLocation = homeLocations.getOrDefault(port, Map.of("lat", 0.0, "lon", 0.0));
-           double  distToHome = calculateDistance(currentLat, currentLon, homeLocation.get("lat"), homeLocation.get("lon")) * 1000.0;
-            telemetryData.put("dist_to_home", distToHome);
-            telemetryData.put("lat", currentLat);
-            telemetryData.put("lon", currentLon);
-            telemetryData.put("alt", currentAlt);
-        } else if (message.getPayload() instanceof NavControllerOutput navControllerOutput) {
-            telemetryData.put("wp_dist", navControllerOutput.wpDist());
-
-        } else if (message.getPayload() instanceof VfrHud vfrHud) {
-            double groundSpeed = vfrHud.groundspeed(); // Speed in m/s
-            telemetryData.put("airspeed", vfrHud.airspeed());
-            telemetryData.put("ground_speed", vfrHud.groundspeed());
-            telemetryData.put("vertical_speed", vfrHud.climb());
-
-
-            int wpDist = (int) telemetryData.get("wp_dist");
-
-
-            double totSeconds =(groundSpeed > 0)? (wpDist / groundSpeed) : 0;
-            totSeconds =  (Math.round(totSeconds * 100.0) / 100.0);
-            telemetryData.put("tot", totSeconds);
-
-
-            double distToHome = (double) telemetryData.get("dist_to_home");
-
-            double tohSeconds = (groundSpeed > 0) ? (distToHome / groundSpeed) : 0;
-            tohSeconds = Math.round(tohSeconds * 100.0) / 100.0;
-            telemetryData.put("toh",tohSeconds);
-
-
-        } else if (message.getPayload() instanceof Attitude attitude) {
-            telemetryData.put("roll", String.format("%.2f", Math.toDegrees(attitude.roll())));
-            telemetryData.put("pitch", String.format("%.2f", Math.toDegrees(attitude.pitch())));
-            telemetryData.put("yaw", String.format("%.2f", Math.toDegrees(attitude.yaw())));
-        } else if (message.getPayload() instanceof SysStatus sysStatus) {
-            telemetryData.put("battery_voltage", sysStatus.voltageBattery());
-            telemetryData.put("battery_current", sysStatus.currentBattery());
-        } else if (message.getPayload() instanceof ServoOutputRaw servoOutputRaw) {
-            telemetryData.put("ch3out", servoOutputRaw.servo3Raw());
-            telemetryData.put("ch3percent", String.format("%.2f", ((servoOutputRaw.servo3Raw() - 1000.0) / 1000.0) * 100));
-            telemetryData.put("ch9out", servoOutputRaw.servo9Raw());
-            telemetryData.put("ch10out", servoOutputRaw.servo10Raw());
-            telemetryData.put("ch11out", servoOutputRaw.servo11Raw());
-            telemetryData.put("ch12out", servoOutputRaw.servo12Raw());
-        } else if (message.getPayload() instanceof Wind wind) {
-            telemetryData.put("wind_vel", wind.speed());
-        } else if (message.getPayload() instanceof GpsRawInt gpsRawInt) {
-            telemetryData.put("gps_hdop", gpsRawInt.eph() / 100.0);
-        }
-
-        if (!requestedMissionList.getOrDefault(port, false)) {
-            requestMissionListUdp(senderAddress, senderPort, port, udpSocket);
-            requestedMissionList.put(port, true);
-        }
-    }
-
-    private void saveMissionItem(int port, MissionItemInt missionItemInt) {
-        Map<String, Object> waypoint = new LinkedHashMap<>();
-        waypoint.put("seq", missionItemInt.seq());
-        waypoint.put("lat", missionItemInt.x() / 1e7);
-        waypoint.put("lon", missionItemInt.y() / 1e7);
-        waypoint.put("alt", missionItemInt.z());
-        waypointsPerPort.computeIfAbsent(port, k -> new ArrayList<>()).add(waypoint);
+    // Whether frames with this message id are worth decoding; receive threads drop the
+    // others on the raw header.
+    public boolean handles(int messageId) {
+        return messageId < handlers.length && handlers[messageId] != null;
+    }
 
-        if (missionItemInt.seq() == 0) {
-            Map<String, Double> homeLocation = new HashMap<>();
-            homeLocation.put("lat", missionItemInt.x() / 1e7);
-            homeLocation.put("lon", missionItemInt.y() / 1e7);
-            homeLocations.put(port, homeLocation);
+    // receivedNanos is System.nanoTime() when the datagram carrying the frame arrived.
+    public void handleFrame(MavlinkFrame frame, int port, UdpReplyChannel replyChannel,
+                            InetAddress senderAddress, int senderPort, long receivedNanos) {
+        int messageId = frame.messageId();
+        if (!handles(messageId)) {
+            return;
+        }
+        long started = System.nanoTime();
+        MessageTypeHandler handler = handlers[messageId];
+        TelemetryMetrics.PortCounters counters = metrics.port(port);
+        if (handler.readsPayload() && frame.payload() == null) {
+            counters.decodeError(TelemetryMetrics.DecodeError.PAYLOAD);
+            return;
         }
+        metrics.message(counters, messageId, handler.messageType());
+        long traceId = tracer.sample(port, handler.messageType(), receivedNanos);
+
+        // Get (or initialize) the live state for this port. With several sockets per
+        // port (SO_REUSEPORT) messages of one vessel can arrive on different threads;
+        // holding the vessel's monitor applies them one at a time, each completely.
+        VesselState vessel = vesselFor(port);
+        synchronized (vessel) {
+            applyFrame(vessel, handler, frame, port, replyChannel, senderAddress, senderPort, receivedNanos, traceId);
+        }
+        Runnable listener = updateListener;
+        if (listener != null) {
+            listener.run();
+        }
+        metrics.handled(port, System.nanoTime() - started);
     }
 
-    private void requestMissionListUdp(InetAddress address, int port, int udpPort, DatagramSocket udpSocket) {
+    private void applyFrame(VesselState vessel, MessageTypeHandler handler, MavlinkFrame frame, int port,
+                            UdpReplyChannel replyChannel, InetAddress senderAddress, int senderPort,
+                            long receivedNanos, long traceId) {
+        missionTransfers.onTraffic(port, senderAddress, senderPort, replyChannel, frame);
+
+        long updatedNanos;
+        vessel.beginWrite();
         try {
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            MavlinkConnection connection = MavlinkConnection.create(null, outputStream);
-            connection.send1(255, 0, MissionRequestList.builder().targetSystem(1).targetComponent(1).build());
-            DatagramPacket packet = new DatagramPacket(outputStream.toByteArray(), outputStream.size(), address, port);
-            udpSocket.send(packet);
-        } catch (Exception e) {
-            System.err.println("❌ Error requesting Mission List on port " + udpPort + ": " + e.getMessage());
+            vessel.setReceivedNanos(receivedNanos);
+            if (traceId > 0) {
+                vessel.setTraceId(traceId);
+            }
+            vessel.set(PORT, port);
+            vessel.setGcsAddress(senderAddress);
+            vessel.set(SYSTEM_ID, frame.systemId());
+
+            // Update the last update timestamp
+            long now = System.currentTimeMillis();
+            vessel.setLastUpdateMillis(now);
+
+            handler.apply(vessel, frame);
+            derivedMetrics.update(vessel, now);
+
+            long updated = vessel.getUpdateMask() & HISTORY_FIELDS;
+            historyStore.append(port, now, updated, vessel.values());
+            timeSeries.record(port, now, updated, vessel.values());
+            updatedNanos = System.nanoTime();
+            vessel.setUpdatedNanos(updatedNanos);
+        } finally {
+            vessel.endWrite();
+        }
+        metrics.stateUpdated(updatedNanos - receivedNanos);
+        tracer.stateUpdated(traceId, updatedNanos);
+
+        if (!vessel.isActive()) {
+            vessel.setActive(true);
+            activePorts.add(port);
         }
     }
 
-    private void requestMissionItemsUdp(InetAddress address, int port, int udpPort, DatagramSocket udpSocket) {
-        int missionCount = totalMissionItems.getOrDefault(udpPort, -1);
-        if (missionCount <= 0) return;
-        try {
-            for (int i = 0; i < missionCount; i++) {
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                MavlinkConnection connection = MavlinkConnection.create(null, outputStream);
-                connection.send1(255, 0, MissionRequestInt.builder().targetSystem(1).targetComponent(1).seq(i).build());
-                DatagramPacket packet = new DatagramPacket(outputStream.toByteArray(), outputStream.size(), address, port);
-                udpSocket.send(packet);
+    // Mission protocol replies feed the transfer engine and this service's mission
+    // state, so they are handled here rather than by beans.
+    private final class MissionHandler implements MessageTypeHandler {
+        private final Class<?> type;
+
+        MissionHandler(Class<?> type) {
+            this.type = type;
+        }
+
+        @Override
+        public Class<?> messageType() {
+            return type;
+        }
+
+        @Override
+        public void apply(VesselState vessel, MavlinkFrame frame) {
+            int port = vessel.getPort();
+            if (frame.payload() instanceof MissionCount missionCount) {
+                System.out.println("✅ Received MISSION_COUNT on port " + port + ": " + missionCount.count());
+                missionTransfers.onMissionCount(port, frame);
+            } else if (frame.payload() instanceof MissionItemInt missionItemInt) {
+                saveMissionItem(vessel, missionItemInt);
+            } else if (frame.payload() instanceof MissionAck missionAck) {
+                missionTransfers.onMissionAck(port, missionAck);
             }
-        } catch (Exception e) {
-            System.err.println("❌ Error requesting Mission Items on port " + udpPort + ": " + e.getMessage());
         }
     }
 
-    private double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
-        final double R = 6371; // Earth's radius in km
-        double latDistance = Math.toRadians(lat2 - lat1);
-        double lonDistance = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2) +
-                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
-                        Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return R * c;
+    // Message id -> handler, from the handler beans plus the mission handlers above.
+    private static MessageTypeHandler[] dispatchTable(List<MessageTypeHandler> handlers) {
+        int maxId = 0;
+        for (MessageTypeHandler handler : handlers) {
+            maxId = Math.max(maxId, messageId(handler));
+        }
+        MessageTypeHandler[] table = new MessageTypeHandler[maxId + 1];
+        for (MessageTypeHandler handler : handlers) {
+            int id = messageId(handler);
+            if (table[id] != null) {
+                throw new IllegalStateException("Two handlers for MAVLink message " + id + ": "
+                        + table[id].getClass().getName() + " and " + handler.getClass().getName());
+            }
+            table[id] = handler;
+        }
+        return table;
     }
 
+    private static int messageId(MessageTypeHandler handler) {
+        MavlinkMessageInfo info = handler.messageType().getAnnotation(MavlinkMessageInfo.class);
+        if (info == null) {
+            throw new IllegalStateException(handler.getClass().getName() + " does not name a MAVLink message type");
+        }
+        return info.id();
+    }
+
+    // Home comes from item 0 as soon as it arrives; the waypoint list is replaced in one
+    // go once the transfer engine has the complete mission.
+    private void saveMissionItem(VesselState vessel, MissionItemInt missionItemInt) {
+        int port = vessel.getPort();
+        if (missionItemInt.seq() == 0) {
+            Map<String, Double> homeLocation = new HashMap<>();
+            homeLocation.put("lat", missionItemInt.x() / 1e7);
+            homeLocation.put("lon", missionItemInt.y() / 1e7);
+            homeLocations.put(port, homeLocation);
+            vessel.setHome(missionItemInt.x() / 1e7, missionItemInt.y() / 1e7);
+        }
+
+        MissionTransferEngine.Mission mission = missionTransfers.onMissionItem(port, missionItemInt);
+        if (mission == null) {
+            return;
+        }
+        List<Map<String, Object>> waypoints = new ArrayList<>(mission.items().size());
+        for (MissionItemInt item : mission.items()) {
+            Map<String, Object> waypoint = new LinkedHashMap<>();
+            waypoint.put("seq", item.seq());
+            waypoint.put("lat", item.x() / 1e7);
+            waypoint.put("lon", item.y() / 1e7);
+            waypoint.put("alt", item.z());
+            waypoints.add(waypoint);
+        }
+        storeWaypoints(port, Collections.unmodifiableList(waypoints), mission.opaqueId());
+    }
+
+    private void storeWaypoints(int port, List<Map<String, Object>> waypoints, long opaqueId) {
+        waypointsPerPort.put(port, waypoints);
+        missionIdsPerPort.put(port, new MissionId(waypoints, opaqueId));
+    }
+
+    // The opaque_id the vehicle announced for exactly this waypoint list, 0 if unknown
+    // or if the list has been replaced since.
+    long getMissionId(int port, List<Map<String, Object>> waypoints) {
+        MissionId missionId = missionIdsPerPort.get(port);
+        return missionId != null && missionId.waypoints() == waypoints ? missionId.opaqueId() : 0;
+    }
 
     // Expose telemetry data and active ports for TelemetryService.
     public LinkedHashMap<Integer, LinkedHashMap<String, Object>> getTelemetryData() {
         LinkedHashMap<Integer, LinkedHashMap<String, Object>> data = new LinkedHashMap<>();
-        for (Map.Entry<Integer, LinkedHashMap<String, Object>> entry : telemetryUdpDataMap.entrySet()) {
-            data.put(entry.getKey(), new LinkedHashMap<>(entry.getValue()));
+        for (VesselSnapshot snapshot : getSnapshots().values()) {
+            data.put(snapshot.getPort(), toTelemetryData(snapshot));
         }
         return data;
     }
 
+    // Consistent copy of every known vessel, keyed by port.
+    public LinkedHashMap<Integer, VesselSnapshot> getSnapshots() {
+        LinkedHashMap<Integer, VesselSnapshot> snapshots = new LinkedHashMap<>();
+        for (VesselState vessel : vesselList) {
+            snapshots.put(vessel.getPort(), vessel.snapshot());
+        }
+        return snapshots;
+    }
+
+    // Renders a snapshot as the JSON record the dashboards expect.
+    public LinkedHashMap<String, Object> toTelemetryData(VesselSnapshot snapshot) {
+        int port = snapshot.getPort();
+        return snapshot.toMap(homeLocations.get(port), waypointsPerPort.get(port));
+    }
+
+    // Recreates a vessel saved by StateSnapshotService. Ports that have already heard
+    // from their vessel keep the live state. Restored vessels stay inactive until
+    // traffic arrives.
+    boolean restoreVessel(int port, long writtenMask, double[] values, InetAddress gcsAddress, long lastUpdateMillis,
+                          Map<String, Double> homeLocation, List<Map<String, Object>> waypoints, long missionId) {
+        VesselState created = new VesselState(port);
+        created.restore(writtenMask, values, gcsAddress, lastUpdateMillis);
+        if (homeLocation != null) {
+            created.setHome(homeLocation.get("lat"), homeLocation.get("lon"));
+        }
+        if (!vessels.compareAndSet(port, null, created)) {
+            return false;
+        }
+        if (homeLocation != null) {
+            homeLocations.putIfAbsent(port, homeLocation);
+        }
+        if (waypoints != null && !waypointsPerPort.containsKey(port)) {
+            storeWaypoints(port, Collections.unmodifiableList(waypoints), missionId);
+        }
+        vesselList.add(created);
+        return true;
+    }
+
+    public Map<Integer, Map<String, Double>> getHomeLocations() {
+        return Collections.unmodifiableMap(homeLocations);
+    }
+
+    public Map<Integer, List<Map<String, Object>>> getWaypoints() {
+        return Collections.unmodifiableMap(waypointsPerPort);
+    }
+
+    public void setUpdateListener(Runnable listener) {
+        this.updateListener = listener;
+    }
+
     public Set<Integer> getActivePorts() {
         return activePorts;
     }
 
+    // Drops ports that have been silent for longer than timeoutMs from the active set
+    // and the spatial index. The flag is cleared after removal so a concurrent update
+    // re-adds the port.
+    public void expireInactivePorts(long now, long timeoutMs) {
+        for (Integer port : activePorts) {
+            VesselState vessel = vessels.get(port);
+            if (vessel == null || now - vessel.getLastUpdateMillis() > timeoutMs) {
+                activePorts.remove(port);
+                spatialIndex.remove(port);
+                if (vessel != null) {
+                    vessel.setActive(false);
+                }
+            }
+        }
+    }
+
     // Expose last update timestamp for a given port.
     public Long getLastTelemetryUpdate(int port) {
-        return lastTelemetryUpdate.get(port);
+        VesselState vessel = vessels.get(port);
+        return vessel != null ? vessel.getLastUpdateMillis() : null;
     }
-}
\ No newline at end of file
+}
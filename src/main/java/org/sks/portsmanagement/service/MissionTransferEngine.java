@@ -0,0 +1,389 @@
+package org.sks.portsmanagement.service;
+
+import io.dronefleet.mavlink.MavlinkConnection;
+import io.dronefleet.mavlink.common.*;
+import jakarta.annotation.PreDestroy;
+import org.sks.portsmanagement.service.handler.MavlinkFrame;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Downloads the mission of every vessel with the MAVLink mission protocol: request the
+// list, request items with at most `window` outstanding, retransmit items that time out
+// and finish with a MISSION_ACK. Receive threads only record what arrived; every packet
+// is sent from a single shared timer thread, which also owns the encode buffer.
+//
+// A mission restored from the last state snapshot is trusted when the first
+// MISSION_COUNT after startup carries the same opaque_id (the autopilot's mission
+// version, MAVLink 2 extension) and number of items; the transfer is then closed with
+// an ACK instead of downloading the items again. Autopilots that send no opaque_id get
+// the items downloaded again, since a mission edited in place keeps its count.
+//
+// A transfer that cannot complete (no MISSION_COUNT, an item exhausting its retries,
+// or an error ACK from the vehicle) backs off and starts over from the list request.
+@Service
+public class MissionTransferEngine {
+
+    // GCS identity used for outgoing requests, as before.
+    private static final int GCS_SYSTEM_ID = 255;
+    private static final int GCS_COMPONENT_ID = 0;
+    // Requests are addressed to the autopilot: MAV_COMP_ID_AUTOPILOT1 of system 1 until
+    // a HEARTBEAT shows where it is. HEARTBEAT wire offset of the autopilot byte, and its
+    // MAV_AUTOPILOT_INVALID value sent by cameras, gimbals and companion computers.
+    private static final int AUTOPILOT_COMPONENT_ID = 1;
+    private static final int HEARTBEAT_ID = 0;
+    private static final int HEARTBEAT_AUTOPILOT_OFFSET = 5;
+    private static final int MAV_AUTOPILOT_INVALID = 8;
+    // MISSION_COUNT wire offsets: count, and the opaque_id extension (0 = not sent).
+    private static final int MISSION_COUNT_COUNT_OFFSET = 0;
+    private static final int MISSION_COUNT_OPAQUE_ID_OFFSET = 5;
+
+    // A downloaded (or confirmed) mission and the opaque_id it was announced with.
+    record Mission(List<MissionItemInt> items, long opaqueId) {
+    }
+
+    private enum Phase {
+        // MISSION_REQUEST_LIST sent, waiting for MISSION_COUNT.
+        REQUESTING_LIST,
+        // Requesting items.
+        DOWNLOADING,
+        // All items received; the ACK may still be pending.
+        COMPLETE,
+        // Gave up for now; starts over at retryAt.
+        BACKOFF
+    }
+
+    private static final class Transfer {
+        final int port;
+
+        // Where requests go; refreshed from incoming traffic.
+        volatile InetAddress address;
+        volatile int senderPort;
+        volatile UdpReplyChannel replyChannel;
+        // The autopilot the requests address; see onTraffic.
+        volatile int targetSystem = 1;
+        volatile int targetComponent = AUTOPILOT_COMPONENT_ID;
+
+        // Guarded by this.
+        Phase phase = Phase.REQUESTING_LIST;
+        int attempts;
+        long sentAt;
+        long retryAt;
+        boolean ackPending;
+        int count;
+        long opaqueId;
+        MissionItemInt[] items = new MissionItemInt[0];
+        long[] itemSentAt = new long[0];
+        int[] itemAttempts = new int[0];
+        int received;
+        int inFlight;
+        int nextSeq;
+
+        Transfer(int port) {
+            this.port = port;
+        }
+    }
+
+    // Exposes the backing array so one buffer serves every packet.
+    private static final class EncodeBuffer extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    private final int window;
+    private final long itemTimeoutMillis;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+
+    private final AtomicReferenceArray<Transfer> transfers = new AtomicReferenceArray<>(65536);
+    private final List<Transfer> transferList = new CopyOnWriteArrayList<>();
+    // Item count + 1 and opaque_id of a mission restored from a snapshot, 0 for none;
+    // consumed by the first MISSION_COUNT of the port.
+    private final AtomicIntegerArray cachedCounts = new AtomicIntegerArray(65536);
+    private final AtomicLongArray cachedIds = new AtomicLongArray(65536);
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mission-transfer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Timer thread only.
+    private final EncodeBuffer encodeBuffer = new EncodeBuffer();
+    private final MavlinkConnection encoder = MavlinkConnection.create(null, encodeBuffer);
+    private int[] pendingSeqs = new int[16];
+
+    public MissionTransferEngine(@Value("${mission.transfer.window:8}") int window,
+                                 @Value("${mission.transfer.item-timeout-ms:500}") long itemTimeoutMillis,
+                                 @Value("${mission.transfer.max-attempts:5}") int maxAttempts,
+                                 @Value("${mission.transfer.retry-backoff-ms:10000}") long retryBackoffMillis,
+                                 @Value("${mission.transfer.tick-ms:50}") long tickMillis) {
+        this.window = Math.max(1, window);
+        this.itemTimeoutMillis = Math.max(1, itemTimeoutMillis);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoffMillis = Math.max(0, retryBackoffMillis);
+        timer.scheduleAtFixedRate(this::sweep, tickMillis, Math.max(1, tickMillis), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    // Called for every message; starts the first download for a new vessel and keeps
+    // the return address current. Only an autopilot's HEARTBEAT moves the request
+    // target; other components on the link would not answer mission requests. Cheap
+    // when nothing changed.
+    void onTraffic(int port, InetAddress address, int senderPort, UdpReplyChannel replyChannel, MavlinkFrame frame) {
+        Transfer transfer = transfers.get(port);
+        boolean created = false;
+        if (transfer == null) {
+            Transfer fresh = new Transfer(port);
+            if (transfers.compareAndSet(port, null, fresh)) {
+                transferList.add(fresh);
+                created = true;
+            }
+            transfer = transfers.get(port);
+        }
+        if (transfer.replyChannel != replyChannel || transfer.senderPort != senderPort
+                || !address.equals(transfer.address)) {
+            transfer.address = address;
+            transfer.senderPort = senderPort;
+            transfer.replyChannel = replyChannel;
+        }
+        if (frame.messageId() == HEARTBEAT_ID && (frame.componentId() == AUTOPILOT_COMPONENT_ID
+                || frame.uint8(HEARTBEAT_AUTOPILOT_OFFSET) != MAV_AUTOPILOT_INVALID)) {
+            if (transfer.targetSystem != frame.systemId() || transfer.targetComponent != frame.componentId()) {
+                transfer.targetSystem = frame.systemId();
+                transfer.targetComponent = frame.componentId();
+            }
+        }
+        if (created) {
+            schedulePump(transfer);
+        }
+    }
+
+    // Marks the port's mission as already held, with this many items and opaque_id.
+    void cacheMission(int port, int count, long opaqueId) {
+        cachedIds.set(port, opaqueId);
+        cachedCounts.set(port, count + 1);
+    }
+
+    // The vehicle announced its mission, solicited or not; (re)starts the download
+    // unless it is the mission restored at startup.
+    void onMissionCount(int port, MavlinkFrame frame) {
+        Transfer transfer = transfers.get(port);
+        if (transfer == null) {
+            return;
+        }
+        int count = frame.uint16(MISSION_COUNT_COUNT_OFFSET);
+        long opaqueId = frame.uint32(MISSION_COUNT_OPAQUE_ID_OFFSET);
+        long cachedId = cachedIds.getAndSet(port, 0);
+        boolean cached = cachedCounts.getAndSet(port, 0) == count + 1 && opaqueId != 0 && cachedId == opaqueId;
+        if (cached && count > 0) {
+            System.out.println("✅ Mission on port " + port + " matches the cached copy (" + count + " items)");
+        }
+        synchronized (transfer) {
+            if (transfer.items.length < count) {
+                transfer.items = new MissionItemInt[count];
+                transfer.itemSentAt = new long[count];
+                transfer.itemAttempts = new int[count];
+            } else {
+                Arrays.fill(transfer.items, 0, count, null);
+                Arrays.fill(transfer.itemSentAt, 0, count, 0L);
+                Arrays.fill(transfer.itemAttempts, 0, count, 0);
+            }
+            transfer.count = count;
+            transfer.opaqueId = opaqueId;
+            transfer.received = 0;
+            transfer.inFlight = 0;
+            transfer.nextSeq = 0;
+            transfer.phase = count == 0 || cached ? Phase.COMPLETE : Phase.DOWNLOADING;
+            transfer.ackPending = count == 0 || cached;
+        }
+        schedulePump(transfer);
+    }
+
+    // Records an item; returns the whole mission in sequence order when this item
+    // completed it, null otherwise. Duplicates and unsolicited items are ignored.
+    Mission onMissionItem(int port, MissionItemInt item) {
+        Transfer transfer = transfers.get(port);
+        if (transfer == null) {
+            return null;
+        }
+        Mission mission = null;
+        synchronized (transfer) {
+            int seq = item.seq();
+            if (transfer.phase != Phase.DOWNLOADING || seq < 0 || seq >= transfer.count || transfer.items[seq] != null) {
+                return null;
+            }
+            transfer.items[seq] = item;
+            transfer.received++;
+            if (transfer.itemSentAt[seq] != 0) {
+                transfer.itemSentAt[seq] = 0;
+                transfer.inFlight--;
+            }
+            if (transfer.received == transfer.count) {
+                transfer.phase = Phase.COMPLETE;
+                transfer.ackPending = true;
+                mission = new Mission(new ArrayList<>(Arrays.asList(transfer.items).subList(0, transfer.count)),
+                        transfer.opaqueId);
+            }
+        }
+        // Refill the window (or send the ACK) without waiting for the next sweep.
+        schedulePump(transfer);
+        return mission;
+    }
+
+    // An ACK from the vehicle during a download means it aborted the transfer.
+    void onMissionAck(int port, MissionAck ack) {
+        Transfer transfer = transfers.get(port);
+        if (transfer == null) {
+            return;
+        }
+        synchronized (transfer) {
+            if (transfer.phase == Phase.DOWNLOADING || transfer.phase == Phase.REQUESTING_LIST) {
+                System.err.println("❌ Mission download on port " + transfer.port + " aborted by vehicle: " + ack.type().entry());
+                backOff(transfer, System.currentTimeMillis());
+            }
+        }
+    }
+
+    private void schedulePump(Transfer transfer) {
+        try {
+            timer.execute(() -> pump(transfer, System.currentTimeMillis()));
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            // Shutting down.
+        }
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        for (Transfer transfer : transferList) {
+            pump(transfer, now);
+        }
+    }
+
+    // Timer thread only. Decides under the transfer's lock what is due, then sends.
+    private void pump(Transfer transfer, long now) {
+        boolean requestList = false;
+        boolean sendAck = false;
+        int pending = 0;
+        synchronized (transfer) {
+            if (transfer.phase == Phase.BACKOFF && now >= transfer.retryAt) {
+                transfer.phase = Phase.REQUESTING_LIST;
+                transfer.attempts = 0;
+                transfer.sentAt = 0;
+            }
+            switch (transfer.phase) {
+                case BACKOFF:
+                    break;
+                case REQUESTING_LIST:
+                    if (transfer.sentAt != 0 && now - transfer.sentAt < itemTimeoutMillis) {
+                        break;
+                    }
+                    if (transfer.attempts >= maxAttempts) {
+                        System.err.println("❌ No MISSION_COUNT from port " + transfer.port + "; retrying in "
+                                + retryBackoffMillis + " ms");
+                        backOff(transfer, now);
+                        break;
+                    }
+                    transfer.attempts++;
+                    transfer.sentAt = now;
+                    requestList = true;
+                    break;
+                case DOWNLOADING:
+                    // Retransmit what timed out first, then fill the window in order.
+                    for (int seq = 0; seq < transfer.nextSeq; seq++) {
+                        long sentAt = transfer.itemSentAt[seq];
+                        if (sentAt == 0 || now - sentAt < itemTimeoutMillis) {
+                            continue;
+                        }
+                        if (transfer.itemAttempts[seq] >= maxAttempts) {
+                            System.err.println("❌ Mission item " + seq + " on port " + transfer.port
+                                    + " not received after " + maxAttempts + " attempts");
+                            backOff(transfer, now);
+                            return;
+                        }
+                        pending = addPending(pending, seq);
+                        transfer.itemSentAt[seq] = now;
+                        transfer.itemAttempts[seq]++;
+                    }
+                    while (transfer.inFlight < window && transfer.nextSeq < transfer.count) {
+                        int seq = transfer.nextSeq++;
+                        if (transfer.items[seq] != null) {
+                            continue;
+                        }
+                        pending = addPending(pending, seq);
+                        transfer.itemSentAt[seq] = now;
+                        transfer.itemAttempts[seq] = 1;
+                        transfer.inFlight++;
+                    }
+                    break;
+                case COMPLETE:
+                    sendAck = transfer.ackPending;
+                    transfer.ackPending = false;
+                    break;
+            }
+        }
+
+        int system = transfer.targetSystem;
+        int component = transfer.targetComponent;
+        if (requestList) {
+            send(transfer, MissionRequestList.builder().targetSystem(system).targetComponent(component).build());
+        }
+        for (int i = 0; i < pending; i++) {
+            send(transfer, MissionRequestInt.builder().targetSystem(system).targetComponent(component)
+                    .seq(pendingSeqs[i]).build());
+        }
+        if (sendAck) {
+            System.out.println("✅ Mission downloaded on port " + transfer.port);
+            send(transfer, MissionAck.builder().targetSystem(system).targetComponent(component)
+                    .type(MavMissionResult.MAV_MISSION_ACCEPTED).build());
+        }
+    }
+
+    private int addPending(int pending, int seq) {
+        if (pending == pendingSeqs.length) {
+            pendingSeqs = Arrays.copyOf(pendingSeqs, pending * 2);
+        }
+        pendingSeqs[pending] = seq;
+        return pending + 1;
+    }
+
+    // Caller holds the transfer's lock.
+    private void backOff(Transfer transfer, long now) {
+        transfer.phase = Phase.BACKOFF;
+        transfer.retryAt = now + retryBackoffMillis;
+        transfer.inFlight = 0;
+        Arrays.fill(transfer.itemSentAt, 0L);
+    }
+
+    private void send(Transfer transfer, Object payload) {
+        InetAddress address = transfer.address;
+        UdpReplyChannel replyChannel = transfer.replyChannel;
+        if (address == null || replyChannel == null) {
+            return;
+        }
+        try {
+            encodeBuffer.reset();
+            encoder.send1(GCS_SYSTEM_ID, GCS_COMPONENT_ID, payload);
+            replyChannel.send(encodeBuffer.array(), encodeBuffer.size(), address, transfer.senderPort);
+        } catch (Exception e) {
+            System.err.println("❌ Error sending " + payload.getClass().getSimpleName() + " on port "
+                    + transfer.port + ": " + e.getMessage());
+        }
+    }
+}
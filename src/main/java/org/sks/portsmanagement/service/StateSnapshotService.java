@@ -0,0 +1,214 @@
+package org.sks.portsmanagement.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.file.*;
+import java.util.*;
+
+// Saves the live vessel state, home locations and downloaded missions to a small binary
+// file periodically and on shutdown, and loads it back before the UDP listeners start,
+// so dashboards have complete records right after a restart and missions that did not
+// change are not downloaded again.
+//
+// Layout (big-endian, DataOutputStream):
+//   i32 magic "VST1", i64 saved at ms, u16 field count, that many field keys (UTF),
+//   i32 vessel count, then per vessel:
+//     u16 port, i64 last update ms, i64 written mask (bit = index into the key table),
+//     f64 per set bit in ascending order, u8 flags (1 GCS address, 2 home, 4 mission,
+//     8 mission id), [u8 length + GCS address bytes], [f64 home lat, f64 home lon],
+//     [i32 item count, per item i32 seq, f64 lat, f64 lon, f32 alt],
+//     [u32 MISSION_COUNT opaque_id of the mission]
+// Fields are matched by key on load, so the file survives fields being added or
+// reordered.
+@Service
+public class StateSnapshotService {
+
+    private static final int MAGIC = 0x31545356; // "VST1"
+    private static final int HAS_GCS = 1;
+    private static final int HAS_HOME = 2;
+    private static final int HAS_MISSION = 4;
+    private static final int HAS_MISSION_ID = 8;
+
+    private final MavlinkMessageHandlerService messageHandlerService;
+    private final MissionTransferEngine missionTransfers;
+    private final boolean enabled;
+    private final Path file;
+
+    public StateSnapshotService(MavlinkMessageHandlerService messageHandlerService,
+                                MissionTransferEngine missionTransfers,
+                                @Value("${snapshot.enabled:true}") boolean enabled,
+                                @Value("${snapshot.file:./data/state.snap}") String file) {
+        this.messageHandlerService = messageHandlerService;
+        this.missionTransfers = missionTransfers;
+        this.enabled = enabled;
+        this.file = Paths.get(file);
+    }
+
+    @PostConstruct
+    public void load() {
+        if (!enabled || !Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                System.err.println("❌ Ignoring state snapshot " + file + ": unknown format");
+                return;
+            }
+            long savedAt = in.readLong();
+            TelemetryField[] fields = new TelemetryField[in.readUnsignedShort()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = TelemetryField.fromKey(in.readUTF());
+            }
+            int vesselCount = in.readInt();
+            int restored = 0;
+            for (int v = 0; v < vesselCount; v++) {
+                if (readVessel(in, fields)) {
+                    restored++;
+                }
+            }
+            System.out.printf("✅ Restored %d vessels from state snapshot taken %d s ago%n", restored,
+                    (System.currentTimeMillis() - savedAt) / 1000);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("❌ Cannot load state snapshot " + file + ": " + e.getMessage());
+        }
+    }
+
+    private boolean readVessel(DataInputStream in, TelemetryField[] fields) throws IOException {
+        int port = in.readUnsignedShort();
+        long lastUpdate = in.readLong();
+        long savedMask = in.readLong();
+        double[] values = new double[TelemetryField.COUNT];
+        long mask = 0;
+        for (long remaining = savedMask; remaining != 0; remaining &= remaining - 1) {
+            double value = in.readDouble();
+            TelemetryField field = fields[Long.numberOfTrailingZeros(remaining)];
+            if (field != null && field.isNumeric()) {
+                values[field.ordinal()] = value;
+                mask |= 1L << field.ordinal();
+            }
+        }
+        int flags = in.readUnsignedByte();
+        InetAddress gcsAddress = null;
+        if ((flags & HAS_GCS) != 0) {
+            byte[] address = new byte[in.readUnsignedByte()];
+            in.readFully(address);
+            gcsAddress = InetAddress.getByAddress(address);
+        }
+        Map<String, Double> home = null;
+        if ((flags & HAS_HOME) != 0) {
+            home = new HashMap<>();
+            home.put("lat", in.readDouble());
+            home.put("lon", in.readDouble());
+        }
+        List<Map<String, Object>> waypoints = null;
+        if ((flags & HAS_MISSION) != 0) {
+            int count = in.readInt();
+            waypoints = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Map<String, Object> waypoint = new LinkedHashMap<>();
+                waypoint.put("seq", in.readInt());
+                waypoint.put("lat", in.readDouble());
+                waypoint.put("lon", in.readDouble());
+                waypoint.put("alt", in.readFloat());
+                waypoints.add(waypoint);
+            }
+        }
+        long missionId = (flags & HAS_MISSION_ID) != 0 ? in.readInt() & 0xFFFFFFFFL : 0;
+        if (!messageHandlerService.restoreVessel(port, mask, values, gcsAddress, lastUpdate, home, waypoints,
+                missionId)) {
+            return false;
+        }
+        if (waypoints != null && missionId != 0) {
+            missionTransfers.cacheMission(port, waypoints.size(), missionId);
+        }
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${snapshot.interval-ms:30000}")
+    public synchronized void save() {
+        if (!enabled) {
+            return;
+        }
+        Map<Integer, VesselSnapshot> snapshots = messageHandlerService.getSnapshots();
+        if (snapshots.isEmpty()) {
+            return;
+        }
+        Map<Integer, Map<String, Double>> homes = messageHandlerService.getHomeLocations();
+        Map<Integer, List<Map<String, Object>>> missions = messageHandlerService.getWaypoints();
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeLong(System.currentTimeMillis());
+                out.writeShort(TelemetryField.COUNT);
+                for (TelemetryField field : TelemetryField.VALUES) {
+                    out.writeUTF(field.key());
+                }
+                out.writeInt(snapshots.size());
+                for (VesselSnapshot snapshot : snapshots.values()) {
+                    List<Map<String, Object>> waypoints = missions.get(snapshot.getPort());
+                    writeVessel(out, snapshot, homes.get(snapshot.getPort()), waypoints,
+                            waypoints != null ? messageHandlerService.getMissionId(snapshot.getPort(), waypoints) : 0);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("❌ Cannot write state snapshot " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static void writeVessel(DataOutputStream out, VesselSnapshot snapshot, Map<String, Double> home,
+                                    List<Map<String, Object>> waypoints, long missionId) throws IOException {
+        out.writeShort(snapshot.getPort());
+        out.writeLong(snapshot.getLastUpdateMillis());
+        long mask = 0;
+        for (TelemetryField field : TelemetryField.VALUES) {
+            if (field.isNumeric() && snapshot.isWritten(field)) {
+                mask |= 1L << field.ordinal();
+            }
+        }
+        out.writeLong(mask);
+        for (long remaining = mask; remaining != 0; remaining &= remaining - 1) {
+            out.writeDouble(snapshot.get(TelemetryField.VALUES[Long.numberOfTrailingZeros(remaining)]));
+        }
+        InetAddress gcsAddress = snapshot.getGcsAddress();
+        int flags = (gcsAddress != null ? HAS_GCS : 0) | (home != null ? HAS_HOME : 0)
+                | (waypoints != null ? HAS_MISSION : 0) | (waypoints != null && missionId != 0 ? HAS_MISSION_ID : 0);
+        out.writeByte(flags);
+        if (gcsAddress != null) {
+            byte[] address = gcsAddress.getAddress();
+            out.writeByte(address.length);
+            out.write(address);
+        }
+        if (home != null) {
+            out.writeDouble(home.get("lat"));
+            out.writeDouble(home.get("lon"));
+        }
+        if (waypoints != null) {
+            out.writeInt(waypoints.size());
+            for (Map<String, Object> waypoint : waypoints) {
+                out.writeInt(((Number) waypoint.get("seq")).intValue());
+                out.writeDouble(((Number) waypoint.get("lat")).doubleValue());
+                out.writeDouble(((Number) waypoint.get("lon")).doubleValue());
+                out.writeFloat(((Number) waypoint.get("alt")).floatValue());
+            }
+            if (missionId != 0) {
+                out.writeInt((int) missionId);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void saveOnShutdown() {
+        save();
+    }
+}
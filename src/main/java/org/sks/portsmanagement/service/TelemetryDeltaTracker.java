@@ -0,0 +1,120 @@
+package org.sks.portsmanagement.service;
+
+import java.util.*;
+
+// Computes the per-tick changes for delta-mode telemetry clients. The diff is worked out
+// once per tick against the previous tick's records and shared by every delta session
+// that is in sync; a session that joins (or falls behind) is sent the full snapshot
+// from the same frame and is in sync from the next tick on.
+public class TelemetryDeltaTracker {
+
+    // Refreshed every tick, so it is carried once in the envelope instead of per vessel.
+    private static final String TIMESTAMP_KEY = "timestamp";
+    private static final String PORT_KEY = TelemetryField.PORT.key();
+    private static final String WAYPOINTS_KEY = TelemetryField.WAYPOINTS.key();
+
+    private Map<Integer, Map<String, Object>> previous = Map.of();
+    // Waypoint lists grow in place as items arrive, so compare by identity and size
+    // rather than by deep equality against a stale copy.
+    private final Map<Integer, List<?>> sentWaypoints = new HashMap<>();
+    private final Map<Integer, Integer> sentWaypointCounts = new HashMap<>();
+    private long sequence;
+
+    public static final class Frame {
+        private final Map<String, Object> snapshot;
+        private final Map<String, Object> delta;
+
+        Frame(Map<String, Object> snapshot, Map<String, Object> delta) {
+            this.snapshot = snapshot;
+            this.delta = delta;
+        }
+
+        // Full state for clients that are not in sync yet.
+        public Map<String, Object> getSnapshot() {
+            return snapshot;
+        }
+
+        // Changes since the previous frame, or null when nothing changed.
+        public Map<String, Object> getDelta() {
+            return delta;
+        }
+    }
+
+    public synchronized Frame advance(Map<Integer, Map<String, Object>> current, String timestamp) {
+        sequence++;
+
+        List<Map<String, Object>> changedVessels = new ArrayList<>();
+        for (Map.Entry<Integer, Map<String, Object>> entry : current.entrySet()) {
+            Map<String, Object> changes = diff(entry.getKey(), previous.get(entry.getKey()), entry.getValue());
+            if (changes != null) {
+                changedVessels.add(changes);
+            }
+        }
+
+        List<Integer> removed = new ArrayList<>();
+        for (Integer port : previous.keySet()) {
+            if (!current.containsKey(port)) {
+                removed.add(port);
+                sentWaypoints.remove(port);
+                sentWaypointCounts.remove(port);
+            }
+        }
+        previous = current;
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("type", "snapshot");
+        snapshot.put("seq", sequence);
+        snapshot.put(TIMESTAMP_KEY, timestamp);
+        snapshot.put("drones", new ArrayList<>(current.values()));
+
+        Map<String, Object> delta = null;
+        if (!changedVessels.isEmpty() || !removed.isEmpty()) {
+            delta = new LinkedHashMap<>();
+            delta.put("type", "delta");
+            delta.put("seq", sequence);
+            delta.put(TIMESTAMP_KEY, timestamp);
+            delta.put("drones", changedVessels);
+            if (!removed.isEmpty()) {
+                delta.put("removed", removed);
+            }
+        }
+        return new Frame(snapshot, delta);
+    }
+
+    // Changed fields of one vessel keyed like the full record, always including "port";
+    // null when nothing changed.
+    private Map<String, Object> diff(Integer port, Map<String, Object> before, Map<String, Object> after) {
+        Map<String, Object> changes = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> field : after.entrySet()) {
+            String key = field.getKey();
+            if (TIMESTAMP_KEY.equals(key) || PORT_KEY.equals(key)) {
+                continue;
+            }
+            if (WAYPOINTS_KEY.equals(key)) {
+                if (waypointsChanged(port, (List<?>) field.getValue())) {
+                    changes.put(key, field.getValue());
+                }
+            } else if (before == null || !Objects.equals(before.get(key), field.getValue())) {
+                changes.put(key, field.getValue());
+            }
+        }
+        if (changes.isEmpty()) {
+            return null;
+        }
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put(PORT_KEY, port);
+        record.putAll(changes);
+        return record;
+    }
+
+    private boolean waypointsChanged(Integer port, List<?> waypoints) {
+        int count = waypoints != null ? waypoints.size() : -1;
+        boolean known = sentWaypointCounts.containsKey(port);
+        if (known && sentWaypoints.get(port) == waypoints && sentWaypointCounts.get(port) == count) {
+            return false;
+        }
+        sentWaypoints.put(port, waypoints);
+        sentWaypointCounts.put(port, count);
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+package org.sks.portsmanagement.service;
+
+// Schema of a vessel telemetry record, in the order the fields appear in the JSON sent
+// to dashboards. Numeric fields live in a flat double[] slot per vessel (see VesselState)
+// and are only turned into their JSON representation when a snapshot is serialized.
+public enum TelemetryField {
+    PORT("port", Kind.INT, 0.0),
+    GCS_IP("GCS_IP", Kind.REFERENCE, "Unknown"),
+    SYSTEM_ID("system_id", Kind.INT, "Unknown"),
+    LAT("lat", Kind.DOUBLE, 0.0),
+    LON("lon", Kind.DOUBLE, 0.0),
+    ALT("alt", Kind.DOUBLE, 0.0),
+    DIST_TRAVELED("dist_traveled", Kind.DOUBLE, 0.0),
+    WP_DIST("wp_dist", Kind.INT, 0),
+    DIST_TO_HOME("dist_to_home", Kind.DOUBLE, 0.0),
+    VERTICAL_SPEED("vertical_speed", Kind.FLOAT, 0.0),
+    GROUND_SPEED("ground_speed", Kind.FLOAT, 0.0),
+    WIND_VEL("wind_vel", Kind.FLOAT, 0.0),
+    AIRSPEED("airspeed", Kind.FLOAT, 0.0),
+    GPS_HDOP("gps_hdop", Kind.DOUBLE, 0.0),
+    ROLL("roll", Kind.DEGREES_2DP, 0.0),
+    PITCH("pitch", Kind.DEGREES_2DP, 0.0),
+    YAW("yaw", Kind.DEGREES_2DP, 0.0),
+    CH3PERCENT("ch3percent", Kind.SERVO_PERCENT_2DP, 0.0),
+    CH9OUT("ch9out", Kind.INT, 0.0),
+    TOT("tot", Kind.ROUND_2DP, 0.0),
+    TOH("toh", Kind.ROUND_2DP, 0.0),
+    TIME_IN_AIR("time_in_air", Kind.ROUND_2DP, 0.0),
+    CH10OUT("ch10out", Kind.INT, 0.0),
+    CH11OUT("ch11out", Kind.INT, 0.0),
+    CH12OUT("ch12out", Kind.INT, 0.0),
+    BATTERY_VOLTAGE("battery_voltage", Kind.INT, 0),
+    BATTERY_CURRENT("battery_current", Kind.INT, 0.0),
+    WAYPOINTS_COUNT("waypoints_count", Kind.INT, 0),
+    HOME_LOCATION("home_location", Kind.REFERENCE, null),
+    WAYPOINTS("waypoints", Kind.REFERENCE, null),
+    // Only reported once SERVO_OUTPUT_RAW has been seen.
+    CH3OUT("ch3out", Kind.INT, null);
+
+    // How a raw slot value is rendered into JSON.
+    public enum Kind {
+        INT,
+        FLOAT,
+        DOUBLE,
+        // Seconds and the like, rounded to two decimals.
+        ROUND_2DP,
+        // Radians rendered as a "%.2f" degrees string.
+        DEGREES_2DP,
+        // Raw PWM (1000-2000) rendered as a "%.2f" percentage string.
+        SERVO_PERCENT_2DP,
+        // Not a numeric slot; supplied by the owning VesselState.
+        REFERENCE
+    }
+
+    public static final TelemetryField[] VALUES = values();
+    public static final int COUNT = VALUES.length;
+
+    private final String key;
+    private final Kind kind;
+    // Value reported before the field has ever been written; null omits the field.
+    private final Object initial;
+
+    TelemetryField(String key, Kind kind, Object initial) {
+        this.key = key;
+        this.kind = kind;
+        this.initial = initial;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    public Object initial() {
+        return initial;
+    }
+
+    public boolean isNumeric() {
+        return kind != Kind.REFERENCE;
+    }
+
+    // Looks a field up by its JSON key; null if there is none.
+    public static TelemetryField fromKey(String key) {
+        for (TelemetryField field : VALUES) {
+            if (field.key.equals(key)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    // The value in the units the JSON shows (degrees, percent), as a plain number for
+    // charts and history queries.
+    public double toDisplayNumber(double value) {
+        switch (kind) {
+            case DEGREES_2DP:
+                return Math.toDegrees(value);
+            case SERVO_PERCENT_2DP:
+                return ((value - 1000.0) / 1000.0) * 100;
+            default:
+                return value;
+        }
+    }
+
+    public Object render(double value) {
+        switch (kind) {
+            case INT:
+                return (int) value;
+            case FLOAT:
+                return (float) value;
+            case ROUND_2DP:
+                return Math.round(value * 100.0) / 100.0;
+            case DEGREES_2DP:
+                return String.format("%.2f", Math.toDegrees(value));
+            case SERVO_PERCENT_2DP:
+                return String.format("%.2f", ((value - 1000.0) / 1000.0) * 100);
+            default:
+                return value;
+        }
+    }
+}
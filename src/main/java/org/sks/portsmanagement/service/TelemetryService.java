@@ -1,64 +1,214 @@
 package org.sks.portsmanagement.service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.sks.portsmanagement.metrics.LinkQualityMonitor;
+import org.sks.portsmanagement.metrics.TelemetryMetrics;
 import org.sks.portsmanagement.wsconfig.TelemetryWebSocketHandler;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 @Service
 public class TelemetryService {
 
     private final MavlinkMessageHandlerService messageHandlerService;
+    private final TelemetryMetrics metrics;
+    private final LinkQualityMonitor linkQualityMonitor;
+    private final TelemetryWebSocketHandler telemetryHandler;
     // Timeout period in milliseconds (5 seconds)
     private final long TELEMETRY_TIMEOUT_MS = 5000;
     // A formatter to update the timestamp field.
     private final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    // Per-tick changes for clients connected with ?mode=delta.
+    private final TelemetryDeltaTracker deltaTracker = new TelemetryDeltaTracker();
 
-    public TelemetryService(MavlinkMessageHandlerService messageHandlerService) {
+    // "tick": everything is pushed once a second. "event": vessel updates wake a push
+    // thread that flushes what changed, at most maxPushRate times a second; idle
+    // vessels produce no traffic.
+    private final boolean eventDriven;
+    private final long minPushIntervalMillis;
+    private final AtomicBoolean updatePending = new AtomicBoolean();
+    private volatile boolean running;
+    private Thread pushThread;
+
+    // Rendered records and the vessel version they were rendered from, so an event push
+    // only re-renders vessels that changed. Touched only by the pushing thread.
+    private final Map<Integer, Long> pushedVersions = new HashMap<>();
+    private final Map<Integer, Map<String, Object>> renderedRecords = new HashMap<>();
+    private Set<Integer> visiblePorts = Set.of();
+
+    public TelemetryService(MavlinkMessageHandlerService messageHandlerService,
+                            TelemetryMetrics metrics,
+                            LinkQualityMonitor linkQualityMonitor,
+                            TelemetryWebSocketHandler telemetryHandler,
+                            @Value("${telemetry.push.mode:tick}") String pushMode,
+                            @Value("${telemetry.push.max-rate:20}") double maxPushRate) {
         this.messageHandlerService = messageHandlerService;
+        this.metrics = metrics;
+        this.linkQualityMonitor = linkQualityMonitor;
+        this.telemetryHandler = telemetryHandler;
+        this.eventDriven = "event".equalsIgnoreCase(pushMode.trim());
+        this.minPushIntervalMillis = (long) (1000.0 / Math.max(0.1, maxPushRate));
+    }
+
+    @PostConstruct
+    public void startPushThread() {
+        if (!eventDriven) {
+            return;
+        }
+        running = true;
+        pushThread = new Thread(this::runPushLoop, "telemetry-push");
+        pushThread.setDaemon(true);
+        pushThread.start();
+        messageHandlerService.setUpdateListener(this::signalUpdate);
+        System.out.printf("✅ Event-driven telemetry push enabled (max %d ms between pushes)%n", minPushIntervalMillis);
+    }
+
+    @PreDestroy
+    public void stopPushThread() {
+        running = false;
+        messageHandlerService.setUpdateListener(null);
+        if (pushThread != null) {
+            pushThread.interrupt();
+        }
     }
 
-    // This method runs every second.
+    // Called on the receive threads; only the first update after a push pays for the unpark.
+    private void signalUpdate() {
+        if (!updatePending.get() && updatePending.compareAndSet(false, true)) {
+            LockSupport.unpark(pushThread);
+        }
+    }
+
+    // Waits for an update (or for a rate-limited session to become due), then pushes,
+    // never more often than minPushIntervalMillis. Updates arriving in between are
+    // coalesced into the next push.
+    private void runPushLoop() {
+        long lastPush = 0;
+        long nextDue = Long.MAX_VALUE;
+        while (running) {
+            long now = System.currentTimeMillis();
+            if (!updatePending.get() && now < nextDue) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.min(nextDue - now, 1000)));
+                continue;
+            }
+            long wait = lastPush + minPushIntervalMillis - now;
+            if (wait > 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(wait));
+                continue;
+            }
+            updatePending.set(false);
+            lastPush = now;
+            try {
+                nextDue = push(now);
+            } catch (RuntimeException e) {
+                nextDue = Long.MAX_VALUE;
+                System.err.println("❌ Telemetry push failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // This method runs every second. In event mode it only expires silent vessels and
+    // lets the push thread tell clients about them.
     @Scheduled(fixedRate = 1000)
     public void printAndSendTelemetry() {
         long now = System.currentTimeMillis();
         // Remove ports that haven't been updated within the timeout period.
+        messageHandlerService.expireInactivePorts(now, TELEMETRY_TIMEOUT_MS);
+        // Link loss and jitter go out in either mode, so a vessel that is about to time
+        // out shows why.
+        List<Map<String, Object>> links = linkQualityMonitor.getReport();
+        if (!links.isEmpty()) {
+            telemetryHandler.sendLinkQuality(links, now);
+        }
+        if (eventDriven) {
+            if (!visiblePorts.isEmpty()) {
+                signalUpdate();
+            }
+            return;
+        }
+        push(now);
+    }
+
+    // Builds one TelemetryTick from the current vessel state and hands it to the
+    // WebSocket layer. Returns when a rate-limited session next becomes due.
+    private synchronized long push(long now) {
+        long started = System.nanoTime();
+        try {
+            return buildAndSend(now, started);
+        } finally {
+            metrics.pushed(System.nanoTime() - started);
+        }
+    }
+
+    private long buildAndSend(long now, long started) {
         Set<Integer> activePorts = messageHandlerService.getActivePorts();
-        activePorts.removeIf(port -> {
-            Long lastUpdate = messageHandlerService.getLastTelemetryUpdate(port);
-            return lastUpdate == null || (now - lastUpdate > TELEMETRY_TIMEOUT_MS);
-        });
 
         // Retrieve telemetry data only for active ports.
-        LinkedHashMap<Integer, LinkedHashMap<String, Object>> telemetryData = messageHandlerService.getTelemetryData();
+        Map<Integer, VesselSnapshot> snapshots = messageHandlerService.getSnapshots();
 
         // Update the timestamp for each active port so that it appears fresh per second.
+        // Only ports with a valid GCS_IP are sent.
+        String timestamp = timestampFormat.format(new Date(now));
+        Map<Integer, Map<String, Object>> visible = new LinkedHashMap<>();
+        List<VesselSnapshot> visibleSnapshots = new ArrayList<>();
+        Set<Integer> changedPorts = eventDriven ? new HashSet<>() : null;
         for (Integer port : activePorts) {
-            Map<String, Object> data = telemetryData.get(port);
-            if (data != null) {
-                data.put("timestamp", timestampFormat.format(new Date()));
+            VesselSnapshot snapshot = snapshots.get(port);
+            if (snapshot != null && snapshot.getGcsAddress() != null) {
+                Map<String, Object> data;
+                if (eventDriven) {
+                    Long pushed = pushedVersions.get(port);
+                    if (pushed == null || pushed != snapshot.getVersion()) {
+                        pushedVersions.put(port, snapshot.getVersion());
+                        renderedRecords.put(port, messageHandlerService.toTelemetryData(snapshot));
+                        changedPorts.add(port);
+                    }
+                    data = new LinkedHashMap<>(renderedRecords.get(port));
+                } else {
+                    data = messageHandlerService.toTelemetryData(snapshot);
+                }
+                data.put("timestamp", timestamp);
+                visible.put(port, data);
+                visibleSnapshots.add(snapshot);
             }
         }
 
+        Set<Integer> removedPorts = new HashSet<>(visiblePorts);
+        removedPorts.removeAll(visible.keySet());
+        visiblePorts = new HashSet<>(visible.keySet());
+        pushedVersions.keySet().removeAll(removedPorts);
+        renderedRecords.keySet().removeAll(removedPorts);
+        if (eventDriven && changedPorts.isEmpty() && removedPorts.isEmpty()) {
+            // Woken only to serve rate-limited sessions; nothing new for the delta chain.
+            return telemetryHandler.sendPending(now);
+        }
+
         // Print telemetry data in a table format with columns for each active port.
-//        printTelemetryTable(telemetryData, activePorts);
+//        printTelemetryTable(messageHandlerService.getTelemetryData(), activePorts);
 
-        // Build a list of telemetry data to send (only for ports with a valid GCS_IP)
-        List<Map<String, Object>> telemetryList = new ArrayList<>();
-        for (Integer port : activePorts) {
-            Map<String, Object> data = telemetryData.get(port);
-            if (data != null && !"Unknown".equals(data.get("GCS_IP"))) {
-                telemetryList.add(data);
-            }
-        }
+        List<Map<String, Object>> telemetryList = new ArrayList<>(visible.values());
+        Map<String, Object> payload = null;
         if (!telemetryList.isEmpty()) {
-            Map<String, Object> payload = new HashMap<>();
-            System.out.println(telemetryList);
+            payload = new HashMap<>();
+            if (!eventDriven) {
+                System.out.println(telemetryList);
+            }
             payload.put("drones", telemetryList);
-            TelemetryWebSocketHandler.sendTelemetryData(payload);
         }
+        // Delta clients also need to hear about vessels that went away, so the frame is
+        // produced even when nothing is active.
+        TelemetryDeltaTracker.Frame frame = deltaTracker.advance(visible, timestamp);
+        return telemetryHandler.sendTelemetryData(new TelemetryTick(now, started, payload, frame, visibleSnapshots,
+                messageHandlerService.getHomeLocations(), messageHandlerService.getWaypoints(),
+                changedPorts, removedPorts));
     }
 
     // Helper method to print telemetry data in table format.
@@ -0,0 +1,84 @@
+package org.sks.portsmanagement.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Everything one broadcast tick produces, handed to the WebSocket layer so each
+// session can be served in the encoding it negotiated.
+public final class TelemetryTick {
+
+    private final long timestampMillis;
+    // System.nanoTime() when the push started rendering this tick.
+    private final long serializedNanos;
+    private final Map<String, Object> fullPayload;
+    private final TelemetryDeltaTracker.Frame deltaFrame;
+    private final List<VesselSnapshot> vessels;
+    private final Map<Integer, Map<String, Double>> homeLocations;
+    private final Map<Integer, List<Map<String, Object>>> waypoints;
+    private final Set<Integer> changedPorts;
+    private final Set<Integer> removedPorts;
+
+    public TelemetryTick(long timestampMillis, long serializedNanos,
+                         Map<String, Object> fullPayload, TelemetryDeltaTracker.Frame deltaFrame,
+                         List<VesselSnapshot> vessels, Map<Integer, Map<String, Double>> homeLocations,
+                         Map<Integer, List<Map<String, Object>>> waypoints,
+                         Set<Integer> changedPorts, Set<Integer> removedPorts) {
+        this.timestampMillis = timestampMillis;
+        this.serializedNanos = serializedNanos;
+        this.fullPayload = fullPayload;
+        this.deltaFrame = deltaFrame;
+        this.vessels = vessels;
+        this.homeLocations = homeLocations;
+        this.waypoints = waypoints;
+        this.changedPorts = changedPorts;
+        this.removedPorts = removedPorts;
+    }
+
+    // True for pushes triggered by vessel updates; false for the fixed-rate tick, which
+    // every session receives regardless of what changed.
+    public boolean isEventDriven() {
+        return changedPorts != null;
+    }
+
+    // Visible vessels updated (or newly visible) since the previous event-driven push;
+    // null for the fixed-rate tick.
+    public Set<Integer> getChangedPorts() {
+        return changedPorts;
+    }
+
+    // Vessels that stopped being visible since the previous push.
+    public Set<Integer> getRemovedPorts() {
+        return removedPorts;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public long getSerializedNanos() {
+        return serializedNanos;
+    }
+
+    // The legacy {"drones": [...]} payload, or null when no vessel is visible.
+    public Map<String, Object> getFullPayload() {
+        return fullPayload;
+    }
+
+    public TelemetryDeltaTracker.Frame getDeltaFrame() {
+        return deltaFrame;
+    }
+
+    // Consistent snapshots of the vessels in the full payload, in the same order.
+    public List<VesselSnapshot> getVessels() {
+        return vessels;
+    }
+
+    public Map<String, Double> getHomeLocation(int port) {
+        return homeLocations.get(port);
+    }
+
+    public List<Map<String, Object>> getWaypoints(int port) {
+        return waypoints.get(port);
+    }
+}
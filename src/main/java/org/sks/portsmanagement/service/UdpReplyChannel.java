@@ -0,0 +1,30 @@
+package org.sks.portsmanagement.service;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+// Outbound side of the UDP endpoint a message arrived on. Replies (mission requests,
+// rejection notices) must leave from the same local port, whether the listener is a
+// blocking DatagramSocket or a non-blocking DatagramChannel owned by a selector loop.
+@FunctionalInterface
+public interface UdpReplyChannel {
+
+    void send(byte[] data, int length, InetAddress address, int port) throws IOException;
+
+    static UdpReplyChannel of(DatagramSocket socket) {
+        return (data, length, address, port) ->
+                socket.send(new DatagramPacket(data, length, address, port));
+    }
+
+    // A non-blocking channel may refuse the datagram when the send buffer is full;
+    // like any other UDP loss the caller is expected to cope with that.
+    static UdpReplyChannel of(DatagramChannel channel) {
+        return (data, length, address, port) ->
+                channel.send(ByteBuffer.wrap(data, 0, length), new InetSocketAddress(address, port));
+    }
+}
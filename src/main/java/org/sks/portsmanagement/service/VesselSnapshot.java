@@ -0,0 +1,101 @@
+package org.sks.portsmanagement.service;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Immutable, internally consistent copy of a VesselState taken by VesselState.snapshot().
+// All fields come from the same completed update, so lat/lon and friends never mix fixes.
+public final class VesselSnapshot {
+
+    private final int port;
+    private final long version;
+    private final long writtenMask;
+    private final double[] values;
+    private final InetAddress gcsAddress;
+    private final long lastUpdateMillis;
+    private final long receivedNanos;
+    private final long updatedNanos;
+    private final long traceId;
+
+    VesselSnapshot(int port, long version, long writtenMask, double[] values,
+                   InetAddress gcsAddress, long lastUpdateMillis,
+                   long receivedNanos, long updatedNanos, long traceId) {
+        this.port = port;
+        this.version = version;
+        this.writtenMask = writtenMask;
+        this.values = values;
+        this.gcsAddress = gcsAddress;
+        this.lastUpdateMillis = lastUpdateMillis;
+        this.receivedNanos = receivedNanos;
+        this.updatedNanos = updatedNanos;
+        this.traceId = traceId;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    // Number of completed updates to the vessel; increases monotonically.
+    public long getVersion() {
+        return version;
+    }
+
+    public long getLastUpdateMillis() {
+        return lastUpdateMillis;
+    }
+
+    // System.nanoTime() when the datagram behind the latest update arrived; 0 if unknown.
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    // System.nanoTime() when the latest update was complete; 0 if unknown.
+    public long getUpdatedNanos() {
+        return updatedNanos;
+    }
+
+    // Latest sampled trace that updated the vessel, or 0.
+    public long getTraceId() {
+        return traceId;
+    }
+
+    public InetAddress getGcsAddress() {
+        return gcsAddress;
+    }
+
+    public boolean isWritten(TelemetryField field) {
+        return (writtenMask & (1L << field.ordinal())) != 0;
+    }
+
+    public double get(TelemetryField field) {
+        return values[field.ordinal()];
+    }
+
+    // Renders the record with the same keys, order and value types the dashboards
+    // have always received.
+    public LinkedHashMap<String, Object> toMap(Map<String, Double> homeLocation, List<Map<String, Object>> waypoints) {
+        LinkedHashMap<String, Object> data = new LinkedHashMap<>();
+        for (TelemetryField field : TelemetryField.VALUES) {
+            switch (field) {
+                case GCS_IP:
+                    data.put(field.key(), gcsAddress != null ? gcsAddress.getHostAddress() : field.initial());
+                    break;
+                case HOME_LOCATION:
+                    data.put(field.key(), homeLocation);
+                    break;
+                case WAYPOINTS:
+                    data.put(field.key(), waypoints);
+                    break;
+                default:
+                    if (isWritten(field)) {
+                        data.put(field.key(), field.render(values[field.ordinal()]));
+                    } else if (field.initial() != null) {
+                        data.put(field.key(), field.initial());
+                    }
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,187 @@
+package org.sks.portsmanagement.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.InetAddress;
+
+// Live state of one vessel (one UDP port). Updated in place by the receive thread for
+// that port without boxing or formatting; values are only rendered when a snapshot is
+// taken for the dashboards.
+//
+// Publication is a seqlock: a writer moves the sequence to odd, updates the fields and
+// release-stores the next even value. Readers copy optimistically and retry if the
+// sequence moved, so they never block the receive path and never see a torn record.
+public final class VesselState {
+
+    private static final VarHandle SEQUENCE;
+
+    static {
+        try {
+            SEQUENCE = MethodHandles.lookup().findVarHandle(VesselState.class, "sequence", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final int port;
+    // Only accessed through SEQUENCE.
+    private long sequence;
+    private final double[] values = new double[TelemetryField.COUNT];
+    // Bit per TelemetryField ordinal that has been written at least once.
+    private long writtenMask;
+    // Fields written by the update in progress; writer only.
+    private long updateMask;
+    private InetAddress gcsAddress;
+    // System.nanoTime() of the datagram behind the latest update and of that update's
+    // completion; 0 for state restored from a snapshot. traceId is the latest sampled
+    // trace (LatencyTracer) that updated this vessel, or 0.
+    private long receivedNanos;
+    private long updatedNanos;
+    private long traceId;
+
+    // From the latest HEARTBEAT's base_mode; writer only.
+    private boolean armed;
+
+    // Home position from mission item 0, kept primitive for the per-fix distance check.
+    private double homeLat;
+    private double homeLon;
+
+    private volatile long lastUpdateMillis;
+    private volatile boolean active;
+
+    VesselState(int port) {
+        this.port = port;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    // Opens an update. There is one writer at a time per port (handleMessage holds the
+    // vessel's monitor); the CAS additionally keeps restore() from racing it.
+    void beginWrite() {
+        while (true) {
+            long current = (long) SEQUENCE.getAcquire(this);
+            if ((current & 1) == 0 && SEQUENCE.compareAndSet(this, current, current + 1)) {
+                updateMask = 0;
+                return;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    void endWrite() {
+        SEQUENCE.setRelease(this, (long) SEQUENCE.getOpaque(this) + 1);
+    }
+
+    // Consistent copy of the record; never blocks writers.
+    public VesselSnapshot snapshot() {
+        double[] copy = new double[TelemetryField.COUNT];
+        while (true) {
+            long before = (long) SEQUENCE.getAcquire(this);
+            if ((before & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            System.arraycopy(values, 0, copy, 0, copy.length);
+            long mask = writtenMask;
+            InetAddress gcs = gcsAddress;
+            long received = receivedNanos;
+            long updated = updatedNanos;
+            long trace = traceId;
+            VarHandle.acquireFence();
+            if ((long) SEQUENCE.getOpaque(this) == before) {
+                return new VesselSnapshot(port, before >>> 1, mask, copy, gcs, lastUpdateMillis,
+                        received, updated, trace);
+            }
+        }
+    }
+
+    // Puts back state saved before a restart. Only used before the vessel has seen
+    // traffic of its own.
+    void restore(long mask, double[] restored, InetAddress gcs, long lastUpdate) {
+        beginWrite();
+        try {
+            System.arraycopy(restored, 0, values, 0, values.length);
+            writtenMask = mask;
+            gcsAddress = gcs;
+            lastUpdateMillis = lastUpdate;
+        } finally {
+            endWrite();
+        }
+    }
+
+    // Writer only, inside beginWrite/endWrite, which is where MessageTypeHandlers run.
+    public void set(TelemetryField field, double value) {
+        values[field.ordinal()] = value;
+        writtenMask |= 1L << field.ordinal();
+        updateMask |= 1L << field.ordinal();
+    }
+
+    // Writer only, inside beginWrite/endWrite: what this update has written so far and
+    // the live slots, for recorders that copy them without allocating.
+    long getUpdateMask() {
+        return updateMask;
+    }
+
+    double[] values() {
+        return values;
+    }
+
+    public double get(TelemetryField field) {
+        return values[field.ordinal()];
+    }
+
+    void setGcsAddress(InetAddress gcsAddress) {
+        this.gcsAddress = gcsAddress;
+    }
+
+    void setReceivedNanos(long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+    }
+
+    void setUpdatedNanos(long updatedNanos) {
+        this.updatedNanos = updatedNanos;
+    }
+
+    void setTraceId(long traceId) {
+        this.traceId = traceId;
+    }
+
+    void setHome(double lat, double lon) {
+        this.homeLat = lat;
+        this.homeLon = lon;
+    }
+
+    public boolean isArmed() {
+        return armed;
+    }
+
+    public void setArmed(boolean armed) {
+        this.armed = armed;
+    }
+
+    public double getHomeLat() {
+        return homeLat;
+    }
+
+    public double getHomeLon() {
+        return homeLon;
+    }
+
+    long getLastUpdateMillis() {
+        return lastUpdateMillis;
+    }
+
+    void setLastUpdateMillis(long lastUpdateMillis) {
+        this.lastUpdateMillis = lastUpdateMillis;
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    void setActive(boolean active) {
+        this.active = active;
+    }
+}
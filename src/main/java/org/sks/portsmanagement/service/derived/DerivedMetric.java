@@ -0,0 +1,36 @@
+package org.sks.portsmanagement.service.derived;
+
+import org.sks.portsmanagement.service.TelemetryField;
+import org.sks.portsmanagement.service.VesselState;
+
+// A telemetry field computed from other fields rather than read from a message, kept
+// up to date incrementally. Metrics are Spring beans; after each message handler the
+// DerivedMetricsEngine runs, in @Order, every metric whose inputs the update wrote,
+// so a metric may use the outputs of the ones before it. Adding a derived field is
+// one more bean.
+//
+// S is the metric's per-vessel accumulator, created on the vessel's first update and
+// only touched under the vessel's monitor.
+public interface DerivedMetric<S> {
+
+    // Bit per TelemetryField ordinal (see mask()); the metric runs when an update wrote
+    // any of them. EVERY_UPDATE runs it on every message, heartbeats included.
+    long EVERY_UPDATE = -1L;
+
+    long inputs();
+
+    S newState();
+
+    // Runs with the vessel's update open; reads the inputs from the vessel and sets the
+    // derived fields. updated holds the fields this update has written so far and
+    // nowMillis is its timestamp.
+    void update(VesselState vessel, S state, long updated, long nowMillis);
+
+    static long mask(TelemetryField... fields) {
+        long mask = 0;
+        for (TelemetryField field : fields) {
+            mask |= 1L << field.ordinal();
+        }
+        return mask;
+    }
+}
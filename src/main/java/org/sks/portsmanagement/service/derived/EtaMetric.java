@@ -0,0 +1,62 @@
+package org.sks.portsmanagement.service.derived;
+
+import org.sks.portsmanagement.service.VesselState;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import static org.sks.portsmanagement.service.TelemetryField.*;
+
+// tot / toh: seconds to the active waypoint and to home at the current pace. The pace
+// is ground speed smoothed exponentially over smoothing-s, so one gust or wave does not
+// swing the ETA; below MIN_SPEED_MPS the vessel is treated as stopped and both are 0.
+// Recomputed whenever the speed or either distance changes.
+@Component
+@Order(40)
+public class EtaMetric implements DerivedMetric<EtaMetric.Pace> {
+
+    private static final long INPUTS = DerivedMetric.mask(GROUND_SPEED, WP_DIST, DIST_TO_HOME);
+    private static final long SPEED = DerivedMetric.mask(GROUND_SPEED);
+    private static final double MIN_SPEED_MPS = 0.1;
+
+    static final class Pace {
+        boolean set;
+        double speed;
+        long millis;
+    }
+
+    private final double smoothingMillis;
+
+    public EtaMetric(@Value("${derived.eta.smoothing-s:10}") double smoothingSeconds) {
+        this.smoothingMillis = smoothingSeconds * 1000.0;
+    }
+
+    @Override
+    public long inputs() {
+        return INPUTS;
+    }
+
+    @Override
+    public Pace newState() {
+        return new Pace();
+    }
+
+    @Override
+    public void update(VesselState vessel, Pace pace, long updated, long nowMillis) {
+        if ((updated & SPEED) != 0) {
+            double groundSpeed = vessel.get(GROUND_SPEED);
+            if (!pace.set || smoothingMillis <= 0) {
+                pace.speed = groundSpeed;
+                pace.set = true;
+            } else {
+                double alpha = 1 - Math.exp(-Math.max(nowMillis - pace.millis, 0) / smoothingMillis);
+                pace.speed += alpha * (groundSpeed - pace.speed);
+            }
+            pace.millis = nowMillis;
+        }
+        double speed = pace.speed;
+        // Rounded to two decimals when rendered.
+        vessel.set(TOT, speed >= MIN_SPEED_MPS ? (int) vessel.get(WP_DIST) / speed : 0);
+        vessel.set(TOH, speed >= MIN_SPEED_MPS ? vessel.get(DIST_TO_HOME) / speed : 0);
+    }
+}
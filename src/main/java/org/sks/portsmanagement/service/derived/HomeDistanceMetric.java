@@ -0,0 +1,32 @@
+package org.sks.portsmanagement.service.derived;
+
+import org.sks.portsmanagement.service.VesselState;
+import org.sks.portsmanagement.utils.GeoDistance;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import static org.sks.portsmanagement.service.TelemetryField.*;
+
+// dist_to_home: metres from the latest fix to the home position (mission item 0).
+@Component
+@Order(10)
+public class HomeDistanceMetric implements DerivedMetric<Void> {
+
+    private static final long INPUTS = DerivedMetric.mask(LAT, LON);
+
+    @Override
+    public long inputs() {
+        return INPUTS;
+    }
+
+    @Override
+    public Void newState() {
+        return null;
+    }
+
+    @Override
+    public void update(VesselState vessel, Void state, long updated, long nowMillis) {
+        vessel.set(DIST_TO_HOME, GeoDistance.meters(vessel.get(LAT), vessel.get(LON),
+                vessel.getHomeLat(), vessel.getHomeLon()));
+    }
+}
@@ -0,0 +1,72 @@
+package org.sks.portsmanagement.service.derived;
+
+import org.sks.portsmanagement.service.VesselState;
+import org.sks.portsmanagement.utils.GeoDistance;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import static org.sks.portsmanagement.service.TelemetryField.*;
+
+// dist_traveled: metres covered, summed fix to fix. A fix only counts once it is
+// min-step metres from the last counted one, so GPS noise around a moored vessel does
+// not add up; a step faster than max-speed is a glitch and moves the anchor without
+// counting. The total continues from a restored snapshot.
+@Component
+@Order(20)
+public class OdometryMetric implements DerivedMetric<OdometryMetric.Anchor> {
+
+    private static final long INPUTS = DerivedMetric.mask(LAT, LON);
+
+    static final class Anchor {
+        boolean set;
+        double lat;
+        double lon;
+        long millis;
+    }
+
+    private final double minStepMeters;
+    private final double maxSpeedMps;
+
+    public OdometryMetric(@Value("${derived.odometry.min-step-m:2.0}") double minStepMeters,
+                          @Value("${derived.odometry.max-speed-mps:50.0}") double maxSpeedMps) {
+        this.minStepMeters = minStepMeters;
+        this.maxSpeedMps = maxSpeedMps;
+    }
+
+    @Override
+    public long inputs() {
+        return INPUTS;
+    }
+
+    @Override
+    public Anchor newState() {
+        return new Anchor();
+    }
+
+    @Override
+    public void update(VesselState vessel, Anchor anchor, long updated, long nowMillis) {
+        double lat = vessel.get(LAT);
+        double lon = vessel.get(LON);
+        if (!anchor.set) {
+            moveAnchor(anchor, lat, lon, nowMillis);
+            return;
+        }
+        double step = GeoDistance.meters(anchor.lat, anchor.lon, lat, lon);
+        if (step < minStepMeters) {
+            return;
+        }
+        double seconds = Math.max(nowMillis - anchor.millis, 1) / 1000.0;
+        if (step / seconds <= maxSpeedMps) {
+            vessel.set(DIST_TRAVELED, vessel.get(DIST_TRAVELED) + step);
+        }
+        moveAnchor(anchor, lat, lon, nowMillis);
+    }
+
+    private static void moveAnchor(Anchor anchor, double lat, double lon, long nowMillis) {
+        anchor.set = true;
+        anchor.lat = lat;
+        anchor.lon = lon;
+        anchor.millis = nowMillis;
+    }
+}
@@ -0,0 +1,50 @@
+package org.sks.portsmanagement.service.derived;
+
+import org.sks.portsmanagement.service.VesselState;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import static org.sks.portsmanagement.service.TelemetryField.*;
+
+// time_in_air: seconds the vessel has been armed (autopilot HEARTBEAT) or making at least
+// underway-speed over ground. The time between two updates counts if the vessel was
+// armed or underway at the first; a silence longer than max-gap (link loss) does not.
+@Component
+@Order(30)
+public class TimeUnderwayMetric implements DerivedMetric<TimeUnderwayMetric.Clock> {
+
+    static final class Clock {
+        long lastMillis;
+        boolean running;
+    }
+
+    private final double underwaySpeedMps;
+    private final long maxGapMillis;
+
+    public TimeUnderwayMetric(@Value("${derived.underway.speed-mps:0.5}") double underwaySpeedMps,
+                              @Value("${derived.underway.max-gap-ms:10000}") long maxGapMillis) {
+        this.underwaySpeedMps = underwaySpeedMps;
+        this.maxGapMillis = maxGapMillis;
+    }
+
+    @Override
+    public long inputs() {
+        return EVERY_UPDATE;
+    }
+
+    @Override
+    public Clock newState() {
+        return new Clock();
+    }
+
+    @Override
+    public void update(VesselState vessel, Clock clock, long updated, long nowMillis) {
+        long elapsed = nowMillis - clock.lastMillis;
+        if (clock.running && elapsed > 0 && elapsed <= maxGapMillis) {
+            vessel.set(TIME_IN_AIR, vessel.get(TIME_IN_AIR) + elapsed / 1000.0);
+        }
+        clock.lastMillis = nowMillis;
+        clock.running = vessel.isArmed() || vessel.get(GROUND_SPEED) >= underwaySpeedMps;
+    }
+}
@@ -0,0 +1,35 @@
+package org.sks.portsmanagement.service.handler;
+
+import io.dronefleet.mavlink.common.Attitude;
+import org.sks.portsmanagement.service.VesselState;
+import org.springframework.stereotype.Component;
+
+import static org.sks.portsmanagement.service.TelemetryField.*;
+
+// ATTITUDE; read straight from the frame.
+@Component
+public class AttitudeHandler implements MessageTypeHandler {
+
+    // Wire offsets: time_boot_ms, roll, pitch, yaw, rollspeed, pitchspeed, yawspeed.
+    private static final int ROLL_OFFSET = 4;
+    private static final int PITCH_OFFSET = 8;
+    private static final int YAW_OFFSET = 12;
+
+    @Override
+    public Class<?> messageType() {
+        return Attitude.class;
+    }
+
+    @Override
+    public boolean readsPayload() {
+        return false;
+    }
+
+    @Override
+    public void apply(VesselState vessel, MavlinkFrame frame) {
+        // Kept in radians; rendered as "%.2f" degrees.
+        vessel.set(ROLL, frame.float32(ROLL_OFFSET));
+        vessel.set(PITCH, frame.float32(PITCH_OFFSET));
+        vessel.set(YAW, frame.float32(YAW_OFFSET));
+    }
+}
@@ -0,0 +1,49 @@
+package org.sks.portsmanagement.service.handler;
+
+import io.dronefleet.mavlink.common.GlobalPositionInt;
+import org.sks.portsmanagement.service.VesselState;
+import org.sks.portsmanagement.spatial.VesselSpatialIndex;
+import org.springframework.stereotype.Component;
+
+import static org.sks.portsmanagement.service.TelemetryField.*;
+
+// GLOBAL_POSITION_INT, the fused position fix; read straight from the frame and also
+// moved in the spatial index. Distances derived from it are DerivedMetrics.
+@Component
+public class GlobalPositionIntHandler implements MessageTypeHandler {
+
+    // Wire offsets: time_boot_ms, lat, lon, alt, relative_alt, vx, vy, vz, hdg.
+    private static final int LAT_OFFSET = 4;
+    private static final int LON_OFFSET = 8;
+    private static final int RELATIVE_ALT_OFFSET = 16;
+
+    private final VesselSpatialIndex spatialIndex;
+
+    public GlobalPositionIntHandler(VesselSpatialIndex spatialIndex) {
+        this.spatialIndex = spatialIndex;
+    }
+
+    @Override
+    public Class<?> messageType() {
+        return GlobalPositionInt.class;
+    }
+
+    @Override
+    public boolean readsPayload() {
+        return false;
+    }
+
+    @Override
+    public void apply(VesselState vessel, MavlinkFrame frame) {
+        int latE7 = frame.int32(LAT_OFFSET);
+        int lonE7 = frame.int32(LON_OFFSET);
+        double currentLat = latE7 / 1e7;
+        double currentLon = lonE7 / 1e7;
+        double currentAlt = frame.int32(RELATIVE_ALT_OFFSET) / 1000.0;
+        vessel.set(LAT, currentLat);
+        vessel.set(LON, currentLon);
+        vessel.set(ALT, currentAlt);
+        spatialIndex.update(vessel.getPort(), latE7, lonE7);
+    }
+
+}
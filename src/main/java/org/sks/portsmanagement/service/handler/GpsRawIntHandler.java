@@ -0,0 +1,23 @@
+package org.sks.portsmanagement.service.handler;
+
+import io.dronefleet.mavlink.common.GpsRawInt;
+import org.sks.portsmanagement.service.VesselState;
+import org.springframework.stereotype.Component;
+
+import static org.sks.portsmanagement.service.TelemetryField.*;
+
+// GPS_RAW_INT: horizontal dilution of precision.
+@Component
+public class GpsRawIntHandler implements MessageTypeHandler {
+
+    @Override
+    public Class<?> messageType() {
+        return GpsRawInt.class;
+    }
+
+    @Override
+    public void apply(VesselState vessel, MavlinkFrame frame) {
+        GpsRawInt gpsRawInt = (GpsRawInt) frame.payload();
+        vessel.set(GPS_HDOP, gpsRawInt.eph() / 100.0);
+    }
+}
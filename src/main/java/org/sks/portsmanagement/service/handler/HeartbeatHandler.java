@@ -0,0 +1,40 @@
+package org.sks.portsmanagement.service.handler;
+
+import io.dronefleet.mavlink.minimal.Heartbeat;
+import org.sks.portsmanagement.service.VesselState;
+import org.springframework.stereotype.Component;
+
+// HEARTBEAT: the armed flag, read straight from the frame. Only the autopilot's
+// heartbeat carries it; companion computers, gimbals, cameras and ground stations send
+// base_mode 0 and are ignored. Every handled message also records the sender and
+// refreshes the vessel's last update, so heartbeats keep a vessel active while its
+// other messages are filtered out.
+@Component
+public class HeartbeatHandler implements MessageTypeHandler {
+
+    // Wire offsets: custom_mode, type, autopilot, base_mode, system_status, mavlink_version.
+    private static final int TYPE_OFFSET = 4;
+    private static final int AUTOPILOT_OFFSET = 5;
+    private static final int BASE_MODE_OFFSET = 6;
+    private static final int MAV_TYPE_GCS = 6;
+    private static final int MAV_AUTOPILOT_INVALID = 8;
+    private static final int MAV_MODE_FLAG_SAFETY_ARMED = 0x80;
+
+    @Override
+    public Class<?> messageType() {
+        return Heartbeat.class;
+    }
+
+    @Override
+    public boolean readsPayload() {
+        return false;
+    }
+
+    @Override
+    public void apply(VesselState vessel, MavlinkFrame frame) {
+        if (frame.uint8(AUTOPILOT_OFFSET) == MAV_AUTOPILOT_INVALID || frame.uint8(TYPE_OFFSET) == MAV_TYPE_GCS) {
+            return;
+        }
+        vessel.setArmed((frame.uint8(BASE_MODE_OFFSET) & MAV_MODE_FLAG_SAFETY_ARMED) != 0);
+    }
+}
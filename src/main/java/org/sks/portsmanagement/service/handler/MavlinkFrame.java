@@ -0,0 +1,123 @@
+package org.sks.portsmanagement.service.handler;
+
+import io.dronefleet.mavlink.MavlinkMessage;
+import io.dronefleet.mavlink.annotations.MavlinkMessageInfo;
+
+import java.nio.ByteBuffer;
+
+// One CRC-checked MAVLink v1/v2 frame in wire form, as handed to a MessageTypeHandler.
+// Header fields and little-endian payload fields are read straight from the bytes; the
+// dronefleet payload object is only built if a handler asks for it. Receive threads and
+// pipeline workers keep one instance each and re-point it at every frame, so a frame
+// (and anything read from it) is only valid during the handler call.
+public final class MavlinkFrame {
+
+    private static final int MAGIC_V2 = 0xFD;
+    private static final int V1_HEADER_LENGTH = 6;
+    private static final int V2_HEADER_LENGTH = 10;
+
+    // Deserializes the payload of a frame into its dronefleet type; null if the payload
+    // is unusable.
+    @FunctionalInterface
+    public interface PayloadDecoder {
+        Object deserialize(ByteBuffer frame, int payloadOffset, int payloadLength, int messageId);
+    }
+
+    private final PayloadDecoder decoder;
+    private ByteBuffer buffer;
+    private int offset;
+    private int messageId;
+    private boolean v2;
+    private int payloadOffset;
+    private int payloadLength;
+    private Object payload;
+    private boolean decoded;
+
+    public MavlinkFrame(PayloadDecoder decoder) {
+        this.decoder = decoder;
+    }
+
+    // A frame over a message the dronefleet stream parser has already decoded.
+    public static MavlinkFrame of(MavlinkMessage<?> message) {
+        Object payload = message.getPayload();
+        MavlinkFrame frame = new MavlinkFrame((bytes, at, length, id) -> payload);
+        byte[] raw = message.getRawBytes();
+        frame.wrap(ByteBuffer.wrap(raw), 0, payload.getClass().getAnnotation(MavlinkMessageInfo.class).id());
+        return frame;
+    }
+
+    // Points the view at the frame starting at offset of buffer.
+    public MavlinkFrame wrap(ByteBuffer buffer, int offset, int messageId) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.messageId = messageId;
+        this.v2 = (buffer.get(offset) & 0xFF) == MAGIC_V2;
+        this.payloadOffset = offset + (v2 ? V2_HEADER_LENGTH : V1_HEADER_LENGTH);
+        this.payloadLength = buffer.get(offset + 1) & 0xFF;
+        this.payload = null;
+        this.decoded = false;
+        return this;
+    }
+
+    public int messageId() {
+        return messageId;
+    }
+
+    public boolean isV2() {
+        return v2;
+    }
+
+    public int sequence() {
+        return buffer.get(offset + (v2 ? 4 : 2)) & 0xFF;
+    }
+
+    public int systemId() {
+        return buffer.get(offset + (v2 ? 5 : 3)) & 0xFF;
+    }
+
+    public int componentId() {
+        return buffer.get(offset + (v2 ? 6 : 4)) & 0xFF;
+    }
+
+    // The dronefleet payload, deserialized on the first call; null if it is unusable.
+    public Object payload() {
+        if (!decoded) {
+            payload = decoder.deserialize(buffer, payloadOffset, payloadLength, messageId);
+            decoded = true;
+        }
+        return payload;
+    }
+
+    // Payload fields by byte offset in the MAVLink wire layout. MAVLink 2 senders drop
+    // trailing zero bytes of the payload, so anything past the received length reads
+    // as zero.
+    public int uint8(int at) {
+        return at < payloadLength ? buffer.get(payloadOffset + at) & 0xFF : 0;
+    }
+
+    public int int16(int at) {
+        if (at + 2 <= payloadLength) {
+            return Short.reverseBytes(buffer.getShort(payloadOffset + at));
+        }
+        return (short) (uint8(at) | uint8(at + 1) << 8);
+    }
+
+    public int uint16(int at) {
+        return int16(at) & 0xFFFF;
+    }
+
+    public int int32(int at) {
+        if (at + 4 <= payloadLength) {
+            return Integer.reverseBytes(buffer.getInt(payloadOffset + at));
+        }
+        return uint8(at) | uint8(at + 1) << 8 | uint8(at + 2) << 16 | uint8(at + 3) << 24;
+    }
+
+    public long uint32(int at) {
+        return int32(at) & 0xFFFFFFFFL;
+    }
+
+    public float float32(int at) {
+        return Float.intBitsToFloat(int32(at));
+    }
+}
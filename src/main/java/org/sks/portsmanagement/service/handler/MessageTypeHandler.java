@@ -0,0 +1,24 @@
+package org.sks.portsmanagement.service.handler;
+
+import org.sks.portsmanagement.service.VesselState;
+
+// Applies one MAVLink message type to the live state of a vessel. Handlers are Spring
+// beans; MavlinkMessageHandlerService collects them into a table indexed by message id,
+// and frames whose id has no handler are dropped on the raw header, before their
+// payload is decoded. Supporting a new message type is one more bean.
+public interface MessageTypeHandler {
+
+    // dronefleet payload class of the handled message; its @MavlinkMessageInfo id is
+    // the table key.
+    Class<?> messageType();
+
+    // Whether apply() uses frame.payload(). Handlers that read their fields straight
+    // from the frame bytes return false and never pay for reflective deserialization.
+    default boolean readsPayload() {
+        return true;
+    }
+
+    // Runs on a receive or pipeline thread with the vessel's update open, after the
+    // port, sender and timestamp have been recorded; must not block.
+    void apply(VesselState vessel, MavlinkFrame frame);
+}
@@ -0,0 +1,23 @@
+package org.sks.portsmanagement.service.handler;
+
+import io.dronefleet.mavlink.common.NavControllerOutput;
+import org.sks.portsmanagement.service.VesselState;
+import org.springframework.stereotype.Component;
+
+import static org.sks.portsmanagement.service.TelemetryField.*;
+
+// NAV_CONTROLLER_OUTPUT: distance to the active waypoint.
+@Component
+public class NavControllerOutputHandler implements MessageTypeHandler {
+
+    @Override
+    public Class<?> messageType() {
+        return NavControllerOutput.class;
+    }
+
+    @Override
+    public void apply(VesselState vessel, MavlinkFrame frame) {
+        NavControllerOutput navControllerOutput = (NavControllerOutput) frame.payload();
+        vessel.set(WP_DIST, navControllerOutput.wpDist());
+    }
+}
@@ -0,0 +1,29 @@
+package org.sks.portsmanagement.service.handler;
+
+import io.dronefleet.mavlink.common.ServoOutputRaw;
+import org.sks.portsmanagement.service.VesselState;
+import org.springframework.stereotype.Component;
+
+import static org.sks.portsmanagement.service.TelemetryField.*;
+
+// SERVO_OUTPUT_RAW: throttle (channel 3) and auxiliary outputs.
+@Component
+public class ServoOutputRawHandler implements MessageTypeHandler {
+
+    @Override
+    public Class<?> messageType() {
+        return ServoOutputRaw.class;
+    }
+
+    @Override
+    public void apply(VesselState vessel, MavlinkFrame frame) {
+        ServoOutputRaw servoOutputRaw = (ServoOutputRaw) frame.payload();
+        vessel.set(CH3OUT, servoOutputRaw.servo3Raw());
+        // Raw PWM; rendered as a "%.2f" percentage.
+        vessel.set(CH3PERCENT, servoOutputRaw.servo3Raw());
+        vessel.set(CH9OUT, servoOutputRaw.servo9Raw());
+        vessel.set(CH10OUT, servoOutputRaw.servo10Raw());
+        vessel.set(CH11OUT, servoOutputRaw.servo11Raw());
+        vessel.set(CH12OUT, servoOutputRaw.servo12Raw());
+    }
+}
@@ -0,0 +1,24 @@
+package org.sks.portsmanagement.service.handler;
+
+import io.dronefleet.mavlink.common.SysStatus;
+import org.sks.portsmanagement.service.VesselState;
+import org.springframework.stereotype.Component;
+
+import static org.sks.portsmanagement.service.TelemetryField.*;
+
+// SYS_STATUS battery readings.
+@Component
+public class SysStatusHandler implements MessageTypeHandler {
+
+    @Override
+    public Class<?> messageType() {
+        return SysStatus.class;
+    }
+
+    @Override
+    public void apply(VesselState vessel, MavlinkFrame frame) {
+        SysStatus sysStatus = (SysStatus) frame.payload();
+        vessel.set(BATTERY_VOLTAGE, sysStatus.voltageBattery());
+        vessel.set(BATTERY_CURRENT, sysStatus.currentBattery());
+    }
+}
@@ -0,0 +1,35 @@
+package org.sks.portsmanagement.service.handler;
+
+import io.dronefleet.mavlink.common.VfrHud;
+import org.sks.portsmanagement.service.VesselState;
+import org.springframework.stereotype.Component;
+
+import static org.sks.portsmanagement.service.TelemetryField.*;
+
+// VFR_HUD speeds, read straight from the frame. The times to the next waypoint and home
+// that follow from them are EtaMetric's.
+@Component
+public class VfrHudHandler implements MessageTypeHandler {
+
+    // Wire offsets: airspeed, groundspeed, alt, climb, heading, throttle.
+    private static final int AIRSPEED_OFFSET = 0;
+    private static final int GROUNDSPEED_OFFSET = 4;
+    private static final int CLIMB_OFFSET = 12;
+
+    @Override
+    public Class<?> messageType() {
+        return VfrHud.class;
+    }
+
+    @Override
+    public boolean readsPayload() {
+        return false;
+    }
+
+    @Override
+    public void apply(VesselState vessel, MavlinkFrame frame) {
+        vessel.set(AIRSPEED, frame.float32(AIRSPEED_OFFSET));
+        vessel.set(GROUND_SPEED, frame.float32(GROUNDSPEED_OFFSET));
+        vessel.set(VERTICAL_SPEED, frame.float32(CLIMB_OFFSET));
+    }
+}
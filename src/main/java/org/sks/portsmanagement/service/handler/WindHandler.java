@@ -0,0 +1,23 @@
+package org.sks.portsmanagement.service.handler;
+
+import io.dronefleet.mavlink.ardupilotmega.Wind;
+import org.sks.portsmanagement.service.VesselState;
+import org.springframework.stereotype.Component;
+
+import static org.sks.portsmanagement.service.TelemetryField.*;
+
+// ArduPilot WIND estimate.
+@Component
+public class WindHandler implements MessageTypeHandler {
+
+    @Override
+    public Class<?> messageType() {
+        return Wind.class;
+    }
+
+    @Override
+    public void apply(VesselState vessel, MavlinkFrame frame) {
+        Wind wind = (Wind) frame.payload();
+        vessel.set(WIND_VEL, wind.speed());
+    }
+}
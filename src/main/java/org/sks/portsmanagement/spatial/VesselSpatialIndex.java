@@ -0,0 +1,369 @@
+package org.sks.portsmanagement.spatial;
+
+import org.sks.portsmanagement.utils.GeoDistance;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+// Latest position of every vessel, bucketed into a fixed grid of cell-degrees cells for
+// viewport, radius, nearest-neighbour and proximity queries.
+//
+// Each vessel's position is one long (lat and lon as MAVLink 1e-7 degree integers), so
+// a fix is a single atomic store and readers never see half of one. The vessel is only
+// re-listed when it crosses into another cell, which at harbour speeds is rare next to
+// the fix rate. Queries only visit the cells their area covers, or every occupied cell
+// when that is fewer, and check each candidate against its current position; a vessel
+// moving during a query is reported at most once, at its old or new position.
+@Component
+public class VesselSpatialIndex {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * GeoDistance.EARTH_RADIUS_M;
+    // Half the Earth's circumference: no two points are further apart.
+    private static final double MAX_DISTANCE_M = Math.PI * GeoDistance.EARTH_RADIUS_M;
+    private static final double WINDOW_MARGIN = 1 + 1e-6;
+    // Pairwise checks are for collision warnings; a larger radius would be a fleet-wide
+    // n-squared report.
+    public static final double MAX_PROXIMITY_M = 10_000;
+
+    public static final class Hit {
+        private final int port;
+        private final double lat;
+        private final double lon;
+        private final double distance;
+
+        Hit(int port, double lat, double lon, double distance) {
+            this.port = port;
+            this.lat = lat;
+            this.lon = lon;
+            this.distance = distance;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public double getLat() {
+            return lat;
+        }
+
+        public double getLon() {
+            return lon;
+        }
+
+        // Metres from the query point; NaN for bounding-box hits.
+        public double getDistance() {
+            return distance;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("port", port);
+            map.put("lat", lat);
+            map.put("lon", lon);
+            if (!Double.isNaN(distance)) {
+                map.put("distance_m", distance);
+            }
+            return map;
+        }
+    }
+
+    public static final class Pair {
+        private final Hit first;
+        private final Hit second;
+        private final double distance;
+
+        Pair(Hit first, Hit second, double distance) {
+            this.first = first;
+            this.second = second;
+            this.distance = distance;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("ports", List.of(first.port, second.port));
+            map.put("distance_m", distance);
+            return map;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Visitor {
+        void visit(int port, double lat, double lon);
+    }
+
+    private final double cellDegrees;
+    private final int latCells;
+    private final int lonCells;
+    private final AtomicLongArray positions = new AtomicLongArray(65536);
+    // Cell each port is listed in, or -1.
+    private final AtomicLongArray listedCells = new AtomicLongArray(65536);
+    private final ConcurrentHashMap<Long, Set<Integer>> cells = new ConcurrentHashMap<>();
+
+    public VesselSpatialIndex(@Value("${spatial.cell-degrees:0.01}") double cellDegrees) {
+        if (!(cellDegrees > 0) || cellDegrees > 90) {
+            throw new IllegalArgumentException("spatial.cell-degrees must be in (0, 90]");
+        }
+        this.cellDegrees = cellDegrees;
+        this.latCells = (int) Math.ceil(180 / cellDegrees) + 1;
+        this.lonCells = (int) Math.ceil(360 / cellDegrees);
+        for (int port = 0; port < 65536; port++) {
+            positions.set(port, EMPTY);
+            listedCells.set(port, -1);
+        }
+    }
+
+    // Called with every position fix, by the one thread applying the vessel's update.
+    public void update(int port, int latE7, int lonE7) {
+        positions.set(port, (long) latE7 << 32 | (lonE7 & 0xFFFFFFFFL));
+        long cell = cellKey(latE7 / 1e7, lonE7 / 1e7);
+        if (cell != listedCells.get(port)) {
+            relist(port, cell);
+        }
+    }
+
+    // Cell changes are rare enough to serialize, which keeps remove() from racing them.
+    private synchronized void relist(int port, long cell) {
+        long listed = listedCells.get(port);
+        if (cell == listed) {
+            return;
+        }
+        // Listed in the new cell before leaving the old one, so the vessel is never
+        // missing from both.
+        cells.computeIfAbsent(cell, key -> ConcurrentHashMap.newKeySet()).add(port);
+        if (listed >= 0) {
+            unlist(listed, port);
+        }
+        listedCells.set(port, cell);
+    }
+
+    // Forgets a vessel, e.g. once it has gone silent.
+    public synchronized void remove(int port) {
+        positions.set(port, EMPTY);
+        long listed = listedCells.getAndSet(port, -1);
+        if (listed >= 0) {
+            unlist(listed, port);
+        }
+    }
+
+    private void unlist(long cell, int port) {
+        cells.computeIfPresent(cell, (key, ports) -> {
+            ports.remove(port);
+            return ports.isEmpty() ? null : ports;
+        });
+    }
+
+    // Null if the vessel has no position.
+    public Hit position(int port) {
+        long packed = positions.get(port);
+        return packed == EMPTY ? null : new Hit(port, lat(packed), lon(packed), Double.NaN);
+    }
+
+    // Vessels inside the box; minLon > maxLon means the box crosses the antimeridian.
+    public List<Hit> boundingBox(double minLat, double minLon, double maxLat, double maxLon) {
+        checkLatitude(minLat);
+        checkLatitude(maxLat);
+        checkLongitude(minLon);
+        checkLongitude(maxLon);
+        if (minLat > maxLat) {
+            throw new IllegalArgumentException("min_lat must not exceed max_lat");
+        }
+        List<Hit> hits = new ArrayList<>();
+        scan(minLat, maxLat, minLon, maxLon, (port, lat, lon) -> hits.add(new Hit(port, lat, lon, Double.NaN)));
+        return hits;
+    }
+
+    // Vessels within radius metres of the point, nearest first.
+    public List<Hit> within(double lat, double lon, double radiusMeters) {
+        checkLatitude(lat);
+        checkLongitude(lon);
+        if (!(radiusMeters > 0)) {
+            throw new IllegalArgumentException("radius must be positive");
+        }
+        List<Hit> hits = new ArrayList<>();
+        scanRadius(lat, lon, radiusMeters, hits::add);
+        hits.sort(Comparator.comparingDouble(Hit::getDistance));
+        return hits;
+    }
+
+    // Other vessels within radius metres of the one on port, nearest first; null if that
+    // vessel has no position.
+    public List<Hit> around(int port, double radiusMeters) {
+        Hit vessel = position(port);
+        if (vessel == null) {
+            return null;
+        }
+        List<Hit> hits = within(vessel.lat, vessel.lon, radiusMeters);
+        hits.removeIf(hit -> hit.port == port);
+        return hits;
+    }
+
+    // The k vessels closest to the point, nearest first. Searches a growing radius, so
+    // only the cells around the point are visited while the fleet nearby is dense.
+    public List<Hit> nearest(double lat, double lon, int k) {
+        checkLatitude(lat);
+        checkLongitude(lon);
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        double radius = cellDegrees * METERS_PER_DEGREE;
+        while (true) {
+            List<Hit> hits = within(lat, lon, Math.min(radius, MAX_DISTANCE_M));
+            if (hits.size() >= k || radius >= MAX_DISTANCE_M) {
+                return hits.size() > k ? new ArrayList<>(hits.subList(0, k)) : hits;
+            }
+            radius *= 4;
+        }
+    }
+
+    // Every pair of vessels at most distance metres apart, closest first.
+    public List<Pair> proximity(double distanceMeters) {
+        if (!(distanceMeters > 0) || distanceMeters > MAX_PROXIMITY_M) {
+            throw new IllegalArgumentException("distance must be in (0, " + (int) MAX_PROXIMITY_M + "] metres");
+        }
+        List<Pair> pairs = new ArrayList<>();
+        for (Map.Entry<Long, Set<Integer>> entry : cells.entrySet()) {
+            for (int port : entry.getValue()) {
+                Hit first = listedHit(port, entry.getKey());
+                if (first == null) {
+                    continue;
+                }
+                scanRadius(first.lat, first.lon, distanceMeters, second -> {
+                    if (second.port > first.port) {
+                        pairs.add(new Pair(first, second, second.distance));
+                    }
+                });
+            }
+        }
+        pairs.sort(Comparator.comparingDouble(pair -> pair.distance));
+        return pairs;
+    }
+
+    // The circle's bounding box on the sphere: dLat = r, and the widest longitude offset
+    // asin(sin r / cos lat), reached poleward of the centre. Once sin r >= cos lat the
+    // circle contains a pole and every longitude. Both are padded by WINDOW_MARGIN for
+    // the short-range approximation in GeoDistance.
+    private void scanRadius(double lat, double lon, double radiusMeters, Consumer<Hit> sink) {
+        double angle = radiusMeters / GeoDistance.EARTH_RADIUS_M;
+        double dLat = Math.toDegrees(angle) * WINDOW_MARGIN;
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double minLat = Math.max(-90, lat - dLat);
+        double maxLat = Math.min(90, lat + dLat);
+        double minLon = -180;
+        double maxLon = 180;
+        if (minLat > -90 && maxLat < 90 && angle < Math.PI / 2 && Math.sin(angle) < cosLat) {
+            double dLon = Math.toDegrees(Math.asin(Math.sin(angle) / cosLat)) * WINDOW_MARGIN;
+            if (dLon < 180) {
+                minLon = normalizeLongitude(lon - dLon);
+                maxLon = normalizeLongitude(lon + dLon);
+            }
+        }
+        scan(minLat, maxLat, minLon, maxLon, (port, hitLat, hitLon) -> {
+            double distance = GeoDistance.meters(lat, lon, hitLat, hitLon);
+            if (distance <= radiusMeters) {
+                sink.accept(new Hit(port, hitLat, hitLon, distance));
+            }
+        });
+    }
+
+    private void scan(double minLat, double maxLat, double minLon, double maxLon, Visitor visitor) {
+        boolean wraps = minLon > maxLon;
+        int firstLat = latIndex(minLat);
+        int lastLat = latIndex(maxLat);
+        int firstLon = lonIndex(minLon);
+        int lastLon = maxLon >= 180 ? lonCells - 1 : lonIndex(maxLon);
+        long lonSpan = Math.min(lonCells, wraps ? lonCells - firstLon + lastLon + 1 : lastLon - firstLon + 1);
+        long area = (long) (lastLat - firstLat + 1) * lonSpan;
+
+        if (area > cells.size()) {
+            for (Map.Entry<Long, Set<Integer>> entry : cells.entrySet()) {
+                visitCell(entry.getKey(), entry.getValue(), minLat, maxLat, minLon, maxLon, wraps, visitor);
+            }
+            return;
+        }
+        for (int latIdx = firstLat; latIdx <= lastLat; latIdx++) {
+            for (long i = 0; i < lonSpan; i++) {
+                long cell = (long) latIdx * lonCells + (firstLon + i) % lonCells;
+                Set<Integer> ports = cells.get(cell);
+                if (ports != null) {
+                    visitCell(cell, ports, minLat, maxLat, minLon, maxLon, wraps, visitor);
+                }
+            }
+        }
+    }
+
+    private void visitCell(long cell, Set<Integer> ports, double minLat, double maxLat,
+                           double minLon, double maxLon, boolean wraps, Visitor visitor) {
+        for (int port : ports) {
+            Hit hit = listedHit(port, cell);
+            if (hit == null || hit.lat < minLat || hit.lat > maxLat) {
+                continue;
+            }
+            boolean inLon = wraps ? hit.lon >= minLon || hit.lon <= maxLon : hit.lon >= minLon && hit.lon <= maxLon;
+            if (inLon) {
+                visitor.visit(port, hit.lat, hit.lon);
+            }
+        }
+    }
+
+    // The port's position if it lies in this cell; a vessel that has just moved is
+    // briefly listed in two cells and only counts in the one it is in.
+    private Hit listedHit(int port, long cell) {
+        long packed = positions.get(port);
+        if (packed == EMPTY) {
+            return null;
+        }
+        double lat = lat(packed);
+        double lon = lon(packed);
+        return cellKey(lat, lon) == cell ? new Hit(port, lat, lon, Double.NaN) : null;
+    }
+
+    private long cellKey(double lat, double lon) {
+        return (long) latIndex(lat) * lonCells + lonIndex(lon);
+    }
+
+    private int latIndex(double lat) {
+        return Math.min(latCells - 1, Math.max(0, (int) Math.floor((lat + 90) / cellDegrees)));
+    }
+
+    private int lonIndex(double lon) {
+        int index = (int) Math.floor((normalizeLongitude(lon) + 180) / cellDegrees);
+        return Math.floorMod(index, lonCells);
+    }
+
+    private static double lat(long packed) {
+        return (int) (packed >> 32) / 1e7;
+    }
+
+    private static double lon(long packed) {
+        return (int) packed / 1e7;
+    }
+
+    private static double normalizeLongitude(double lon) {
+        if (lon >= 180 || lon < -180) {
+            lon = ((lon + 180) % 360 + 360) % 360 - 180;
+        }
+        return lon;
+    }
+
+    private static void checkLatitude(double lat) {
+        if (!(lat >= -90 && lat <= 90)) {
+            throw new IllegalArgumentException("latitude must be within [-90, 90]");
+        }
+    }
+
+    private static void checkLongitude(double lon) {
+        if (!(lon >= -180 && lon <= 180)) {
+            throw new IllegalArgumentException("longitude must be within [-180, 180]");
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.sks.portsmanagement.utils;
+
+// Great-circle distances on a spherical Earth. Position fixes are usually metres apart,
+// where the equirectangular approximation (one cosine, one square root) agrees with
+// haversine to well under a millimetre per kilometre; only separations beyond
+// SHORT_RANGE_DEGREES pay for the full haversine.
+public final class GeoDistance {
+
+    public static final double EARTH_RADIUS_M = 6_371_000.0;
+    private static final double SHORT_RANGE_DEGREES = 0.1;
+
+    private GeoDistance() {
+    }
+
+    public static double meters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = lat2 - lat1;
+        double dLon = lon2 - lon1;
+        if (dLon > 180) {
+            dLon -= 360;
+        } else if (dLon < -180) {
+            dLon += 360;
+        }
+        if (Math.abs(dLat) < SHORT_RANGE_DEGREES && Math.abs(dLon) < SHORT_RANGE_DEGREES) {
+            double x = Math.toRadians(dLon) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+            double y = Math.toRadians(dLat);
+            return EARTH_RADIUS_M * Math.sqrt(x * x + y * y);
+        }
+        return haversineMeters(lat1, lon1, lat2, lon2);
+    }
+
+    public static double haversineMeters(double lat1, double lon1, double lat2, double lon2) {
+        double latDistance = Math.toRadians(lat2 - lat1);
+        double lonDistance = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2) +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                        Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return EARTH_RADIUS_M * c;
+    }
+}
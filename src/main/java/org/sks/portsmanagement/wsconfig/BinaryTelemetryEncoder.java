@@ -0,0 +1,178 @@
+package org.sks.portsmanagement.wsconfig;
+
+import org.sks.portsmanagement.service.TelemetryField;
+import org.sks.portsmanagement.service.TelemetryTick;
+import org.sks.portsmanagement.service.VesselSnapshot;
+import org.springframework.web.socket.BinaryMessage;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+// Encoder for the "telemetry.binary.v1" WebSocket subprotocol. Vessel state is written
+// straight from the snapshots into a reused buffer; only the final frame is copied out.
+//
+// Frame (little-endian):
+//   u8  magic 'T' (0x54), u8 version (1), i64 timestamp ms, u16 vessel count
+//   per vessel, fixed size:
+//     u16 port, u8 system id, u32 GCS IPv4 (0 if unknown), u32 written-field mask
+//     (bit = TelemetryField ordinal), f64 home lat, f64 home lon (NaN if unknown),
+//     u16 waypoint count, then every numeric field in TelemetryField order except
+//     port and system_id: INT and SERVO_PERCENT_2DP as i32 (raw PWM), FLOAT and
+//     DEGREES_2DP as f32 (radians), DOUBLE and ROUND_2DP as f64.
+// Waypoint lists are not part of the binary frame; they are sent as JSON text
+// messages {"type":"missions","drones":[{"port":..,"waypoints":[..]}]} on join and
+// whenever a mission changes.
+//
+// Used only from the broadcast thread.
+final class BinaryTelemetryEncoder {
+
+    static final String SUBPROTOCOL = "telemetry.binary.v1";
+
+    private static final byte MAGIC = 'T';
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 1 + 1 + 8 + 2;
+    private static final TelemetryField[] ENCODED_FIELDS = Arrays.stream(TelemetryField.VALUES)
+            .filter(field -> field.isNumeric() && field != TelemetryField.PORT && field != TelemetryField.SYSTEM_ID)
+            .toArray(TelemetryField[]::new);
+    private static final int VESSEL_SIZE = vesselSize();
+
+    private ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 64 * VESSEL_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    // Waypoint lists grow in place, so changes are tracked by identity and size.
+    private final Map<Integer, List<?>> sentWaypoints = new HashMap<>();
+    private final Map<Integer, Integer> sentWaypointCounts = new HashMap<>();
+
+    private static int vesselSize() {
+        int size = 2 + 1 + 4 + 4 + 8 + 8 + 2;
+        for (TelemetryField field : ENCODED_FIELDS) {
+            size += fieldSize(field.kind());
+        }
+        return size;
+    }
+
+    private static int fieldSize(TelemetryField.Kind kind) {
+        switch (kind) {
+            case DOUBLE:
+            case ROUND_2DP:
+                return 8;
+            default:
+                return 4;
+        }
+    }
+
+    // Frame holding the subscribed vessels, or null when there are none.
+    BinaryMessage encode(TelemetryTick tick, Subscription subscription) {
+        List<VesselSnapshot> vessels = tick.getVessels();
+        int count = 0;
+        for (VesselSnapshot vessel : vessels) {
+            if (subscription.includes(vessel.getPort())) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        int required = HEADER_SIZE + count * VESSEL_SIZE;
+        if (buffer.capacity() < required) {
+            buffer = ByteBuffer.allocate(Math.max(required, buffer.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        buffer.put(MAGIC).put(VERSION).putLong(tick.getTimestampMillis()).putShort((short) count);
+
+        for (VesselSnapshot vessel : vessels) {
+            if (!subscription.includes(vessel.getPort())) {
+                continue;
+            }
+            int mask = 0;
+            for (TelemetryField field : TelemetryField.VALUES) {
+                if (field.isNumeric() && vessel.isWritten(field)) {
+                    mask |= 1 << field.ordinal();
+                }
+            }
+            Map<String, Double> home = tick.getHomeLocation(vessel.getPort());
+            List<Map<String, Object>> waypoints = tick.getWaypoints(vessel.getPort());
+
+            buffer.putShort((short) vessel.getPort());
+            buffer.put((byte) vessel.get(TelemetryField.SYSTEM_ID));
+            buffer.putInt(ipv4(vessel.getGcsAddress()));
+            buffer.putInt(mask);
+            buffer.putDouble(home != null ? home.get("lat") : Double.NaN);
+            buffer.putDouble(home != null ? home.get("lon") : Double.NaN);
+            buffer.putShort((short) (waypoints != null ? waypoints.size() : 0));
+            for (TelemetryField field : ENCODED_FIELDS) {
+                double value = vessel.get(field);
+                switch (field.kind()) {
+                    case DOUBLE:
+                    case ROUND_2DP:
+                        buffer.putDouble(value);
+                        break;
+                    case FLOAT:
+                    case DEGREES_2DP:
+                        buffer.putFloat((float) value);
+                        break;
+                    default:
+                        buffer.putInt((int) value);
+                }
+            }
+        }
+
+        buffer.flip();
+        byte[] frame = new byte[buffer.remaining()];
+        buffer.get(frame);
+        return new BinaryMessage(frame);
+    }
+
+    // Missions for every subscribed vessel in the tick, for sessions that just joined.
+    Map<String, Object> allMissions(TelemetryTick tick, Subscription subscription) {
+        List<Map<String, Object>> missions = new ArrayList<>();
+        for (VesselSnapshot vessel : tick.getVessels()) {
+            if (subscription.includes(vessel.getPort())) {
+                missions.add(mission(vessel.getPort(), tick.getWaypoints(vessel.getPort())));
+            }
+        }
+        return missionsMessage(missions);
+    }
+
+    // Missions that changed since the previous call, or null when none did. Computed for
+    // all vessels; sessions narrow it down with Subscription.project.
+    Map<String, Object> changedMissions(TelemetryTick tick) {
+        List<Map<String, Object>> missions = new ArrayList<>();
+        for (VesselSnapshot vessel : tick.getVessels()) {
+            Integer port = vessel.getPort();
+            List<Map<String, Object>> waypoints = tick.getWaypoints(port);
+            int count = waypoints != null ? waypoints.size() : -1;
+            if (sentWaypointCounts.containsKey(port) && sentWaypoints.get(port) == waypoints
+                    && sentWaypointCounts.get(port) == count) {
+                continue;
+            }
+            sentWaypoints.put(port, waypoints);
+            sentWaypointCounts.put(port, count);
+            missions.add(mission(port, waypoints));
+        }
+        return missions.isEmpty() ? null : missionsMessage(missions);
+    }
+
+    private static Map<String, Object> mission(int port, List<Map<String, Object>> waypoints) {
+        Map<String, Object> mission = new LinkedHashMap<>();
+        mission.put("port", port);
+        mission.put("waypoints", waypoints);
+        return mission;
+    }
+
+    private static Map<String, Object> missionsMessage(List<Map<String, Object>> missions) {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("type", "missions");
+        message.put("drones", missions);
+        return message;
+    }
+
+    private static int ipv4(InetAddress address) {
+        if (!(address instanceof Inet4Address)) {
+            return 0;
+        }
+        return ByteBuffer.wrap(address.getAddress()).getInt();
+    }
+}
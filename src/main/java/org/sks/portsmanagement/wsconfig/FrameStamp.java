@@ -0,0 +1,32 @@
+package org.sks.portsmanagement.wsconfig;
+
+import org.sks.portsmanagement.metrics.LatencyTracer;
+import org.sks.portsmanagement.metrics.TelemetryMetrics;
+
+// Travels with the telemetry frames of one push through the session send queues, so
+// the time from serialization to the socket write can be measured per session and the
+// sampled traces rendered into the push get their final stamp.
+final class FrameStamp {
+
+    private static final long[] NO_TRACES = new long[0];
+
+    private final long serializedNanos;
+    private final long[] traceIds;
+    private final TelemetryMetrics metrics;
+    private final LatencyTracer tracer;
+
+    FrameStamp(long serializedNanos, long[] traceIds, TelemetryMetrics metrics, LatencyTracer tracer) {
+        this.serializedNanos = serializedNanos;
+        this.traceIds = traceIds != null ? traceIds : NO_TRACES;
+        this.metrics = metrics;
+        this.tracer = tracer;
+    }
+
+    // Called by the sender thread after a frame carrying this stamp was written.
+    void written(long nanos) {
+        metrics.written(nanos - serializedNanos);
+        if (traceIds.length > 0) {
+            tracer.written(traceIds, nanos);
+        }
+    }
+}
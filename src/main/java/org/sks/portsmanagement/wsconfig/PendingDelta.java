@@ -0,0 +1,144 @@
+package org.sks.portsmanagement.wsconfig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Changes a delta session has not been sent, or has not acknowledged, yet. Each field
+// and removed vessel remembers the sequence number that last changed it.
+//
+// Until the client sends its first {"ack":seq}, a delta chains from the previous one: a
+// rate-limited session gets the deltas it skipped merged into its next frame, which then
+// empties the set. Once the client acknowledges, every delta carries all changes since
+// the acknowledged sequence ("since" in the frame), so a frame the client never applied
+// is covered by the next one; acknowledged changes are dropped.
+//
+// Only touched by the push thread, except for acknowledge().
+final class PendingDelta {
+
+    private static final String PORT_KEY = "port";
+
+    private final Map<Integer, Map<String, Object>> changed = new LinkedHashMap<>();
+    private final Map<Integer, Map<String, Long>> changedAt = new HashMap<>();
+    private final Map<Integer, Long> removed = new LinkedHashMap<>();
+    // -1 until the client acknowledges a sequence number.
+    private final AtomicLong acked = new AtomicLong(-1);
+    private long sequence;
+    private Object timestamp;
+
+    // Called from the session's message thread; acknowledgements never go backwards.
+    void acknowledge(long seq) {
+        if (seq >= 0) {
+            acked.accumulateAndGet(seq, Math::max);
+        }
+    }
+
+    boolean isAcknowledging() {
+        return acked.get() >= 0;
+    }
+
+    // Folds in a tick's delta (null when nothing changed). Each sequence number is taken
+    // once, since the latest tick is offered again while the session waits.
+    void merge(Map<String, Object> delta) {
+        if (delta == null) {
+            return;
+        }
+        long seq = ((Number) delta.get("seq")).longValue();
+        if (seq <= sequence) {
+            return;
+        }
+        sequence = seq;
+        timestamp = delta.get("timestamp");
+        for (Object record : (List<?>) delta.get("drones")) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> fields = (Map<String, Object>) record;
+            Integer port = (Integer) fields.get(PORT_KEY);
+            if (removed.remove(port) != null) {
+                // Back after going away: its record is complete, like a new vessel's.
+                changed.remove(port);
+                changedAt.remove(port);
+            }
+            changed.computeIfAbsent(port, key -> new LinkedHashMap<>()).putAll(fields);
+            Map<String, Long> fieldSeqs = changedAt.computeIfAbsent(port, key -> new HashMap<>());
+            for (String key : fields.keySet()) {
+                if (!PORT_KEY.equals(key)) {
+                    fieldSeqs.put(key, seq);
+                }
+            }
+        }
+        Object removedPorts = delta.get("removed");
+        if (removedPorts != null) {
+            for (Object port : (List<?>) removedPorts) {
+                changed.remove(port);
+                changedAt.remove(port);
+                removed.put((Integer) port, seq);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        prune();
+        return changed.isEmpty() && removed.isEmpty();
+    }
+
+    // The outstanding changes as one delta, numbered like the last one merged. Without
+    // acknowledgements they count as delivered and the set starts over empty.
+    Map<String, Object> delta() {
+        prune();
+        long since = acked.get();
+        Map<String, Object> delta = new LinkedHashMap<>();
+        delta.put("type", "delta");
+        delta.put("seq", sequence);
+        if (since >= 0) {
+            delta.put("since", since);
+        }
+        delta.put("timestamp", timestamp);
+        List<Map<String, Object>> drones = new ArrayList<>(changed.size());
+        for (Map<String, Object> record : changed.values()) {
+            drones.add(new LinkedHashMap<>(record));
+        }
+        delta.put("drones", drones);
+        if (!removed.isEmpty()) {
+            delta.put("removed", new ArrayList<>(removed.keySet()));
+        }
+        if (since < 0) {
+            clear();
+        }
+        return delta;
+    }
+
+    // A snapshot supersedes whatever was outstanding.
+    void clear() {
+        changed.clear();
+        changedAt.clear();
+        removed.clear();
+    }
+
+    private void prune() {
+        long since = acked.get();
+        if (since < 0) {
+            return;
+        }
+        Iterator<Map.Entry<Integer, Map<String, Long>>> ports = changedAt.entrySet().iterator();
+        while (ports.hasNext()) {
+            Map.Entry<Integer, Map<String, Long>> port = ports.next();
+            Map<String, Object> record = changed.get(port.getKey());
+            port.getValue().entrySet().removeIf(field -> {
+                boolean acknowledged = field.getValue() <= since;
+                if (acknowledged) {
+                    record.remove(field.getKey());
+                }
+                return acknowledged;
+            });
+            if (port.getValue().isEmpty()) {
+                changed.remove(port.getKey());
+                ports.remove();
+            }
+        }
+        removed.values().removeIf(seq -> seq <= since);
+    }
+}
@@ -0,0 +1,88 @@
+package org.sks.portsmanagement.wsconfig;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.sks.portsmanagement.service.TelemetryTick;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Per-tick cache of encoded frames, keyed by subscription. However many sessions share
+// a subscription, each variant (full, snapshot, delta, binary, missions) is projected
+// and serialized at most once per tick. A cached null means "nothing to send".
+final class ProjectedFrames {
+
+    private final TelemetryTick tick;
+    private final ObjectMapper objectMapper;
+    private final BinaryTelemetryEncoder binaryEncoder;
+
+    private final Map<Subscription, TextMessage> full = new HashMap<>();
+    private final Map<Subscription, TextMessage> snapshot = new HashMap<>();
+    private final Map<Subscription, TextMessage> delta = new HashMap<>();
+    private final Map<Subscription, BinaryMessage> binary = new HashMap<>();
+    private final Map<Subscription, TextMessage> allMissions = new HashMap<>();
+    private final Map<Subscription, TextMessage> changedMissions = new HashMap<>();
+    private Map<String, Object> changedMissionsPayload;
+    private boolean changedMissionsComputed;
+
+    ProjectedFrames(TelemetryTick tick, ObjectMapper objectMapper, BinaryTelemetryEncoder binaryEncoder) {
+        this.tick = tick;
+        this.objectMapper = objectMapper;
+        this.binaryEncoder = binaryEncoder;
+    }
+
+    TextMessage full(Subscription subscription) throws JsonProcessingException {
+        if (!full.containsKey(subscription)) {
+            full.put(subscription, text(subscription.project(tick.getFullPayload(), false)));
+        }
+        return full.get(subscription);
+    }
+
+    TextMessage snapshot(Subscription subscription) throws JsonProcessingException {
+        if (!snapshot.containsKey(subscription)) {
+            snapshot.put(subscription, text(subscription.project(tick.getDeltaFrame().getSnapshot(), true)));
+        }
+        return snapshot.get(subscription);
+    }
+
+    TextMessage delta(Subscription subscription) throws JsonProcessingException {
+        if (!delta.containsKey(subscription)) {
+            delta.put(subscription, text(subscription.project(tick.getDeltaFrame().getDelta(), false)));
+        }
+        return delta.get(subscription);
+    }
+
+    BinaryMessage binary(Subscription subscription) {
+        Subscription key = subscription.portsOnly();
+        if (!binary.containsKey(key)) {
+            binary.put(key, binaryEncoder.encode(tick, key));
+        }
+        return binary.get(key);
+    }
+
+    TextMessage allMissions(Subscription subscription) throws JsonProcessingException {
+        Subscription key = subscription.portsOnly();
+        if (!allMissions.containsKey(key)) {
+            allMissions.put(key, text(binaryEncoder.allMissions(tick, key)));
+        }
+        return allMissions.get(key);
+    }
+
+    TextMessage changedMissions(Subscription subscription) throws JsonProcessingException {
+        if (!changedMissionsComputed) {
+            changedMissionsPayload = binaryEncoder.changedMissions(tick);
+            changedMissionsComputed = true;
+        }
+        Subscription key = subscription.portsOnly();
+        if (!changedMissions.containsKey(key)) {
+            changedMissions.put(key, text(key.project(changedMissionsPayload, false)));
+        }
+        return changedMissions.get(key);
+    }
+
+    private TextMessage text(Map<String, Object> payload) throws JsonProcessingException {
+        return payload != null ? new TextMessage(objectMapper.writeValueAsString(payload)) : null;
+    }
+}
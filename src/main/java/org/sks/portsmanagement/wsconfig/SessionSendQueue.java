@@ -0,0 +1,199 @@
+package org.sks.portsmanagement.wsconfig;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded outbound queue for one WebSocket session. Producers (the telemetry scheduler,
+// UDP receive threads reporting errors) only enqueue; at most one drain task per session
+// runs on the shared sender executor, so a stalled browser only ever holds up itself and
+// sendMessage is never called concurrently on the same session.
+final class SessionSendQueue {
+
+    enum OverflowPolicy {
+        // Discard the oldest queued message to make room.
+        DROP_OLDEST,
+        // Discard all queued telemetry frames; only the newest one matters.
+        COALESCE,
+        // Close the session; the client is expected to reconnect.
+        DISCONNECT;
+
+        static OverflowPolicy parse(String value) {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private static final class Entry {
+        final WebSocketMessage<?> message;
+        final boolean telemetry;
+        // Set on telemetry frames whose delivery latency is measured.
+        final FrameStamp stamp;
+
+        Entry(WebSocketMessage<?> message, boolean telemetry, FrameStamp stamp) {
+            this.message = message;
+            this.telemetry = telemetry;
+            this.stamp = stamp;
+        }
+    }
+
+    private final WebSocketSession session;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Executor executor;
+    // Invoked whenever a telemetry frame is dropped, e.g. to force a delta client resync.
+    private final Runnable onTelemetryDropped;
+
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private boolean draining;
+    private boolean closed;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    SessionSendQueue(WebSocketSession session, int capacity, OverflowPolicy policy,
+                     Executor executor, Runnable onTelemetryDropped) {
+        this.session = session;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.executor = executor;
+        this.onTelemetryDropped = onTelemetryDropped;
+    }
+
+    // Telemetry frames may be coalesced; anything else (acks, errors) is only ever
+    // dropped as the oldest entry.
+    void enqueue(WebSocketMessage<?> message, boolean telemetry, FrameStamp stamp) {
+        boolean telemetryDropped = false;
+        boolean disconnect = false;
+        boolean startDrain = false;
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (queue.size() >= capacity) {
+                switch (policy) {
+                    case COALESCE:
+                        telemetryDropped = removeTelemetry();
+                        if (queue.size() >= capacity) {
+                            telemetryDropped |= queue.pollFirst().telemetry;
+                            dropped.incrementAndGet();
+                        }
+                        break;
+                    case DROP_OLDEST:
+                        telemetryDropped = queue.pollFirst().telemetry;
+                        dropped.incrementAndGet();
+                        break;
+                    case DISCONNECT:
+                        dropped.addAndGet(queue.size() + 1L);
+                        queue.clear();
+                        closed = true;
+                        disconnect = true;
+                        break;
+                }
+            }
+            if (!disconnect) {
+                queue.addLast(new Entry(message, telemetry, stamp));
+                if (!draining) {
+                    draining = true;
+                    startDrain = true;
+                }
+            }
+        }
+
+        if (telemetryDropped && onTelemetryDropped != null) {
+            onTelemetryDropped.run();
+        }
+        if (disconnect) {
+            executor.execute(this::disconnect);
+        } else if (startDrain) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private boolean removeTelemetry() {
+        boolean removed = false;
+        for (Iterator<Entry> it = queue.iterator(); it.hasNext(); ) {
+            if (it.next().telemetry) {
+                it.remove();
+                dropped.incrementAndGet();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    private void drain() {
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                entry = closed ? null : queue.pollFirst();
+                if (entry == null) {
+                    draining = false;
+                    return;
+                }
+            }
+            if (!session.isOpen()) {
+                close();
+                return;
+            }
+            try {
+                session.sendMessage(entry.message);
+                sent.incrementAndGet();
+                if (entry.stamp != null) {
+                    entry.stamp.written(System.nanoTime());
+                }
+            } catch (IOException | RuntimeException e) {
+                failed.incrementAndGet();
+                if (entry.telemetry && onTelemetryDropped != null) {
+                    onTelemetryDropped.run();
+                }
+                System.err.println("Error sending message to session " + session.getId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void disconnect() {
+        System.err.println("❌ Closing WebSocket session " + session.getId() + ": outbound queue overflow");
+        try {
+            session.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException e) {
+            System.err.println("Error closing session " + session.getId() + ": " + e.getMessage());
+        }
+    }
+
+    synchronized void close() {
+        closed = true;
+        queue.clear();
+    }
+
+    synchronized int depth() {
+        return queue.size();
+    }
+
+    String sessionId() {
+        return session.getId();
+    }
+
+    OverflowPolicy policy() {
+        return policy;
+    }
+
+    long sentCount() {
+        return sent.get();
+    }
+
+    long droppedCount() {
+        return dropped.get();
+    }
+
+    long failedCount() {
+        return failed.get();
+    }
+}
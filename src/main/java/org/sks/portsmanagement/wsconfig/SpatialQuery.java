@@ -0,0 +1,96 @@
+package org.sks.portsmanagement.wsconfig;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.sks.portsmanagement.spatial.VesselSpatialIndex;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Spatial queries sent over the telemetry WebSocket, answered on the same session with
+// the same results as /api/spatial:
+//   {"action":"query","query":"bbox","min_lat":..,"min_lon":..,"max_lat":..,"max_lon":..}
+//   {"action":"query","query":"within","lat":..,"lon":..,"radius":500}   (or "port" instead of lat/lon)
+//   {"action":"query","query":"nearest","lat":..,"lon":..,"k":5}
+//   {"action":"query","query":"proximity","distance":50}
+// An optional "id" is echoed back so clients can match replies to requests; a failed
+// query gets the same "type", "query" and "id" with "status":"error" and a "message".
+final class SpatialQuery {
+
+    private SpatialQuery() {
+    }
+
+    static Map<String, Object> run(VesselSpatialIndex index, JsonNode request) {
+        String query = request.path("query").asText();
+        Map<String, Object> reply = reply(request);
+        switch (query) {
+            case "bbox":
+                hits(reply, index.boundingBox(number(request, "min_lat"), number(request, "min_lon"),
+                        number(request, "max_lat"), number(request, "max_lon")));
+                break;
+            case "within":
+                if (request.has("port")) {
+                    int port = request.get("port").asInt(-1);
+                    List<VesselSpatialIndex.Hit> hits = port >= 0 && port <= 65535
+                            ? index.around(port, number(request, "radius")) : null;
+                    if (hits == null) {
+                        throw new IllegalArgumentException("No position for port " + request.get("port"));
+                    }
+                    hits(reply, hits);
+                } else {
+                    hits(reply, index.within(number(request, "lat"), number(request, "lon"), number(request, "radius")));
+                }
+                break;
+            case "nearest":
+                hits(reply, index.nearest(number(request, "lat"), number(request, "lon"),
+                        request.path("k").asInt(5)));
+                break;
+            case "proximity":
+                List<Map<String, Object>> pairs = new ArrayList<>();
+                for (VesselSpatialIndex.Pair pair : index.proximity(number(request, "distance"))) {
+                    pairs.add(pair.toMap());
+                }
+                reply.put("count", pairs.size());
+                reply.put("pairs", pairs);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown query: \"" + query + "\" (bbox, within, nearest or proximity)");
+        }
+        return reply;
+    }
+
+    static Map<String, Object> error(JsonNode request, String message) {
+        Map<String, Object> reply = reply(request);
+        reply.put("status", "error");
+        reply.put("message", message);
+        return reply;
+    }
+
+    private static Map<String, Object> reply(JsonNode request) {
+        Map<String, Object> reply = new LinkedHashMap<>();
+        reply.put("type", "query_result");
+        reply.put("query", request.path("query").asText());
+        if (request.has("id")) {
+            reply.put("id", request.get("id"));
+        }
+        return reply;
+    }
+
+    private static void hits(Map<String, Object> reply, List<VesselSpatialIndex.Hit> hits) {
+        List<Map<String, Object>> vessels = new ArrayList<>(hits.size());
+        for (VesselSpatialIndex.Hit hit : hits) {
+            vessels.add(hit.toMap());
+        }
+        reply.put("count", vessels.size());
+        reply.put("vessels", vessels);
+    }
+
+    private static double number(JsonNode request, String key) {
+        JsonNode value = request.get(key);
+        if (value == null || !value.isNumber()) {
+            throw new IllegalArgumentException("\"" + key + "\" must be a number");
+        }
+        return value.asDouble();
+    }
+}
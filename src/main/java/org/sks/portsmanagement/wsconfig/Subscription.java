@@ -0,0 +1,275 @@
+package org.sks.portsmanagement.wsconfig;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.sks.portsmanagement.service.TelemetryField;
+
+import java.util.*;
+
+// What one WebSocket client asked to receive: which vessels (by UDP port), which fields
+// and how often. Equality covers the projection (ports and fields) only, so sessions
+// that want the same data share the frames encoded for them each tick whatever their
+// rate.
+//
+// Set by the client with a text message such as
+//   {"action":"subscribe","ports":[14550],"fields":["lat","lon","alt"],"max_rate":2}
+// Omitted keys mean "everything" / the server default rate. "field_rates" caps single
+// fields below max_rate, e.g. {"max_rate":10,"field_rates":{"battery_voltage":1}}; it
+// applies to full JSON frames only, since deltas and binary frames cannot leave a
+// changed field out without losing it.
+final class Subscription {
+
+    static final Subscription ALL = new Subscription(null, null, null, Map.of());
+
+    private static final String PORT_KEY = TelemetryField.PORT.key();
+    private static final String TIMESTAMP_KEY = "timestamp";
+    private static final Set<String> KNOWN_FIELDS = knownFields();
+
+    // null means all ports / all fields.
+    private final Set<Integer> ports;
+    private final Set<String> fields;
+    // null means the server default; 0 means every push.
+    private final Double maxRate;
+    private final Map<String, Double> fieldRates;
+
+    private Subscription(Set<Integer> ports, Set<String> fields, Double maxRate, Map<String, Double> fieldRates) {
+        this.ports = ports;
+        this.fields = fields;
+        this.maxRate = maxRate;
+        this.fieldRates = fieldRates;
+    }
+
+    private static Set<String> knownFields() {
+        Set<String> keys = new HashSet<>();
+        for (TelemetryField field : TelemetryField.VALUES) {
+            keys.add(field.key());
+        }
+        keys.add(TIMESTAMP_KEY);
+        return Set.copyOf(keys);
+    }
+
+    static Subscription parse(JsonNode request) {
+        Set<Integer> ports = null;
+        JsonNode portsNode = request.get("ports");
+        if (portsNode != null && !portsNode.isNull()) {
+            if (!portsNode.isArray()) {
+                throw new IllegalArgumentException("\"ports\" must be an array of port numbers");
+            }
+            ports = new HashSet<>();
+            for (JsonNode port : portsNode) {
+                if (!port.canConvertToInt() || port.asInt() < 0 || port.asInt() > 65535) {
+                    throw new IllegalArgumentException("Invalid port: " + port);
+                }
+                ports.add(port.asInt());
+            }
+            ports = Set.copyOf(ports);
+        }
+
+        Set<String> fields = null;
+        JsonNode fieldsNode = request.get("fields");
+        if (fieldsNode != null && !fieldsNode.isNull()) {
+            if (!fieldsNode.isArray()) {
+                throw new IllegalArgumentException("\"fields\" must be an array of field names");
+            }
+            fields = new HashSet<>();
+            for (JsonNode field : fieldsNode) {
+                if (!KNOWN_FIELDS.contains(field.asText())) {
+                    throw new IllegalArgumentException("Unknown field: " + field.asText());
+                }
+                fields.add(field.asText());
+            }
+            fields = Set.copyOf(fields);
+        }
+
+        Double maxRate = null;
+        JsonNode rateNode = request.get("max_rate");
+        if (rateNode != null && !rateNode.isNull()) {
+            maxRate = parseRate("max_rate", rateNode);
+        }
+
+        Map<String, Double> fieldRates = new HashMap<>();
+        JsonNode fieldRatesNode = request.get("field_rates");
+        if (fieldRatesNode != null && !fieldRatesNode.isNull()) {
+            if (!fieldRatesNode.isObject()) {
+                throw new IllegalArgumentException("\"field_rates\" must map field names to messages per second");
+            }
+            for (Iterator<Map.Entry<String, JsonNode>> it = fieldRatesNode.fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> entry = it.next();
+                if (!KNOWN_FIELDS.contains(entry.getKey())) {
+                    throw new IllegalArgumentException("Unknown field: " + entry.getKey());
+                }
+                double rate = parseRate(entry.getKey(), entry.getValue());
+                if (rate > 0.0) {
+                    fieldRates.put(entry.getKey(), rate);
+                }
+            }
+        }
+        return new Subscription(ports, fields, maxRate, Map.copyOf(fieldRates));
+    }
+
+    private static double parseRate(String name, JsonNode node) {
+        if (!node.isNumber() || node.asDouble() < 0.0) {
+            throw new IllegalArgumentException("\"" + name + "\" must be a non-negative number of messages per second");
+        }
+        return node.asDouble();
+    }
+
+    // Same vessels, every field; for encodings that cannot be projected per field.
+    Subscription portsOnly() {
+        return fields == null ? this : new Subscription(ports, null, maxRate, fieldRates);
+    }
+
+    // Same vessels and rates, minus the given fields; used to hold back fields whose
+    // own rate is not due yet.
+    Subscription withoutFields(Set<String> excluded) {
+        if (excluded.isEmpty()) {
+            return this;
+        }
+        Set<String> remaining = new HashSet<>(fields != null ? fields : KNOWN_FIELDS);
+        remaining.removeAll(excluded);
+        return new Subscription(ports, Set.copyOf(remaining), maxRate, fieldRates);
+    }
+
+    boolean includes(int port) {
+        return ports == null || ports.contains(port);
+    }
+
+    // Minimum spacing between frames for this client; 0 sends every push and
+    // defaultInterval applies when the client did not choose a rate.
+    long minIntervalMillis(long defaultInterval) {
+        if (maxRate == null) {
+            return defaultInterval;
+        }
+        return maxRate > 0.0 ? intervalMillis(maxRate) : 0L;
+    }
+
+    boolean hasFieldRates() {
+        return !fieldRates.isEmpty();
+    }
+
+    // Rate-capped fields that were sent less than their interval ago.
+    Set<String> heldBackFields(Map<String, Long> fieldLastSent, long now) {
+        Set<String> held = new HashSet<>();
+        for (Map.Entry<String, Double> entry : fieldRates.entrySet()) {
+            Long lastSent = fieldLastSent.get(entry.getKey());
+            if (lastSent != null && now < dueAt(lastSent, intervalMillis(entry.getValue()))) {
+                held.add(entry.getKey());
+            }
+        }
+        return held;
+    }
+
+    // Records the rate-capped fields that just went out; returns when the earliest of
+    // the held-back ones becomes due, or Long.MAX_VALUE if none is held back.
+    long recordFieldsSent(Map<String, Long> fieldLastSent, Set<String> heldBack, long now) {
+        long nextDue = Long.MAX_VALUE;
+        for (Map.Entry<String, Double> entry : fieldRates.entrySet()) {
+            if (heldBack.contains(entry.getKey())) {
+                nextDue = Math.min(nextDue, dueAt(fieldLastSent.get(entry.getKey()), intervalMillis(entry.getValue())));
+            } else {
+                fieldLastSent.put(entry.getKey(), now);
+            }
+        }
+        return nextDue;
+    }
+
+    // A tenth of the interval is allowed as slack so scheduling jitter does not halve
+    // the effective rate.
+    static long dueAt(long lastSent, long interval) {
+        return lastSent + interval - interval / 10;
+    }
+
+    private static long intervalMillis(double rate) {
+        return (long) (1000.0 / rate);
+    }
+
+    // Copy of a {"drones": [...]} style payload holding only the subscribed vessels and
+    // fields. "port" and the per-vessel "timestamp" are always kept. Delta records left
+    // with nothing but their port are dropped, so a delta only carries what this client
+    // wants. Returns null when no vessel is left and keepEmpty is false.
+    Map<String, Object> project(Map<String, Object> payload, boolean keepEmpty) {
+        if (payload == null) {
+            return null;
+        }
+        if (ports == null && fields == null) {
+            return payload;
+        }
+        boolean delta = "delta".equals(payload.get("type"));
+
+        List<Map<String, Object>> drones = new ArrayList<>();
+        for (Object element : (List<?>) payload.get("drones")) {
+            Map<?, ?> record = (Map<?, ?>) element;
+            Object port = record.get(PORT_KEY);
+            if (!(port instanceof Integer) || !includes((Integer) port)) {
+                continue;
+            }
+            Map<String, Object> projected = new LinkedHashMap<>();
+            boolean hasFields = false;
+            for (Map.Entry<?, ?> entry : record.entrySet()) {
+                String key = (String) entry.getKey();
+                if (PORT_KEY.equals(key) || TIMESTAMP_KEY.equals(key)) {
+                    projected.put(key, entry.getValue());
+                } else if (fields == null || fields.contains(key)) {
+                    projected.put(key, entry.getValue());
+                    hasFields = true;
+                }
+            }
+            if (hasFields || !delta) {
+                drones.add(projected);
+            }
+        }
+
+        List<Integer> removed = new ArrayList<>();
+        Object removedPorts = payload.get("removed");
+        if (removedPorts != null) {
+            for (Object port : (List<?>) removedPorts) {
+                if (includes((Integer) port)) {
+                    removed.add((Integer) port);
+                }
+            }
+        }
+
+        if (!keepEmpty && drones.isEmpty() && removed.isEmpty()) {
+            return null;
+        }
+        Map<String, Object> result = new LinkedHashMap<>(payload);
+        result.put("drones", drones);
+        if (removedPorts != null) {
+            if (removed.isEmpty()) {
+                result.remove("removed");
+            } else {
+                result.put("removed", removed);
+            }
+        }
+        return result;
+    }
+
+    // Reply sent back to the client once the subscription is in effect.
+    Map<String, Object> describe() {
+        Map<String, Object> reply = new LinkedHashMap<>();
+        reply.put("status", "subscribed");
+        reply.put("ports", ports != null ? new TreeSet<>(ports) : "all");
+        reply.put("fields", fields != null ? new TreeSet<>(fields) : "all");
+        reply.put("max_rate", maxRate == null ? "default" : maxRate > 0.0 ? maxRate : "every push");
+        if (!fieldRates.isEmpty()) {
+            reply.put("field_rates", new TreeMap<>(fieldRates));
+        }
+        return reply;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Subscription)) {
+            return false;
+        }
+        Subscription that = (Subscription) other;
+        return Objects.equals(ports, that.ports) && Objects.equals(fields, that.fields);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ports, fields);
+    }
+}
@@ -1,45 +1,171 @@
 package org.sks.portsmanagement.wsconfig;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.sks.portsmanagement.metrics.LatencyTracer;
+import org.sks.portsmanagement.metrics.TelemetryMetrics;
+import org.sks.portsmanagement.service.VesselSnapshot;
+import org.sks.portsmanagement.service.TelemetryTick;
+import org.sks.portsmanagement.spatial.VesselSpatialIndex;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.SubProtocolCapable;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Component
-public class TelemetryWebSocketHandler extends TextWebSocketHandler {
+public class TelemetryWebSocketHandler extends TextWebSocketHandler implements SubProtocolCapable {
 
     private final WebSocketErrorBroadcaster errorBroadcaster;
-    private static ObjectMapper objectMapper = new ObjectMapper();
-    private static final ConcurrentHashMap<String, WebSocketSession> activeSessions = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper;
+    private final ConcurrentHashMap<String, WebSocketSession> activeSessions = new ConcurrentHashMap<>();
+    private final WebSocketSendQueues sendQueues;
+    private final TelemetryMetrics metrics;
+    private final LatencyTracer tracer;
+    private final VesselSpatialIndex spatialIndex;
 
-    public TelemetryWebSocketHandler(WebSocketErrorBroadcaster errorBroadcaster, ObjectMapper objectMapper) {
+    // Present only on sessions that connected with ?mode=delta: they receive a full
+    // snapshot whenever this is set and only changed fields otherwise. Everyone else
+    // keeps getting the full "drones" payload.
+    static final String NEEDS_SNAPSHOT_ATTRIBUTE = "telemetry.needsSnapshot";
+    // Present only on sessions that negotiated the binary subprotocol; set while the
+    // session still needs the full set of missions.
+    static final String NEEDS_MISSIONS_ATTRIBUTE = "telemetry.needsMissions";
+    // The session's Subscription; absent means everything, every tick.
+    static final String SUBSCRIPTION_ATTRIBUTE = "telemetry.subscription";
+    // Push timestamp of the last frame sent to the session.
+    static final String LAST_SENT_ATTRIBUTE = "telemetry.lastSent";
+    // Set while the session skipped a relevant push because of its rate.
+    static final String PENDING_ATTRIBUTE = "telemetry.pending";
+    // Changes a delta session was not sent or did not acknowledge (see PendingDelta).
+    static final String PENDING_DELTA_ATTRIBUTE = "telemetry.pendingDelta";
+    // Per-field timestamps for subscriptions with field_rates.
+    static final String FIELD_LAST_SENT_ATTRIBUTE = "telemetry.fieldLastSent";
+
+    // Rate applied in event push mode to full-frame sessions that did not choose one.
+    private final long defaultClientIntervalMillis;
+    private volatile TelemetryTick lastTick;
+    private volatile FrameStamp lastStamp;
+
+    private static final BinaryTelemetryEncoder binaryEncoder = new BinaryTelemetryEncoder();
+
+    public TelemetryWebSocketHandler(WebSocketErrorBroadcaster errorBroadcaster, ObjectMapper objectMapper,
+                                     WebSocketSendQueues sendQueues, TelemetryMetrics metrics, LatencyTracer tracer,
+                                     VesselSpatialIndex spatialIndex,
+                                     @Value("${telemetry.push.default-client-rate:1}") double defaultClientRate) {
         this.errorBroadcaster = errorBroadcaster;
         this.objectMapper = objectMapper;
+        this.sendQueues = sendQueues;
+        this.metrics = metrics;
+        this.tracer = tracer;
+        this.spatialIndex = spatialIndex;
+        metrics.gauge("telemetry.ws.sessions", "Open telemetry WebSocket sessions", activeSessions, Map::size);
+        this.defaultClientIntervalMillis = defaultClientRate > 0.0 ? (long) (1000.0 / defaultClientRate) : 0L;
     }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        AtomicBoolean needsSnapshot = null;
+        if (BinaryTelemetryEncoder.SUBPROTOCOL.equals(session.getAcceptedProtocol())) {
+            needsSnapshot = new AtomicBoolean(true);
+            session.getAttributes().put(NEEDS_MISSIONS_ATTRIBUTE, needsSnapshot);
+        } else if (isDeltaRequested(session.getUri())) {
+            needsSnapshot = new AtomicBoolean(true);
+            session.getAttributes().put(NEEDS_SNAPSHOT_ATTRIBUTE, needsSnapshot);
+            session.getAttributes().put(PENDING_DELTA_ATTRIBUTE, new PendingDelta());
+        }
+        // A lost frame means a delta client can no longer apply the next delta, and a
+        // binary client may have missed a mission update.
+        AtomicBoolean resync = needsSnapshot;
+        sendQueues.open(session, resync != null ? () -> resync.set(true) : null);
         activeSessions.put(session.getId(), session);
         errorBroadcaster.addSession(session);
         sendConnectionAck(session);
     }
 
+    // {"action":"subscribe", ...} sets the session's subscription (see Subscription),
+    // {"action":"query", ...} runs a spatial query (see SpatialQuery), and a delta
+    // session's {"ack":seq} confirms the frames applied up to seq (see PendingDelta);
+    // anything else is acknowledged as before.
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-        // Optional: Handle incoming commands if needed
         String payload = message.getPayload();
-        session.sendMessage(new TextMessage(
+        JsonNode request = parseRequest(payload);
+        PendingDelta pendingDelta = (PendingDelta) session.getAttributes().get(PENDING_DELTA_ATTRIBUTE);
+        if (request != null && pendingDelta != null && request.path("ack").canConvertToLong()) {
+            pendingDelta.acknowledge(request.get("ack").asLong());
+            return;
+        }
+        if (request != null && "subscribe".equals(request.path("action").asText())) {
+            Map<String, Object> reply;
+            try {
+                Subscription subscription = Subscription.parse(request);
+                Map<String, Object> attributes = session.getAttributes();
+                attributes.put(SUBSCRIPTION_ATTRIBUTE, subscription);
+                attributes.remove(LAST_SENT_ATTRIBUTE);
+                attributes.remove(FIELD_LAST_SENT_ATTRIBUTE);
+                // Whatever was sent so far covered a different projection.
+                resync(attributes, NEEDS_SNAPSHOT_ATTRIBUTE);
+                resync(attributes, NEEDS_MISSIONS_ATTRIBUTE);
+                reply = subscription.describe();
+            } catch (IllegalArgumentException e) {
+                reply = Map.of("status", "error", "message", e.getMessage());
+            }
+            sendQueues.send(session, new TextMessage(objectMapper.writeValueAsString(reply)), false);
+            return;
+        }
+        if (request != null && "query".equals(request.path("action").asText())) {
+            Map<String, Object> reply;
+            try {
+                reply = SpatialQuery.run(spatialIndex, request);
+            } catch (IllegalArgumentException e) {
+                reply = SpatialQuery.error(request, e.getMessage());
+            }
+            sendQueues.send(session, new TextMessage(objectMapper.writeValueAsString(reply)), false);
+            return;
+        }
+        sendQueues.send(session, new TextMessage(
                 objectMapper.writeValueAsString(
                         Map.of("status", "acknowledged", "received", payload)
                 )
-        ));
+        ), false);
+    }
+
+    private JsonNode parseRequest(String payload) {
+        try {
+            JsonNode node = objectMapper.readTree(payload);
+            return node != null && node.isObject() ? node : null;
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private static void resync(Map<String, Object> attributes, String attribute) {
+        AtomicBoolean flag = (AtomicBoolean) attributes.get(attribute);
+        if (flag != null) {
+            flag.set(true);
+        }
+    }
+
+    // Clients asking for this subprotocol get binary frames; JSON stays the default.
+    @Override
+    public List<String> getSubProtocols() {
+        return List.of(BinaryTelemetryEncoder.SUBPROTOCOL);
     }
 
     @Override
@@ -53,26 +179,274 @@ public class TelemetryWebSocketHandler extends TextWebSocketHandler {
         session.close(CloseStatus.SERVER_ERROR);
     }
 
-    public static void sendTelemetryData(Map<String, Object> telemetryData) {
+    public void sendTelemetryData(Map<String, Object> telemetryData) {
         broadcastData(telemetryData);
     }
 
+    // Queues the full payload (if any) for legacy sessions, the snapshot or delta for
+    // delta sessions and binary frames for binary sessions, each projected to the
+    // session's subscription. Sessions with the same subscription share one encoded
+    // frame per tick. Returns when a session held back by its rate becomes due, or
+    // Long.MAX_VALUE if none is waiting.
+    public long sendTelemetryData(TelemetryTick tick) {
+        FrameStamp stamp = stampTick(tick);
+        lastStamp = stamp;
+        lastTick = tick;
+        return deliver(tick, stamp, tick.getTimestampMillis(), false);
+    }
+
+    // Offers the latest tick again to sessions that skipped a relevant push because of
+    // their rate; used by the event-driven push when nothing new has arrived.
+    public long sendPending(long now) {
+        TelemetryTick tick = lastTick;
+        return tick != null ? deliver(tick, lastStamp, now, true) : Long.MAX_VALUE;
+    }
+
+    private long deliver(TelemetryTick tick, FrameStamp stamp, long now, boolean pendingOnly) {
+        long started = System.nanoTime();
+        int queued = 0;
+        ProjectedFrames frames = new ProjectedFrames(tick, objectMapper, binaryEncoder);
+        long nextDue = Long.MAX_VALUE;
+        try {
+            for (WebSocketSession session : activeSessions.values()) {
+                if (!session.isOpen()) {
+                    continue;
+                }
+                Map<String, Object> attributes = session.getAttributes();
+                Subscription subscription = (Subscription) attributes.getOrDefault(SUBSCRIPTION_ATTRIBUTE, Subscription.ALL);
+                AtomicBoolean needsSnapshot = (AtomicBoolean) attributes.get(NEEDS_SNAPSHOT_ATTRIBUTE);
+                AtomicBoolean needsMissions = (AtomicBoolean) attributes.get(NEEDS_MISSIONS_ATTRIBUTE);
+                boolean pending = attributes.containsKey(PENDING_ATTRIBUTE);
+                if (pendingOnly ? !pending : !pending && !isRelevant(tick, subscription)) {
+                    continue;
+                }
+
+                // Deltas are small and chain from push to push, so delta sessions only
+                // get a rate limit if they ask for one.
+                long interval = subscription.minIntervalMillis(
+                        tick.isEventDriven() && needsSnapshot == null ? defaultClientIntervalMillis : 0L);
+                Long lastSent = (Long) attributes.get(LAST_SENT_ATTRIBUTE);
+                long dueAt = lastSent != null && interval > 0 ? Subscription.dueAt(lastSent, interval) : now;
+                if (now < dueAt) {
+                    attributes.put(PENDING_ATTRIBUTE, Boolean.TRUE);
+                    // A delta client in sync keeps the skipped changes for its next
+                    // push; one waiting for a snapshot will get the latest state anyway.
+                    if (needsSnapshot != null && !needsSnapshot.get()) {
+                        ((PendingDelta) attributes.get(PENDING_DELTA_ATTRIBUTE)).merge(tick.getDeltaFrame().getDelta());
+                    }
+                    if (needsMissions != null && !pendingOnly && frames.changedMissions(subscription) != null) {
+                        needsMissions.set(true);
+                    }
+                    nextDue = Math.min(nextDue, dueAt);
+                    continue;
+                }
+                attributes.remove(PENDING_ATTRIBUTE);
+
+                if (needsMissions != null) {
+                    BinaryMessage binary = frames.binary(subscription);
+                    if (binary == null) {
+                        continue;
+                    }
+                    TextMessage missions = needsMissions.getAndSet(false)
+                            ? frames.allMissions(subscription) : frames.changedMissions(subscription);
+                    if (missions != null) {
+                        sendQueues.send(session, missions, stamp);
+                        queued++;
+                    }
+                    sendQueues.send(session, binary, stamp);
+                    queued++;
+                    attributes.put(LAST_SENT_ATTRIBUTE, now);
+                    continue;
+                }
+
+                TextMessage message;
+                if (needsSnapshot == null) {
+                    if (subscription.hasFieldRates()) {
+                        @SuppressWarnings("unchecked")
+                        Map<String, Long> fieldLastSent = (Map<String, Long>) attributes.computeIfAbsent(
+                                FIELD_LAST_SENT_ATTRIBUTE, key -> new HashMap<String, Long>());
+                        Set<String> heldBack = subscription.heldBackFields(fieldLastSent, now);
+                        message = frames.full(subscription.withoutFields(heldBack));
+                        if (message != null) {
+                            long fieldsDue = subscription.recordFieldsSent(fieldLastSent, heldBack, now);
+                            if (fieldsDue != Long.MAX_VALUE) {
+                                // Held-back fields go out once due, even if nothing else changes.
+                                attributes.put(PENDING_ATTRIBUTE, Boolean.TRUE);
+                                nextDue = Math.min(nextDue, fieldsDue);
+                            }
+                        }
+                    } else {
+                        message = frames.full(subscription);
+                    }
+                } else {
+                    PendingDelta pendingDelta = (PendingDelta) attributes.get(PENDING_DELTA_ATTRIBUTE);
+                    if (needsSnapshot.get()) {
+                        message = frames.snapshot(subscription);
+                        pendingDelta.clear();
+                    } else if (pendingDelta.isAcknowledging() || !pendingDelta.isEmpty()) {
+                        // Session-specific: changes since its acknowledgement, or the
+                        // ones it skipped, so nothing to share with other sessions.
+                        pendingDelta.merge(tick.getDeltaFrame().getDelta());
+                        Map<String, Object> delta = pendingDelta.isEmpty() ? null
+                                : subscription.project(pendingDelta.delta(), false);
+                        message = delta != null ? new TextMessage(objectMapper.writeValueAsString(delta)) : null;
+                    } else {
+                        message = frames.delta(subscription);
+                    }
+                }
+                if (message == null) {
+                    continue;
+                }
+                // Cleared optimistically; the send queue sets it again if the frame is lost.
+                if (needsSnapshot != null) {
+                    needsSnapshot.set(false);
+                }
+                sendQueues.send(session, message, stamp);
+                queued++;
+                attributes.put(LAST_SENT_ATTRIBUTE, now);
+            }
+        } catch (Exception e) {
+            System.err.println("Error serializing data: " + e.getMessage());
+        }
+        metrics.broadcast(System.nanoTime() - started, queued);
+        return nextDue;
+    }
+
+    // Records how stale each vessel in the tick was when the push serialized it and
+    // stamps the sampled traces it carries. In event mode only the vessels that
+    // changed count, the rest were serialized by an earlier push; their traces still
+    // ride along until one of their frames is written, since a rate-limited session
+    // may only receive the state in a later push.
+    private FrameStamp stampTick(TelemetryTick tick) {
+        long serializedNanos = tick.getSerializedNanos();
+        if (activeSessions.isEmpty()) {
+            return new FrameStamp(serializedNanos, null, metrics, tracer);
+        }
+        long[] traceIds = null;
+        int traces = 0;
+        for (VesselSnapshot vessel : tick.getVessels()) {
+            if (!tick.isEventDriven() || tick.getChangedPorts().contains(vessel.getPort())) {
+                if (vessel.getUpdatedNanos() != 0) {
+                    metrics.serialized(serializedNanos - vessel.getUpdatedNanos());
+                }
+                tracer.serialized(vessel.getTraceId(), serializedNanos);
+            }
+            if (tracer.awaitsWrite(vessel.getTraceId())) {
+                if (traceIds == null) {
+                    traceIds = new long[tick.getVessels().size()];
+                }
+                traceIds[traces++] = vessel.getTraceId();
+            }
+        }
+        return new FrameStamp(serializedNanos, traceIds != null ? Arrays.copyOf(traceIds, traces) : null,
+                metrics, tracer);
+    }
+
+    // Fixed-rate ticks go to everyone; event-driven pushes only to sessions subscribed
+    // to a vessel that changed or went away.
+    private static boolean isRelevant(TelemetryTick tick, Subscription subscription) {
+        if (!tick.isEventDriven()) {
+            return true;
+        }
+        for (Integer port : tick.getChangedPorts()) {
+            if (subscription.includes(port)) {
+                return true;
+            }
+        }
+        for (Integer port : tick.getRemovedPorts()) {
+            if (subscription.includes(port)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDeltaRequested(URI uri) {
+        String query = uri != null ? uri.getQuery() : null;
+        if (query == null) {
+            return false;
+        }
+        for (String parameter : query.split("&")) {
+            if (parameter.equalsIgnoreCase("mode=delta")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Geofence and threshold alerts: encoded once and queued, as control messages that
+    // the drop policies never discard, to every session whose subscription covers the
+    // port, whatever its rate or protocol.
+    public void sendAlert(int port, Map<String, Object> alert) {
+        try {
+            TextMessage message = new TextMessage(objectMapper.writeValueAsString(alert));
+            activeSessions.forEach((id, session) -> {
+                Subscription subscription = (Subscription) session.getAttributes()
+                        .getOrDefault(SUBSCRIPTION_ATTRIBUTE, Subscription.ALL);
+                if (session.isOpen() && subscription.includes(port)) {
+                    sendQueues.send(session, message, false);
+                }
+            });
+        } catch (Exception e) {
+            System.err.println("❌ Error sending alert: " + e.getMessage());
+        }
+    }
+
+    // {"type":"link_quality","timestamp":..,"links":[...]}, each session only getting the
+    // links of the ports it subscribed to. Sessions subscribed to everything share one
+    // encoded message.
+    public void sendLinkQuality(List<Map<String, Object>> links, long timestamp) {
+        try {
+            TextMessage all = null;
+            for (WebSocketSession session : activeSessions.values()) {
+                if (!session.isOpen()) {
+                    continue;
+                }
+                Subscription subscription = (Subscription) session.getAttributes()
+                        .getOrDefault(SUBSCRIPTION_ATTRIBUTE, Subscription.ALL);
+                TextMessage message;
+                if (subscription == Subscription.ALL) {
+                    if (all == null) {
+                        all = linkQualityMessage(links, timestamp);
+                    }
+                    message = all;
+                } else {
+                    List<Map<String, Object>> included = links.stream()
+                            .filter(link -> subscription.includes((Integer) link.get("port")))
+                            .toList();
+                    if (included.isEmpty()) {
+                        continue;
+                    }
+                    message = linkQualityMessage(included, timestamp);
+                }
+                sendQueues.send(session, message, false);
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Error sending link quality: " + e.getMessage());
+        }
+    }
+
+    private TextMessage linkQualityMessage(List<Map<String, Object>> links, long timestamp)
+            throws JsonProcessingException {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("type", "link_quality");
+        message.put("timestamp", timestamp);
+        message.put("links", links);
+        return new TextMessage(objectMapper.writeValueAsString(message));
+    }
+
     public void sendMissionData(List<Map<String, Object>> missionDataList) {
         broadcastData(missionDataList);
     }
 
-    private static void broadcastData(Object data) {
+    private void broadcastData(Object data) {
         try {
             String jsonData = objectMapper.writeValueAsString(data);
             TextMessage message = new TextMessage(jsonData);
 
             activeSessions.forEach((id, session) -> {
                 if (session.isOpen()) {
-                    try {
-                        session.sendMessage(message);
-                    } catch (IOException e) {
-                        System.err.println("Error sending message to session " + id + ": " + e.getMessage());
-                    }
+                    sendQueues.send(session, message, true);
                 }
             });
         } catch (Exception e) {
@@ -81,7 +455,7 @@ public class TelemetryWebSocketHandler extends TextWebSocketHandler {
     }
 
     private void sendConnectionAck(WebSocketSession session) throws IOException {
-        session.sendMessage(new TextMessage(
+        sendQueues.send(session, new TextMessage(
                 objectMapper.writeValueAsString(
                         Map.of(
                                 "status", "connected",
@@ -89,11 +463,12 @@ public class TelemetryWebSocketHandler extends TextWebSocketHandler {
                                 "timestamp", System.currentTimeMillis()
                         )
                 )
-        ));
+        ), false);
     }
 
     private void cleanupSession(WebSocketSession session) {
         activeSessions.remove(session.getId());
         errorBroadcaster.removeSession(session);
+        sendQueues.close(session);
     }
 }
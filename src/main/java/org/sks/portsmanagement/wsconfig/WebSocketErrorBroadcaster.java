@@ -4,29 +4,34 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
-import java.io.IOException;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 @Service
 public class WebSocketErrorBroadcaster {
     private final CopyOnWriteArrayList<WebSocketSession> sessions = new CopyOnWriteArrayList<>();
+    private final WebSocketSendQueues sendQueues;
 
+    public WebSocketErrorBroadcaster(WebSocketSendQueues sendQueues) {
+        this.sendQueues = sendQueues;
+    }
+
+    // Opens the session's send queue unless its handler already did.
     public void addSession(WebSocketSession session) {
+        sendQueues.open(session, null);
         sessions.add(session);
     }
 
     public void removeSession(WebSocketSession session) {
         sessions.remove(session);
+        sendQueues.close(session);
     }
 
+    // Only enqueues, so callers on the UDP receive path never wait on a browser.
     public void broadcastError(String errorJson) {
+        TextMessage message = new TextMessage(errorJson);
         for (WebSocketSession session : sessions) {
             if (session.isOpen()) {
-                try {
-                    session.sendMessage(new TextMessage(errorJson));
-                } catch (IOException e) {
-                    System.err.println("Error sending WebSocket message: " + e.getMessage());
-                }
+                sendQueues.send(session, message, false);
             }
         }
     }
@@ -0,0 +1,100 @@
+package org.sks.portsmanagement.wsconfig;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Owns the outbound queue of every open WebSocket session and the threads that drain
+// them. Broadcasting is therefore just an enqueue per session, independent of how fast
+// each browser reads.
+@Component
+public class WebSocketSendQueues {
+
+    private final int capacity;
+    private final SessionSendQueue.OverflowPolicy policy;
+    private final Map<String, SessionSendQueue> queues = new ConcurrentHashMap<>();
+    // A drain task only lives while its session has something queued, so threads are
+    // bounded by the number of sessions with pending output.
+    private final ExecutorService senders = Executors.newCachedThreadPool(new ThreadFactory());
+
+    public WebSocketSendQueues(@Value("${telemetry.ws.queue-capacity:64}") int capacity,
+                               @Value("${telemetry.ws.overflow-policy:coalesce}") String policy) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = SessionSendQueue.OverflowPolicy.parse(policy);
+    }
+
+    // Idempotent; onTelemetryDropped runs whenever a telemetry frame for this session is lost.
+    public void open(WebSocketSession session, Runnable onTelemetryDropped) {
+        queues.computeIfAbsent(session.getId(),
+                id -> new SessionSendQueue(session, capacity, policy, senders, onTelemetryDropped));
+    }
+
+    public void close(WebSocketSession session) {
+        SessionSendQueue queue = queues.remove(session.getId());
+        if (queue != null) {
+            queue.close();
+        }
+    }
+
+    public void send(WebSocketSession session, WebSocketMessage<?> message, boolean telemetry) {
+        send(session, message, telemetry, null);
+    }
+
+    // A telemetry frame of a push whose delivery latency is measured.
+    void send(WebSocketSession session, WebSocketMessage<?> message, FrameStamp stamp) {
+        send(session, message, true, stamp);
+    }
+
+    // Sessions get their queue when they connect; a session without one has been closed
+    // (or was never opened), and its messages are dropped rather than reopening a queue
+    // that nothing would close again.
+    private void send(WebSocketSession session, WebSocketMessage<?> message, boolean telemetry, FrameStamp stamp) {
+        SessionSendQueue queue = queues.get(session.getId());
+        if (queue != null) {
+            queue.enqueue(message, telemetry, stamp);
+        }
+    }
+
+    // Per-session queue depth and counters for monitoring.
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (SessionSendQueue queue : queues.values()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("session_id", queue.sessionId());
+            entry.put("policy", queue.policy().name().toLowerCase().replace('_', '-'));
+            entry.put("queue_depth", queue.depth());
+            entry.put("sent", queue.sentCount());
+            entry.put("dropped", queue.droppedCount());
+            entry.put("failed", queue.failedCount());
+            stats.add(entry);
+        }
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        senders.shutdownNow();
+    }
+
+    private static final class ThreadFactory implements java.util.concurrent.ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ws-sender-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
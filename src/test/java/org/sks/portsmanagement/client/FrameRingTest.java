@@ -0,0 +1,108 @@
+package org.sks.portsmanagement.client;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Each frame carries its producer in ports[] and a per-producer counter both in
+// senderPorts[] and in its bytes, so the consumer can tell a lost, duplicated,
+// reordered or torn frame apart.
+class FrameRingTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int FRAMES_PER_PRODUCER = 50_000;
+
+    @Test
+    void fullRingRejectsUntilReleased() {
+        FrameRing ring = new FrameRing(5);
+        assertEquals(8, ring.capacity());
+        for (int i = 0; i < 8; i++) {
+            assertTrue(offer(ring, 0, i), "frame " + i);
+        }
+        assertFalse(offer(ring, 0, 8));
+        assertEquals(8, ring.size());
+
+        int slot = ring.peek();
+        assertEquals(0, ring.senderPorts[slot]);
+        ring.release(slot);
+        assertTrue(offer(ring, 0, 8));
+        assertFalse(offer(ring, 0, 9));
+
+        for (int i = 1; i <= 8; i++) {
+            slot = ring.peek();
+            assertEquals(i, ring.senderPorts[slot]);
+            assertEquals(i, ring.frames.getInt(slot * MavlinkDatagramDecoder.MAX_FRAME_LENGTH));
+            ring.release(slot);
+        }
+        assertEquals(-1, ring.peek());
+        assertEquals(0, ring.size());
+    }
+
+    // A small ring and a consumer that stalls now and then, so producers keep finding
+    // it full and have to retry. Waiting threads yield, so this also runs on one CPU.
+    @Test
+    @Timeout(60)
+    void concurrentProducersOneConsumer() throws InterruptedException {
+        FrameRing ring = new FrameRing(64);
+        AtomicLong rejected = new AtomicLong();
+        List<Thread> producers = new ArrayList<>();
+        for (int producer = 0; producer < PRODUCERS; producer++) {
+            int id = producer;
+            Thread thread = new Thread(() -> {
+                for (int counter = 0; counter < FRAMES_PER_PRODUCER; counter++) {
+                    while (!offer(ring, id, counter)) {
+                        rejected.incrementAndGet();
+                        Thread.yield();
+                    }
+                }
+            }, "producer-" + producer);
+            // A failed assertion must not leave producers spinning on a full ring.
+            thread.setDaemon(true);
+            producers.add(thread);
+            thread.start();
+        }
+
+        int[] expected = new int[PRODUCERS];
+        long consumed = 0;
+        while (consumed < (long) PRODUCERS * FRAMES_PER_PRODUCER) {
+            int slot = ring.peek();
+            if (slot < 0) {
+                Thread.yield();
+                continue;
+            }
+            assertTrue(ring.size() <= ring.capacity());
+            int producer = ring.ports[slot];
+            int counter = ring.senderPorts[slot];
+            assertEquals(expected[producer], counter, "next frame of producer " + producer);
+            assertEquals(counter, ring.frames.getInt(slot * MavlinkDatagramDecoder.MAX_FRAME_LENGTH),
+                    "bytes of frame " + counter + " of producer " + producer);
+            assertEquals(counter * 31L, ring.receivedNanos[slot]);
+            expected[producer]++;
+            ring.release(slot);
+            if (++consumed % 5_000 == 0) {
+                Thread.sleep(1);
+            }
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertEquals(-1, ring.peek(), "frames beyond those offered");
+        for (int producer = 0; producer < PRODUCERS; producer++) {
+            assertEquals(FRAMES_PER_PRODUCER, expected[producer]);
+        }
+        assertTrue(rejected.get() > 0, "the ring never filled up");
+    }
+
+    private static boolean offer(FrameRing ring, int producer, int counter) {
+        ByteBuffer frame = ByteBuffer.allocate(8).putInt(0, counter).putInt(4, ~counter);
+        return ring.offer(producer, null, frame, 0, frame.capacity(), 0, null, counter, counter * 31L);
+    }
+}
@@ -0,0 +1,161 @@
+package org.sks.portsmanagement.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sks.portsmanagement.wsconfig.WebSocketErrorBroadcaster;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// Rejections are counted per (sender ip, port) and published as one summary per
+// interval, captured here from the error broadcaster. Replies are off throughout.
+class RejectionAggregatorTest {
+
+    private static final int TABLE_SIZE = 16;
+    // As in RejectionAggregator.Table.slot.
+    private static final int MAX_PROBES = 8;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<String> events = new ArrayList<>();
+    private RejectionAggregator aggregator;
+
+    @BeforeEach
+    void setUp(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("fleet.json");
+        Files.writeString(file, "{\"ships\":[{\"name\":\"Owner\",\"ip\":\"10.0.0.1\",\"ports\":[\"14550\"]}]}");
+        FleetRegistry fleetRegistry = new FleetRegistry(objectMapper, file.toString());
+        fleetRegistry.load();
+        aggregator = new RejectionAggregator(fleetRegistry, capture(), objectMapper, TABLE_SIZE, "off", 0);
+    }
+
+    @Test
+    void countsPerSourceAndPublishesOneSummaryPerInterval() throws IOException {
+        reject("10.0.0.9", 14550, 5);
+        reject("10.0.0.7", 14550, 3);
+        reject("10.0.0.9", 14551, 1);
+        aggregator.publishSummary();
+
+        JsonNode summary = lastSummary();
+        assertEquals("unauthorized_connections", summary.get("error").asText());
+        assertEquals(9, summary.get("total").asLong());
+        JsonNode sources = summary.get("sources");
+        assertEquals(3, sources.size());
+        assertSource(sources.get(0), "10.0.0.9", 14550, 5);
+        assertSource(sources.get(1), "10.0.0.7", 14550, 3);
+        assertSource(sources.get(2), "10.0.0.9", 14551, 1);
+        assertEquals("10.0.0.1", sources.get(0).get("correct_ship_ip").asText());
+        assertEquals("none", sources.get(2).get("correct_ship_ip").asText());
+        assertEquals(0, summary.get("unlisted_sources").asInt());
+
+        // Nothing rejected since: no event. Then only the new rejections count.
+        aggregator.publishSummary();
+        assertEquals(1, events.size());
+        reject("10.0.0.7", 14550, 2);
+        aggregator.publishSummary();
+        assertEquals(2, events.size());
+        summary = lastSummary();
+        assertEquals(2, summary.get("total").asLong());
+        assertSource(summary.get("sources").get(0), "10.0.0.7", 14550, 2);
+    }
+
+    // Sources whose keys hash to the same slot share a probe neighbourhood; each keeps
+    // its own count, and one that finds the neighbourhood full is still counted as
+    // unlisted.
+    @Test
+    void collidingSourcesKeepTheirOwnCounts() throws IOException {
+        List<String> colliding = new ArrayList<>();
+        int home = -1;
+        for (int host = 2; colliding.size() < MAX_PROBES + 1; host++) {
+            String ip = "10.0." + (host >> 8) + "." + (host & 0xFF);
+            int slot = homeSlot(ip, 14550);
+            if (home < 0) {
+                home = slot;
+            }
+            if (slot == home) {
+                colliding.add(ip);
+            }
+        }
+        long total = 0;
+        for (int i = 0; i < colliding.size(); i++) {
+            reject(colliding.get(i), 14550, i + 1);
+            total += i + 1;
+        }
+        aggregator.publishSummary();
+
+        JsonNode summary = lastSummary();
+        assertEquals(total, summary.get("total").asLong());
+        JsonNode sources = summary.get("sources");
+        assertEquals(MAX_PROBES, sources.size());
+        for (int i = 0; i < MAX_PROBES; i++) {
+            // Listed by count, highest first.
+            assertSource(sources.get(i), colliding.get(MAX_PROBES - 1 - i), 14550, MAX_PROBES - i);
+        }
+        assertEquals(1, summary.get("unlisted_sources").asInt());
+        assertEquals(MAX_PROBES + 1, summary.get("unlisted_count").asLong());
+    }
+
+    @Test
+    void listsTheBusiestSourcesOnly() throws IOException {
+        RejectionAggregator large = new RejectionAggregator(new FleetRegistry(objectMapper, "missing.json"),
+                capture(), objectMapper, 1024, "off", 0);
+        for (int host = 1; host <= 25; host++) {
+            for (int i = 0; i < host; i++) {
+                large.reject(InetAddress.getByName("10.1.0." + host), 5000, 14550, null);
+            }
+        }
+        large.publishSummary();
+
+        JsonNode summary = lastSummary();
+        assertEquals(25 * 26 / 2, summary.get("total").asLong());
+        assertEquals(20, summary.get("sources").size());
+        assertSource(summary.get("sources").get(0), "10.1.0.25", 14550, 25);
+        assertSource(summary.get("sources").get(19), "10.1.0.6", 14550, 6);
+        assertEquals(5, summary.get("unlisted_sources").asInt());
+        assertEquals(1 + 2 + 3 + 4 + 5, summary.get("unlisted_count").asLong());
+    }
+
+    private WebSocketErrorBroadcaster capture() {
+        return new WebSocketErrorBroadcaster(null) {
+            @Override
+            public void broadcastError(String errorJson) {
+                events.add(errorJson);
+            }
+        };
+    }
+
+    private void reject(String ip, int port, int times) throws UnknownHostException {
+        InetAddress sender = InetAddress.getByName(ip);
+        for (int i = 0; i < times; i++) {
+            aggregator.reject(sender, 5000, port, null);
+        }
+    }
+
+    // The first slot probed for the source, computed as RejectionAggregator does.
+    private static int homeSlot(String ip, int port) throws UnknownHostException {
+        long address = InetAddress.getByName(ip).hashCode() & 0xFFFFFFFFL;
+        long key = (1L << 48) | (address << 16) | port;
+        return Long.hashCode(key * 0x9E3779B97F4A7C15L) & (TABLE_SIZE - 1);
+    }
+
+    private JsonNode lastSummary() throws IOException {
+        assertFalse(events.isEmpty(), "no summary published");
+        return objectMapper.readTree(events.get(events.size() - 1));
+    }
+
+    private static void assertSource(JsonNode source, String ip, int port, long count) {
+        assertEquals(ip, source.get("attempted_ship_ip").asText());
+        assertEquals(port, source.get("attempted_port").asInt());
+        assertEquals(count, source.get("count").asLong());
+    }
+}
@@ -0,0 +1,68 @@
+package org.sks.portsmanagement.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BitWriterTest {
+
+    @Test
+    void emptyStreamHasNoBytes() {
+        BitWriter writer = new BitWriter();
+        assertEquals(0, writer.lengthInBytes());
+        assertEquals(0, writer.toByteArray().length);
+        assertThrows(IllegalStateException.class, () -> new BitReader(new byte[0]).read(1));
+    }
+
+    @Test
+    void writesMostSignificantBitFirstAndPadsWithZeros() {
+        BitWriter writer = new BitWriter();
+        writer.write(0b101, 3);
+        writer.write(0b1, 1);
+        writer.write(0xABC, 12);
+        writer.write(0b11, 2);
+        assertArrayEquals(new byte[]{(byte) 0xBA, (byte) 0xBC, (byte) 0xC0}, writer.toByteArray());
+    }
+
+    @Test
+    void fullWordsRoundTrip() {
+        BitWriter writer = new BitWriter();
+        writer.write(0b1, 1);
+        writer.write(-1L, 64);
+        writer.write(Long.MIN_VALUE, 64);
+        writer.write(0x0123456789ABCDEFL, 64);
+        BitReader reader = new BitReader(writer.toByteArray());
+        assertEquals(1, reader.read(1));
+        assertEquals(-1L, reader.read(64));
+        assertEquals(Long.MIN_VALUE, reader.read(64));
+        assertEquals(0x0123456789ABCDEFL, reader.read(64));
+    }
+
+    // Random widths, so values straddle the word boundaries on both sides, and a stream
+    // long enough to grow the writer's buffer.
+    @Test
+    void randomWidthsRoundTrip() {
+        Random random = new Random(13);
+        int count = 20000;
+        int[] widths = new int[count];
+        long[] values = new long[count];
+        BitWriter writer = new BitWriter();
+        long bits = 0;
+        for (int i = 0; i < count; i++) {
+            widths[i] = 1 + random.nextInt(64);
+            values[i] = random.nextLong() & BitWriter.mask(widths[i]);
+            // High bits beyond the width must be ignored.
+            writer.write(values[i] | (random.nextLong() << 1 << (widths[i] - 1)), widths[i]);
+            bits += widths[i];
+        }
+        assertEquals((bits + 7) / 8, writer.lengthInBytes());
+        BitReader reader = new BitReader(writer.toByteArray());
+        for (int i = 0; i < count; i++) {
+            assertEquals(values[i], reader.read(widths[i]), "value " + i + " of width " + widths[i]);
+        }
+    }
+}
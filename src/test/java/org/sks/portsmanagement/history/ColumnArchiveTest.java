@@ -0,0 +1,133 @@
+package org.sks.portsmanagement.history;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sks.portsmanagement.service.TelemetryField;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A crash while a block is being appended leaves it torn at the end of the archive
+// file. The blocks before it must still read back, and the next block written after a
+// restart must replace the torn one.
+class ColumnArchiveTest {
+
+    private static final int PORT = 7;
+    private static final long START = 1_760_000_000_000L;
+    private static final long INTERVAL = 200;
+    private static final int RECORDS_PER_BLOCK = 100;
+    private static final long MASK = (1L << TelemetryField.LAT.ordinal())
+            | (1L << TelemetryField.BATTERY_VOLTAGE.ordinal());
+
+    @TempDir
+    Path directory;
+
+    private final RecordRing ring = new RecordRing(16);
+    private final double[] slots = new double[TelemetryField.COUNT];
+
+    @Test
+    void truncatedLastBlockLeavesEarlierBlocksReadable() throws IOException {
+        ColumnArchive archive = newArchive();
+        append(archive, 0, 2 * RECORDS_PER_BLOCK);
+        Path file = archiveFile();
+        long twoBlocks = Files.size(file);
+        append(archive, 2 * RECORDS_PER_BLOCK, 3 * RECORDS_PER_BLOCK);
+        long threeBlocks = Files.size(file);
+        assertEquals(3 * RECORDS_PER_BLOCK, readBack(file, TelemetryField.LAT).length);
+
+        // Cut inside the third block's header, inside its data, and one byte short.
+        long[] cuts = {twoBlocks + 10, twoBlocks + (threeBlocks - twoBlocks) / 2, threeBlocks - 1};
+        for (long cut : cuts) {
+            Path torn = directory.resolve("torn-" + cut + ColumnBlock.SUFFIX);
+            Files.copy(file, torn, StandardCopyOption.REPLACE_EXISTING);
+            truncate(torn, cut);
+            assertRecords(torn, 0, 2 * RECORDS_PER_BLOCK);
+        }
+
+        // After a restart the torn tail is cut off before the next block goes in.
+        truncate(file, twoBlocks + (threeBlocks - twoBlocks) / 2);
+        ColumnArchive restarted = newArchive();
+        append(restarted, 3 * RECORDS_PER_BLOCK, 4 * RECORDS_PER_BLOCK);
+        assertRecords(file, 0, 2 * RECORDS_PER_BLOCK, 3 * RECORDS_PER_BLOCK, 4 * RECORDS_PER_BLOCK);
+    }
+
+    private ColumnArchive newArchive() {
+        return new ColumnArchive(directory, 2 * RECORDS_PER_BLOCK, Long.MAX_VALUE);
+    }
+
+    // Records [first, end), each with a latitude and a battery voltage; a block is
+    // sealed every RECORDS_PER_BLOCK records.
+    private void append(ColumnArchive archive, int first, int end) {
+        for (int i = first; i < end; i++) {
+            slots[TelemetryField.LAT.ordinal()] = latitude(i);
+            slots[TelemetryField.BATTERY_VOLTAGE.ordinal()] = voltage(i);
+            assertTrue(ring.offer(PORT, time(i), MASK, slots));
+            int slot = ring.peek();
+            archive.append(ring, slot);
+            ring.release(slot);
+        }
+    }
+
+    private Path archiveFile() throws IOException {
+        List<Path> files = TelemetryHistoryStore.listFiles(directory.resolve(Integer.toString(PORT)),
+                ColumnBlock.SUFFIX);
+        assertEquals(1, files.size());
+        return files.get(0);
+    }
+
+    // Both columns hold exactly the records of the given [first, end) ranges.
+    private static void assertRecords(Path file, int... ranges) {
+        double[][] lat = readBack(file, TelemetryField.LAT);
+        double[][] voltage = readBack(file, TelemetryField.BATTERY_VOLTAGE);
+        int read = 0;
+        for (int range = 0; range < ranges.length; range += 2) {
+            for (int i = ranges[range]; i < ranges[range + 1]; i++, read++) {
+                assertEquals(time(i), (long) lat[read][0], "time of record " + i);
+                assertEquals(latitude(i), lat[read][1], "latitude of record " + i);
+                assertEquals(time(i), (long) voltage[read][0], "time of record " + i);
+                assertEquals(voltage(i), voltage[read][1], "voltage of record " + i);
+            }
+        }
+        assertEquals(read, lat.length, file.getFileName() + " has more records");
+        assertEquals(read, voltage.length, file.getFileName() + " has more records");
+    }
+
+    private static double[][] readBack(Path file, TelemetryField field) {
+        ColumnCursor cursor = new ColumnCursor(List.of(file), field.ordinal(), 0, Long.MAX_VALUE);
+        double[][] samples = new double[5 * RECORDS_PER_BLOCK][];
+        int count = 0;
+        while (cursor.next()) {
+            samples[count++] = new double[]{cursor.time(), cursor.value()};
+        }
+        assertFalse(cursor.next());
+        return Arrays.copyOf(samples, count);
+    }
+
+    private static void truncate(Path file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+    }
+
+    private static long time(int record) {
+        return START + record * INTERVAL;
+    }
+
+    private static double latitude(int record) {
+        return 16.8 + record * 1e-5;
+    }
+
+    private static double voltage(int record) {
+        return 12600 - record % 7;
+    }
+}
@@ -0,0 +1,144 @@
+package org.sks.portsmanagement.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Round trips through ColumnEncoder and ColumnDecoder, comparing values bit for bit so
+// NaN payloads and the sign of zero have to survive too.
+class ColumnEncoderTest {
+
+    private static final byte[] ENCODINGS = {ColumnEncoder.XOR, ColumnEncoder.INTEGER};
+    private static final long START = 1_760_000_000_000L;
+
+    @Test
+    void emptyColumn() {
+        for (byte encoding : ENCODINGS) {
+            ColumnEncoder encoder = new ColumnEncoder(0, encoding);
+            assertEquals(0, encoder.getCount());
+            assertEquals(0, encoder.toByteArray().length);
+            assertFalse(new ColumnDecoder(encoder.toByteArray(), encoding, 0).next());
+        }
+    }
+
+    @Test
+    void singleSample() {
+        for (byte encoding : ENCODINGS) {
+            roundTrip(encoding, new long[]{START}, new double[]{12.5});
+            roundTrip(encoding, new long[]{Long.MIN_VALUE}, new double[]{-3});
+        }
+    }
+
+    @Test
+    void specialValues() {
+        double[] values = {0.0, -0.0, Double.NaN, Double.longBitsToDouble(0x7FF8_0000_DEAD_BEEFL), -0.0, 0.0,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, -Double.MAX_VALUE,
+                Double.MAX_VALUE, 1.0, 1.5, -1.5, Double.NaN, Double.NaN, 7};
+        for (byte encoding : ENCODINGS) {
+            roundTrip(encoding, regularTimes(values.length, 1000), values);
+        }
+    }
+
+    // Delta-of-delta around the boundary of every timestamp width, steps back in time,
+    // and gaps of years and more that need the full 64 bits.
+    @Test
+    void timestampWidths() {
+        long[] deltaOfDeltas = {0, 1, -1, 63, -64, 64, -65, 255, -256, 256, -257, 2047, -2048, 2048, -2049,
+                1L << 40, -(1L << 41), 5, 0, 0, -7, 365L * 24 * 3600 * 1000 * 100, Long.MAX_VALUE / 4,
+                Long.MIN_VALUE / 4, 3};
+        long[] times = new long[deltaOfDeltas.length + 2];
+        times[0] = START;
+        times[1] = START + 1000;
+        long delta = 1000;
+        for (int i = 0; i < deltaOfDeltas.length; i++) {
+            delta += deltaOfDeltas[i];
+            times[i + 2] = times[i + 1] + delta;
+        }
+        double[] values = new double[times.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 3;
+        }
+        for (byte encoding : ENCODINGS) {
+            roundTrip(encoding, times, values);
+        }
+        roundTrip(ColumnEncoder.XOR, new long[]{Long.MIN_VALUE, Long.MAX_VALUE, 0, Long.MIN_VALUE},
+                new double[]{1, 2, 3, 4});
+    }
+
+    // Integer differences at the edge of every width, up to the largest exact whole
+    // numbers, and values the integer coding must store raw.
+    @Test
+    void integerWidths() {
+        double max = ColumnEncoder.MAX_EXACT_INTEGER;
+        double[] values = {0, 127, -1, 127, -129, 0, 32767, -32768, 0, (double) Integer.MAX_VALUE,
+                (double) Integer.MIN_VALUE, 0, 1L << 31, -(1L << 31) - 1, max, -max, max, 0.5, max + 2,
+                -max - 2, 1e300, -0.0, Double.NaN, 65535, 65535, 12600, 12599, -max, 3};
+        roundTrip(ColumnEncoder.INTEGER, regularTimes(values.length, 200), values);
+        roundTrip(ColumnEncoder.XOR, regularTimes(values.length, 200), values);
+    }
+
+    // XOR windows from one bit to all 64, reused and widened.
+    @Test
+    void xorWidths() {
+        long[] bits = {0, 1, 3, 1L << 63, -1L, 0, 0x8000_0000_0000_0001L, 0x0000_0000_0000_0002L,
+                0x7FF0_0000_0000_0001L, 0x0000_FFFF_0000_0000L, 0x0000_FFFE_0000_0000L, 0x0001_0000_0000_0000L};
+        double[] values = new double[bits.length];
+        for (int i = 0; i < bits.length; i++) {
+            values[i] = Double.longBitsToDouble(bits[i]);
+        }
+        roundTrip(ColumnEncoder.XOR, regularTimes(values.length, 1), values);
+    }
+
+    @Test
+    void randomTelemetry() {
+        Random random = new Random(42);
+        int count = 50000;
+        long[] times = new long[count];
+        double[] doubles = new double[count];
+        double[] integers = new double[count];
+        long time = START;
+        double lat = 16.8;
+        long millivolts = 12600;
+        for (int i = 0; i < count; i++) {
+            time += random.nextInt(10) == 0 ? random.nextInt(100_000) : 200 + random.nextInt(5) - 2;
+            times[i] = time;
+            lat += random.nextInt(4) == 0 ? 0 : random.nextGaussian() * 1e-5;
+            doubles[i] = random.nextInt(1000) == 0 ? Double.NaN : lat;
+            millivolts += random.nextInt(3) == 0 ? random.nextInt(21) - 10 : 0;
+            integers[i] = random.nextInt(1000) == 0 ? random.nextLong() : millivolts;
+        }
+        roundTrip(ColumnEncoder.XOR, times, doubles);
+        roundTrip(ColumnEncoder.INTEGER, times, integers);
+        roundTrip(ColumnEncoder.XOR, times, integers);
+    }
+
+    private static long[] regularTimes(int count, long interval) {
+        long[] times = new long[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = START + i * interval;
+        }
+        return times;
+    }
+
+    private static void roundTrip(byte encoding, long[] times, double[] values) {
+        ColumnEncoder encoder = new ColumnEncoder(7, encoding);
+        for (int i = 0; i < times.length; i++) {
+            encoder.add(times[i], values[i]);
+        }
+        assertEquals(times.length, encoder.getCount());
+        byte[] data = encoder.toByteArray();
+        assertEquals(encoder.lengthInBytes(), data.length);
+        ColumnDecoder decoder = new ColumnDecoder(data, encoding, encoder.getCount());
+        for (int i = 0; i < times.length; i++) {
+            assertTrue(decoder.next(), "sample " + i + " missing");
+            assertEquals(times[i], decoder.time(), "time of sample " + i);
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decoder.value()),
+                    "value of sample " + i + " (" + values[i] + ")");
+        }
+        assertFalse(decoder.next());
+    }
+}
@@ -0,0 +1,94 @@
+package org.sks.portsmanagement.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Torn-read stress test of the seqlock: update n writes n into every field and
+// timestamp one at a time, so a snapshot mixing two updates shows up as differing
+// values, and one not matching its version as a value other than the version.
+class VesselStateTest {
+
+    private static final int READERS = 3;
+    private static final int SNAPSHOTS_PER_READER = 100_000;
+
+    @Test
+    @Timeout(60)
+    void snapshotsAreNeverTorn() throws InterruptedException {
+        VesselState state = new VesselState(14550);
+        List<TelemetryField> fields = new ArrayList<>();
+        for (TelemetryField field : TelemetryField.VALUES) {
+            if (field.isNumeric()) {
+                fields.add(field);
+            }
+        }
+
+        Thread writer = new Thread(() -> {
+            for (long update = 1; !Thread.currentThread().isInterrupted(); update++) {
+                state.beginWrite();
+                try {
+                    state.setReceivedNanos(update);
+                    for (TelemetryField field : fields) {
+                        state.set(field, update);
+                    }
+                    state.setUpdatedNanos(update);
+                    state.setTraceId(update);
+                } finally {
+                    state.endWrite();
+                }
+            }
+        }, "writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int reader = 0; reader < READERS; reader++) {
+            Thread thread = new Thread(() -> {
+                long lastVersion = 0;
+                for (int i = 0; i < SNAPSHOTS_PER_READER && failure.get() == null; i++) {
+                    VesselSnapshot snapshot = state.snapshot();
+                    String problem = check(snapshot, fields, lastVersion);
+                    if (problem != null) {
+                        failure.compareAndSet(null, problem);
+                    }
+                    lastVersion = snapshot.getVersion();
+                }
+            }, "reader-" + reader);
+            readers.add(thread);
+            thread.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        writer.interrupt();
+        writer.join();
+
+        assertNull(failure.get());
+        assertTrue(state.snapshot().getVersion() > 0, "the writer never ran");
+    }
+
+    private static String check(VesselSnapshot snapshot, List<TelemetryField> fields, long lastVersion) {
+        long version = snapshot.getVersion();
+        if (version < lastVersion) {
+            return "version went back from " + lastVersion + " to " + version;
+        }
+        if (snapshot.getReceivedNanos() != version || snapshot.getUpdatedNanos() != version
+                || snapshot.getTraceId() != version) {
+            return "timestamps " + snapshot.getReceivedNanos() + "/" + snapshot.getUpdatedNanos() + "/"
+                    + snapshot.getTraceId() + " in version " + version;
+        }
+        for (TelemetryField field : fields) {
+            if ((version > 0 && !snapshot.isWritten(field)) || snapshot.get(field) != version) {
+                return field.key() + " = " + snapshot.get(field) + " in version " + version;
+            }
+        }
+        return null;
+    }
+}
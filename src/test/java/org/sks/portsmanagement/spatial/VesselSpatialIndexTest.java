@@ -0,0 +1,210 @@
+package org.sks.portsmanagement.spatial;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sks.portsmanagement.utils.GeoDistance;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Compares every query against a brute-force scan of the same positions: a dense
+// cluster, plus vessels next to both poles and on both sides of the antimeridian,
+// where the grid wraps or its cells shrink to nothing.
+class VesselSpatialIndexTest {
+
+    private static final int VESSELS = 3000;
+    private static final int REMOVED = 5;
+
+    private final Random random = new Random(1);
+    private final double[] lat = new double[VESSELS];
+    private final double[] lon = new double[VESSELS];
+    private VesselSpatialIndex index;
+
+    @BeforeEach
+    void fill() {
+        index = new VesselSpatialIndex(0.01);
+        for (int port = 0; port < VESSELS; port++) {
+            if (port % 100 == 0) {
+                place(port, -89.99 + random.nextDouble() * 0.02, random.nextDouble() * 360 - 180);
+            } else if (port % 100 == 1) {
+                place(port, 89.99 - random.nextDouble() * 0.02, random.nextDouble() * 360 - 180);
+            } else if (port % 50 == 2) {
+                place(port, random.nextDouble() * 2 - 1,
+                        random.nextBoolean() ? 179.999 - random.nextDouble() * 0.01 : -179.999 + random.nextDouble() * 0.01);
+            } else {
+                place(port, 16.8 + random.nextGaussian() * 0.05, 96.1 + random.nextGaussian() * 0.05);
+            }
+        }
+        // Moving vessels across cells must unlist them from the old one.
+        for (int port = 0; port < VESSELS; port += 7) {
+            place(port, Math.max(-90, Math.min(90, lat[port] + 0.02)), lon[port]);
+        }
+        index.remove(REMOVED);
+    }
+
+    // Positions arrive as degrees * 1e7, so the brute force uses the rounded values.
+    private void place(int port, double latitude, double longitude) {
+        int latE7 = (int) Math.round(latitude * 1e7);
+        int lonE7 = (int) Math.round(longitude * 1e7);
+        index.update(port, latE7, lonE7);
+        lat[port] = latE7 / 1e7;
+        lon[port] = lonE7 / 1e7;
+    }
+
+    private double[] queryPoint(int query) {
+        switch (query % 4) {
+            case 0:
+                return new double[]{random.nextDouble() * 2 - 1, random.nextBoolean() ? 179.99 : -179.99};
+            case 1:
+                return new double[]{random.nextBoolean() ? 89.995 : -89.995, random.nextDouble() * 360 - 180};
+            default:
+                return new double[]{16.8 + random.nextGaussian() * 0.05, 96.1 + random.nextGaussian() * 0.05};
+        }
+    }
+
+    @Test
+    void withinMatchesBruteForce() {
+        for (int query = 0; query < 200; query++) {
+            double[] point = queryPoint(query);
+            double radius = 50 + random.nextDouble() * 3000;
+            Set<Integer> expected = new TreeSet<>();
+            for (int port = 0; port < VESSELS; port++) {
+                if (port != REMOVED && GeoDistance.meters(point[0], point[1], lat[port], lon[port]) <= radius) {
+                    expected.add(port);
+                }
+            }
+            List<VesselSpatialIndex.Hit> hits = index.within(point[0], point[1], radius);
+            assertEquals(expected, ports(hits), "within " + radius + " m of " + point[0] + "," + point[1]);
+            assertEquals(expected.size(), hits.size(), "duplicate hits");
+            for (int i = 1; i < hits.size(); i++) {
+                assertTrue(hits.get(i - 1).getDistance() <= hits.get(i).getDistance(), "not nearest first");
+            }
+        }
+    }
+
+    @Test
+    void nearestMatchesBruteForce() {
+        for (int query = 0; query < 200; query++) {
+            double[] point = queryPoint(query);
+            int k = 1 + random.nextInt(20);
+            List<Double> expected = new ArrayList<>();
+            for (int port = 0; port < VESSELS; port++) {
+                if (port != REMOVED) {
+                    expected.add(GeoDistance.meters(point[0], point[1], lat[port], lon[port]));
+                }
+            }
+            expected.sort(Comparator.naturalOrder());
+            List<VesselSpatialIndex.Hit> hits = index.nearest(point[0], point[1], k);
+            assertEquals(k, hits.size());
+            for (int i = 0; i < k; i++) {
+                assertEquals(expected.get(i), hits.get(i).getDistance(), 1e-6, "nearest " + i + " of " + k);
+            }
+        }
+    }
+
+    @Test
+    void boundingBoxMatchesBruteForce() {
+        for (int query = 0; query < 200; query++) {
+            double[] point = queryPoint(query);
+            double minLat = Math.max(-90, point[0] - 0.03);
+            double maxLat = Math.min(90, point[0] + 0.03);
+            double minLon = point[1] - 0.04 < -180 ? point[1] - 0.04 + 360 : point[1] - 0.04;
+            double maxLon = point[1] + 0.04 > 180 ? point[1] + 0.04 - 360 : point[1] + 0.04;
+            Set<Integer> expected = new TreeSet<>();
+            for (int port = 0; port < VESSELS; port++) {
+                boolean inLon = minLon <= maxLon ? lon[port] >= minLon && lon[port] <= maxLon
+                        : lon[port] >= minLon || lon[port] <= maxLon;
+                if (port != REMOVED && lat[port] >= minLat && lat[port] <= maxLat && inLon) {
+                    expected.add(port);
+                }
+            }
+            assertEquals(expected, ports(index.boundingBox(minLat, minLon, maxLat, maxLon)),
+                    "bbox " + minLat + "," + minLon + " - " + maxLat + "," + maxLon);
+        }
+        assertEquals(VESSELS - 1, index.boundingBox(-90, -180, 90, 180).size());
+    }
+
+    @Test
+    void proximityMatchesBruteForce() {
+        for (double distance : new double[]{20, 100, 500}) {
+            Set<List<Integer>> expected = new TreeSet<>(Comparator.comparing(Object::toString));
+            for (int first = 0; first < VESSELS; first++) {
+                for (int second = first + 1; second < VESSELS; second++) {
+                    if (first != REMOVED && second != REMOVED
+                            && GeoDistance.meters(lat[first], lon[first], lat[second], lon[second]) <= distance) {
+                        expected.add(List.of(first, second));
+                    }
+                }
+            }
+            List<VesselSpatialIndex.Pair> found = index.proximity(distance);
+            Set<List<Integer>> pairs = new TreeSet<>(Comparator.comparing(Object::toString));
+            for (VesselSpatialIndex.Pair pair : found) {
+                Map<String, Object> map = pair.toMap();
+                @SuppressWarnings("unchecked")
+                List<Integer> ports = (List<Integer>) map.get("ports");
+                pairs.add(ports);
+            }
+            assertEquals(expected, pairs, "pairs within " + distance + " m");
+            assertEquals(expected.size(), found.size(), "duplicate pairs");
+        }
+    }
+
+    // Radii of 1000 km and more at high latitude, where the circle's longitude span is
+    // much wider than radius / cos(lat); nearest() grows its radius into this range.
+    @Test
+    void largeRadiiAtHighLatitudeMatchBruteForce() {
+        index = new VesselSpatialIndex(0.01);
+        for (int port = 0; port < VESSELS; port++) {
+            place(port, 45 + random.nextDouble() * 44.9, random.nextDouble() * 360 - 180);
+        }
+        place(VESSELS - 1, 61.2, 18.1);
+        assertTrue(ports(index.within(60, 0, 1_000_000)).contains(VESSELS - 1), "61.2,18.1 is 993.7 km from 60,0");
+
+        for (int query = 0; query < 100; query++) {
+            double queryLat = 55 + random.nextDouble() * 30;
+            double queryLon = random.nextDouble() * 360 - 180;
+            double radius = 1_000_000 + random.nextDouble() * 2_000_000;
+            Set<Integer> expected = new TreeSet<>();
+            List<Double> distances = new ArrayList<>();
+            for (int port = 0; port < VESSELS; port++) {
+                double distance = GeoDistance.meters(queryLat, queryLon, lat[port], lon[port]);
+                distances.add(distance);
+                if (distance <= radius) {
+                    expected.add(port);
+                }
+            }
+            assertEquals(expected, ports(index.within(queryLat, queryLon, radius)),
+                    "within " + radius + " m of " + queryLat + "," + queryLon);
+
+            distances.sort(Comparator.naturalOrder());
+            int k = 1 + random.nextInt(50);
+            List<VesselSpatialIndex.Hit> hits = index.nearest(queryLat, queryLon, k);
+            for (int i = 0; i < k; i++) {
+                assertEquals(distances.get(i), hits.get(i).getDistance(), 1e-6, "nearest " + i + " of " + k);
+            }
+        }
+    }
+
+    @Test
+    void removedVesselHasNoPosition() {
+        assertNull(index.position(REMOVED));
+        assertNull(index.around(REMOVED, 100));
+    }
+
+    private static Set<Integer> ports(List<VesselSpatialIndex.Hit> hits) {
+        Set<Integer> ports = new TreeSet<>();
+        for (VesselSpatialIndex.Hit hit : hits) {
+            ports.add(hit.getPort());
+        }
+        return ports;
+    }
+}